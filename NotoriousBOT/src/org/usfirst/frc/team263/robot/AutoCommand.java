@@ -0,0 +1,262 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Executable step of an autonomous routine.
+ *
+ * <p>
+ * Commands block the calling thread until they end and must return by the
+ * deadline they are given. Each run records when the command started, how long
+ * it ran and how it ended, for reporting once the routine is over.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public abstract class AutoCommand {
+	public static enum Outcome {
+		eNotRun, eCompleted, eTimedOut, eCancelled;
+	}
+
+	/**
+	 * Deadline of a command which may run indefinitely
+	 */
+	public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private final RoutineStep step;
+	private volatile Outcome outcome = Outcome.eNotRun;
+	private volatile long startTime, endTime;
+
+	/**
+	 * @param step
+	 *            Step this command was compiled from
+	 */
+	protected AutoCommand(RoutineStep step) {
+		this.step = step;
+	}
+
+	/**
+	 * Runs the command and records its metrics.
+	 *
+	 * @param routine
+	 *            Routine the command is running in
+	 * @param deadline
+	 *            Time the command must end by, from
+	 *            <code>System.nanoTime()</code>, or {@link #NO_DEADLINE}
+	 * @return How the command ended
+	 */
+	public final Outcome run(AutoRoutine routine, long deadline) {
+		startTime = System.nanoTime();
+		Outcome result;
+		if (routine.isAborted()) {
+			result = Outcome.eCancelled;
+		} else if (startTime >= deadline) {
+			result = Outcome.eTimedOut;
+		} else if (routine.isDryRun() && isAction()) {
+			result = Outcome.eCompleted;
+		} else {
+			try {
+				result = execute(routine, deadline);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				result = Outcome.eCancelled;
+			}
+		}
+		endTime = System.nanoTime();
+		outcome = result;
+		return result;
+	}
+
+	/**
+	 * Performs the command.
+	 *
+	 * @param routine
+	 *            Routine the command is running in
+	 * @param deadline
+	 *            Time the command must end by, from
+	 *            <code>System.nanoTime()</code>, or {@link #NO_DEADLINE}
+	 * @return How the command ended
+	 * @throws InterruptedException
+	 *             if the running thread is interrupted
+	 */
+	protected abstract Outcome execute(AutoRoutine routine, long deadline) throws InterruptedException;
+
+	/**
+	 * @return true if this command acts on the robot, false if it only runs
+	 *         other commands
+	 */
+	protected boolean isAction() {
+		return true;
+	}
+
+	/**
+	 * @return Commands run by this command, empty for actions
+	 */
+	public List<AutoCommand> getChildren() {
+		return new ArrayList<AutoCommand>();
+	}
+
+	/**
+	 * @return Step this command was compiled from
+	 */
+	public RoutineStep getStep() {
+		return step;
+	}
+
+	/**
+	 * @return How the last run ended
+	 */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return Time the last run started, from <code>System.nanoTime()</code>
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return Duration of the last run (in seconds)
+	 */
+	public double getDuration() {
+		return outcome == Outcome.eNotRun ? 0 : (endTime - startTime) / 1e9;
+	}
+
+	/**
+	 * Clears metrics of this command and its children before a new run.
+	 */
+	public void reset() {
+		outcome = Outcome.eNotRun;
+		startTime = endTime = 0;
+		for (AutoCommand child : getChildren()) {
+			child.reset();
+		}
+	}
+
+	/**
+	 * Runs its children one after another. A child which times out does not
+	 * stop the sequence, a cancelled child does.
+	 */
+	public static class Sequential extends AutoCommand {
+		private final List<AutoCommand> children;
+
+		public Sequential(RoutineStep step, List<AutoCommand> children) {
+			super(step);
+			this.children = children;
+		}
+
+		@Override
+		protected Outcome execute(AutoRoutine routine, long deadline) {
+			for (AutoCommand child : children) {
+				if (child.run(routine, deadline) == Outcome.eCancelled) {
+					return Outcome.eCancelled;
+				}
+			}
+			return System.nanoTime() >= deadline ? Outcome.eTimedOut : Outcome.eCompleted;
+		}
+
+		@Override
+		protected boolean isAction() {
+			return false;
+		}
+
+		@Override
+		public List<AutoCommand> getChildren() {
+			return children;
+		}
+	}
+
+	/**
+	 * Runs its children at the same time and ends once all of them have ended.
+	 * The first child runs on the calling thread and the rest on the routine's
+	 * worker threads.
+	 */
+	public static class Parallel extends AutoCommand {
+		private final List<AutoCommand> children;
+		private final ArrayList<Future<Outcome>> futures = new ArrayList<Future<Outcome>>();
+
+		public Parallel(RoutineStep step, List<AutoCommand> children) {
+			super(step);
+			this.children = children;
+		}
+
+		@Override
+		protected Outcome execute(final AutoRoutine routine, final long deadline) throws InterruptedException {
+			futures.clear();
+			for (int i = 1; i < children.size(); i++) {
+				final AutoCommand child = children.get(i);
+				futures.add(routine.submit(new Callable<Outcome>() {
+					public Outcome call() {
+						return child.run(routine, deadline);
+					}
+				}));
+			}
+			boolean cancelled = !children.isEmpty() && children.get(0).run(routine, deadline) == Outcome.eCancelled;
+			for (Future<Outcome> future : futures) {
+				try {
+					cancelled |= future.get() == Outcome.eCancelled;
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+					cancelled = true;
+				}
+			}
+			if (cancelled) {
+				return Outcome.eCancelled;
+			}
+			return System.nanoTime() >= deadline ? Outcome.eTimedOut : Outcome.eCompleted;
+		}
+
+		@Override
+		protected boolean isAction() {
+			return false;
+		}
+
+		@Override
+		public List<AutoCommand> getChildren() {
+			return children;
+		}
+	}
+
+	/**
+	 * Runs its child with a tighter deadline.
+	 */
+	public static class Timeout extends AutoCommand {
+		private final AutoCommand child;
+		private final long timeout;
+
+		public Timeout(RoutineStep step, AutoCommand child) {
+			super(step);
+			this.child = child;
+			timeout = (long) (step.getArg(0) * 1000000L);
+		}
+
+		@Override
+		protected Outcome execute(AutoRoutine routine, long deadline) {
+			long ownDeadline = System.nanoTime() + timeout;
+			Outcome result = child.run(routine, Math.min(deadline, ownDeadline));
+			if (result == Outcome.eCompleted && System.nanoTime() >= ownDeadline) {
+				return Outcome.eTimedOut;
+			}
+			return result;
+		}
+
+		@Override
+		protected boolean isAction() {
+			return false;
+		}
+
+		@Override
+		public List<AutoCommand> getChildren() {
+			ArrayList<AutoCommand> list = new ArrayList<AutoCommand>();
+			list.add(child);
+			return list;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Compiled autonomous routine, ready to run.
+ *
+ * <p>
+ * A routine may be aborted from any thread, which cancels every motion its
+ * commands are waiting on and wakes any command that is sleeping, so the
+ * routine ends promptly. Step metrics and the actual duration of every wait
+ * from the last run are printed and published once the routine ends, so timing
+ * margins can be tightened from data.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class AutoRoutine {
+	private final String name;
+	private final AutoCommand root;
+	private final ExecutorService workers;
+	private final Set<MotionHandle> activeMotions = ConcurrentHashMap.<MotionHandle> newKeySet();
+	private final Object sleepLock = new Object();
+	// Records of waits in the last run, guarded by itself
+	private final ArrayList<String> waits = new ArrayList<String>();
+	private volatile boolean aborted, done, dryRun;
+	private long startTime;
+
+	/**
+	 * Instantiates a routine.
+	 *
+	 * @param name
+	 *            Name of routine
+	 * @param root
+	 *            Command run by routine
+	 * @param workers
+	 *            Threads to run parallel commands on
+	 */
+	public AutoRoutine(String name, AutoCommand root, ExecutorService workers) {
+		this.name = name;
+		this.root = root;
+		this.workers = workers;
+	}
+
+	/**
+	 * Runs the routine on the calling thread and reports its metrics.
+	 *
+	 * @return How the routine ended
+	 */
+	public AutoCommand.Outcome run() {
+		aborted = false;
+		done = false;
+		root.reset();
+		synchronized (waits) {
+			waits.clear();
+		}
+		startTime = System.nanoTime();
+		AutoCommand.Outcome outcome = root.run(this, AutoCommand.NO_DEADLINE);
+		done = true;
+		report();
+		return outcome;
+	}
+
+	/**
+	 * Runs the routine's groups without performing any actions, so the classes
+	 * and threads a real run needs are loaded and started ahead of time. Must
+	 * not be called while the routine is running.
+	 *
+	 * @param passes
+	 *            Number of dry runs
+	 */
+	public void warmUp(int passes) {
+		dryRun = true;
+		try {
+			for (int i = 0; i < passes; i++) {
+				aborted = false;
+				root.reset();
+				root.run(this, AutoCommand.NO_DEADLINE);
+				MotionHandle handle = new MotionHandle(0);
+				handle.start();
+				handle.finish();
+				await(handle, System.nanoTime() + 1000000000L, "warm up");
+			}
+		} finally {
+			root.reset();
+			synchronized (waits) {
+				waits.clear();
+			}
+			dryRun = false;
+		}
+	}
+
+	/**
+	 * @return true if actions should be skipped for a warm up run, false
+	 *         otherwise
+	 */
+	public boolean isDryRun() {
+		return dryRun;
+	}
+
+	/**
+	 * @return Time the last run started, from <code>System.nanoTime()</code>
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Ends the routine as soon as possible. Motions in progress are cancelled.
+	 */
+	public void abort() {
+		aborted = true;
+		for (MotionHandle handle : activeMotions) {
+			handle.cancel();
+		}
+		synchronized (sleepLock) {
+			sleepLock.notifyAll();
+		}
+	}
+
+	/**
+	 * @return true if the routine has been aborted, false otherwise
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * @return true if the last run has ended, false otherwise
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return Name of routine
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Command run by routine
+	 */
+	public AutoCommand getRoot() {
+		return root;
+	}
+
+	/**
+	 * Waits for a motion to end, cancelling it if the deadline passes or the
+	 * routine is aborted first. Records how long the wait took.
+	 *
+	 * @param handle
+	 *            Handle to motion, already started
+	 * @param deadline
+	 *            Time to wait until, from <code>System.nanoTime()</code>
+	 * @param label
+	 *            Description of what is being waited for, for reporting
+	 * @return How the motion ended
+	 */
+	public AutoCommand.Outcome await(MotionHandle handle, long deadline, String label) {
+		long start = System.nanoTime();
+		AutoCommand.Outcome outcome = null;
+		activeMotions.add(handle);
+		try {
+			if (aborted) {
+				handle.cancel();
+			}
+			while (!handle.isDone()) {
+				long remaining = deadline == AutoCommand.NO_DEADLINE ? 0
+						: Math.max(1, (deadline - System.nanoTime()) / 1000000L);
+				handle.await(remaining);
+				if (!handle.isDone() && System.nanoTime() >= deadline) {
+					handle.cancel();
+					outcome = AutoCommand.Outcome.eTimedOut;
+				}
+			}
+		} finally {
+			activeMotions.remove(handle);
+		}
+		if (outcome == null) {
+			switch (handle.getState()) {
+			case eCompleted:
+				outcome = AutoCommand.Outcome.eCompleted;
+				break;
+			case eTimedOut:
+				outcome = AutoCommand.Outcome.eTimedOut;
+				break;
+			default:
+				outcome = aborted ? AutoCommand.Outcome.eCancelled : AutoCommand.Outcome.eTimedOut;
+			}
+		}
+
+		double waited = (System.nanoTime() - start) / 1e9;
+		String record = String.format("%s waited %.3fs", label, waited);
+		if (deadline != AutoCommand.NO_DEADLINE) {
+			record += String.format(" of %.3fs", (deadline - start) / 1e9);
+		}
+		synchronized (waits) {
+			waits.add(record + " " + outcome);
+		}
+		return outcome;
+	}
+
+	/**
+	 * Sleeps until a time, waking early if the routine is aborted.
+	 *
+	 * @param wakeTime
+	 *            Time to sleep until, from <code>System.nanoTime()</code>
+	 * @return true if the full time elapsed, false if the routine was aborted
+	 * @throws InterruptedException
+	 *             if the sleeping thread is interrupted
+	 */
+	public boolean sleepUntil(long wakeTime) throws InterruptedException {
+		synchronized (sleepLock) {
+			long remaining;
+			while (!aborted && (remaining = wakeTime - System.nanoTime()) > 0) {
+				sleepLock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+			}
+		}
+		return !aborted;
+	}
+
+	/**
+	 * Runs a command body on a worker thread.
+	 *
+	 * @param task
+	 *            Body to run
+	 * @return Future of the task
+	 */
+	Future<AutoCommand.Outcome> submit(Callable<AutoCommand.Outcome> task) {
+		return workers.submit(task);
+	}
+
+	/**
+	 * Prints a line per step and per wait of the last run, and publishes them
+	 * to NetworkTables.
+	 */
+	private void report() {
+		ArrayList<String> lines = new ArrayList<String>();
+		lines.add(name + ": " + root.getOutcome() + " in " + String.format("%.3f", root.getDuration()) + "s");
+		report(root, 1, lines);
+		for (String line : lines) {
+			System.out.println(line);
+		}
+		String[] waitLines;
+		synchronized (waits) {
+			waitLines = waits.toArray(new String[waits.size()]);
+		}
+		for (String line : waitLines) {
+			System.out.println("  " + line);
+		}
+		NetworkTable table = NetworkTable.getTable("autoData");
+		table.putStringArray("metrics", lines.toArray(new String[lines.size()]));
+		table.putStringArray("waits", waitLines);
+	}
+
+	private void report(AutoCommand command, int depth, ArrayList<String> lines) {
+		for (AutoCommand child : command.getChildren()) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < depth; i++) {
+				sb.append("  ");
+			}
+			RoutineStep step = child.getStep();
+			sb.append(step.getChildren().isEmpty() ? step.toString() : step.getName());
+			if (child.getOutcome() == AutoCommand.Outcome.eNotRun) {
+				sb.append(" not run");
+			} else {
+				sb.append(String.format(" at %.3fs took %.3fs ", (child.getStartTime() - startTime) / 1e9,
+						child.getDuration())).append(child.getOutcome());
+			}
+			lines.add(sb.toString());
+			report(child, depth + 1, lines);
+		}
+	}
+}
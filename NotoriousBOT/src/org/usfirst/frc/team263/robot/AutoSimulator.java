@@ -0,0 +1,327 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.ArrayList;
+
+/**
+ * Simulates an autonomous routine against a model of the drivebase and navX,
+ * in simulated time as fast as the processor allows.
+ *
+ * <p>
+ * Wheels follow their commanded outputs with the same first order lag as
+ * {@link PoseEstimator}, and motion is integrated with the same mecanum
+ * kinematics. Actions run the robot's own control laws on the model:
+ * {@link RotationController} with its tuned gains for closed loop rotation,
+ * {@link HeadingController} with its tuned gain for heading hold, and
+ * {@link PathFollower} for paths, mixed into wheel outputs as
+ * {@link MecanumDrive} mixes them. Every action is updated at the rotation
+ * controller's rate, where the robot runs motions at half of it. Mechanism
+ * actions only take time. The model has no wheel slip, battery sag or sensor
+ * latency, so results are for ranking variants against each other rather
+ * than predicting the field exactly.
+ * </p>
+ *
+ * <p>
+ * A simulator is single threaded and holds no shared state, so many can run
+ * in parallel.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class AutoSimulator {
+	/**
+	 * Step of simulated time (in seconds), the rate of the rotation controller
+	 */
+	public static final double DT = 1 / RotationController.UPDATE_RATE;
+	/**
+	 * Longest simulated run (in seconds)
+	 */
+	public static final double MAX_TIME = 30;
+
+	private final double GEAR_TRAVEL_TIME = 0.6;
+
+	private final SimCommand root;
+	// Commanded outputs and modeled speeds of {fr, br, fl, bl}
+	private final double[] outputs = new double[4], wheelSpeeds = new double[4];
+	private double time, x, y, yaw, yawRate, gearArrivalTime;
+
+	/**
+	 * Instantiates a simulator for a routine.
+	 *
+	 * @param routine
+	 *            Root step of a validated routine
+	 */
+	public AutoSimulator(RoutineStep routine) {
+		root = build(routine);
+	}
+
+	/**
+	 * Runs the routine from the origin, facing forward, until it ends or
+	 * {@link #MAX_TIME} passes.
+	 *
+	 * @return Final pose and time as {x, y, heading, elapsed time}, in inches,
+	 *         degrees and seconds
+	 */
+	public double[] run() {
+		time = x = y = yaw = yawRate = 0;
+		gearArrivalTime = 0;
+		for (int i = 0; i < 4; i++) {
+			outputs[i] = wheelSpeeds[i] = 0;
+		}
+		root.start();
+		while (!root.update() && time < MAX_TIME) {
+			integrate();
+			time += DT;
+		}
+		return new double[] { x, y, yaw, time };
+	}
+
+	/**
+	 * Integrates one step of the drivebase model.
+	 */
+	private void integrate() {
+		double k = DT / (PoseEstimator.WHEEL_TIME_CONSTANT + DT);
+		for (int i = 0; i < 4; i++) {
+			wheelSpeeds[i] += (outputs[i] * PoseEstimator.MAX_WHEEL_SPEED - wheelSpeeds[i]) * k;
+		}
+		double forward = (wheelSpeeds[0] + wheelSpeeds[1] + wheelSpeeds[2] + wheelSpeeds[3]) / 4;
+		double strafe = (-wheelSpeeds[0] + wheelSpeeds[1] + wheelSpeeds[2] - wheelSpeeds[3]) / 4;
+		double rotation = (wheelSpeeds[2] + wheelSpeeds[3] - wheelSpeeds[0] - wheelSpeeds[1]) / 4;
+		yawRate = Math.toDegrees(rotation / PathPlanner.TRACK_RADIUS);
+
+		double theta = yaw + yawRate * DT / 2;
+		double sinT = FastMath.sinDegrees(theta), cosT = FastMath.cosDegrees(theta);
+		x += (strafe * cosT + forward * sinT) * DT;
+		y += (-strafe * sinT + forward * cosT) * DT;
+		yaw = wrap(yaw + yawRate * DT);
+	}
+
+	private void setWheels(double fr, double br, double fl, double bl) {
+		double max = Math.max(Math.max(Math.abs(fr), Math.abs(br)), Math.max(Math.abs(fl), Math.abs(bl)));
+		double scale = max > 1 ? 1 / max : 1;
+		outputs[0] = fr * scale;
+		outputs[1] = br * scale;
+		outputs[2] = fl * scale;
+		outputs[3] = bl * scale;
+	}
+
+	private static double wrap(double angle) {
+		angle %= 360;
+		if (angle > 180) {
+			angle -= 360;
+		} else if (angle <= -180) {
+			angle += 360;
+		}
+		return angle;
+	}
+
+	private SimCommand build(RoutineStep step) {
+		final ArrayList<SimCommand> children = new ArrayList<SimCommand>();
+		for (RoutineStep child : step.getChildren()) {
+			children.add(build(child));
+		}
+		final double a = step.getArgCount() > 0 ? step.getArg(0) : 0;
+		final double b = step.getArgCount() > 1 ? step.getArg(1) : 0;
+		switch (step.getName()) {
+		case RoutineParser.SEQUENTIAL:
+			return new SimCommand() {
+				int index;
+
+				void start() {
+					index = 0;
+					if (!children.isEmpty()) {
+						children.get(0).start();
+					}
+				}
+
+				boolean update() {
+					while (index < children.size() && children.get(index).update()) {
+						if (++index < children.size()) {
+							children.get(index).start();
+						}
+					}
+					return index >= children.size();
+				}
+			};
+		case RoutineParser.PARALLEL:
+			return new SimCommand() {
+				boolean[] done = new boolean[children.size()];
+
+				void start() {
+					for (int i = 0; i < done.length; i++) {
+						done[i] = false;
+						children.get(i).start();
+					}
+				}
+
+				boolean update() {
+					boolean all = true;
+					for (int i = 0; i < done.length; i++) {
+						done[i] = done[i] || children.get(i).update();
+						all &= done[i];
+					}
+					return all;
+				}
+			};
+		case RoutineParser.TIMEOUT:
+			return new SimCommand() {
+				double end;
+
+				void start() {
+					end = time + a / 1000;
+					children.get(0).start();
+				}
+
+				boolean update() {
+					if (time >= end) {
+						setWheels(0, 0, 0, 0);
+						return true;
+					}
+					return children.get(0).update();
+				}
+			};
+		case "forward":
+		case "contact":
+			// Nothing to run into, so contact always drives until it times out
+			return new TimedDrive(b / 1000) {
+				final HeadingController controller = new HeadingController(HeadingController.TUNED_KP);
+				double heading;
+
+				void start() {
+					super.start();
+					heading = yaw;
+				}
+
+				void drive() {
+					double r = controller.calculate(yaw, heading) * MecanumDrive.ROTATION_CONSTANT;
+					setWheels(a - r, a - r, a + r, a + r);
+				}
+			};
+		case "strafe":
+			return new TimedDrive(b / 1000) {
+				void drive() {
+					setWheels(-a, a, a, -a);
+				}
+			};
+		case "rotate":
+			return new TimedDrive(b / 1000) {
+				final RotationController controller = new RotationController();
+
+				void start() {
+					super.start();
+					controller.reset(wrap(yaw - a), yawRate);
+				}
+
+				boolean update() {
+					if (controller.isSettled(wrap(yaw - a), yawRate)) {
+						setWheels(0, 0, 0, 0);
+						return true;
+					}
+					return super.update();
+				}
+
+				void drive() {
+					double u = controller.calculate(wrap(yaw - a), yawRate, DT);
+					setWheels(u, u, -u, -u);
+				}
+			};
+		case "path":
+			final PathFollower follower = new PathFollower(RoutineLibrary.planPath(step));
+			return new SimCommand() {
+				double start;
+
+				void start() {
+					start = time;
+					follower.start(x, y);
+				}
+
+				boolean update() {
+					if (follower.isFinished(time - start)) {
+						setWheels(0, 0, 0, 0);
+						return true;
+					}
+					follower.calculate(time - start, x, y, yaw, outputs);
+					return false;
+				}
+			};
+		case "wait":
+			return new Delay(a);
+		case "climb":
+			return new Delay(b / 1000);
+		case "gear":
+			return new SimCommand() {
+				boolean update() {
+					gearArrivalTime = time + GEAR_TRAVEL_TIME;
+					return true;
+				}
+			};
+		case "gearUp":
+			return new Delay(a / 1000) {
+				boolean update() {
+					return time >= gearArrivalTime || super.update();
+				}
+			};
+		default:
+			// Mechanism actions without a modeled duration
+			return new SimCommand() {
+				boolean update() {
+					return true;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Simulated command, updated once per step of simulated time.
+	 */
+	private abstract class SimCommand {
+		void start() {
+		}
+
+		/**
+		 * @return true once the command has ended
+		 */
+		abstract boolean update();
+	}
+
+	/**
+	 * Command which ends after a fixed time.
+	 */
+	private class Delay extends SimCommand {
+		private final double duration;
+		private double end;
+
+		Delay(double duration) {
+			this.duration = duration;
+		}
+
+		void start() {
+			end = time + duration;
+		}
+
+		boolean update() {
+			return time >= end;
+		}
+	}
+
+	/**
+	 * Command driving the wheels for at most a fixed time, stopping them when
+	 * it ends.
+	 */
+	private abstract class TimedDrive extends Delay {
+		TimedDrive(double duration) {
+			super(duration);
+		}
+
+		boolean update() {
+			if (super.update()) {
+				setWheels(0, 0, 0, 0);
+				return true;
+			}
+			drive();
+			return false;
+		}
+
+		abstract void drive();
+	}
+}
@@ -0,0 +1,379 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Desktop harness which sweeps grids of autonomous routine parameters through
+ * {@link AutoSimulator} in parallel, and ranks the variants by how close they
+ * finish to a target pose and how long they take.
+ *
+ * <p>
+ * Usage:
+ * </p>
+ *
+ * <pre>
+ * AutoTuner "Routine Name" [file=routines.txt] target=x,y,heading [top=n]
+ *           [scale=min:max:count] [leaf.arg=min:max:count]...
+ * </pre>
+ *
+ * <p>
+ * Actions in the routine are numbered depth first from 0; run with no
+ * parameters to list them. <code>leaf.arg</code> sweeps one argument of one
+ * action, and <code>scale</code> multiplies the duration of every timed drive
+ * and climb. A sweep needs a target pose measured on the field, in inches and
+ * degrees from where the routine starts. Ranking against where the unmodified
+ * routine finishes in simulation would always favor the unmodified routine,
+ * so there is no default. Run with only a routine name to see where it
+ * finishes.
+ * </p>
+ * <p>
+ * None of the classes the harness loads use WPILib, so it runs from the
+ * compiled robot classes alone:
+ * </p>
+ *
+ * <pre>
+ * java -cp bin org.usfirst.frc.team263.robot.AutoTuner "Left Gear Still"
+ * </pre>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class AutoTuner {
+	/**
+	 * Weight of heading error against position error (in inches per degree)
+	 */
+	public static final double HEADING_WEIGHT = 1;
+
+	private final int BATCH_SIZE = 64;
+
+	private final RoutineParser parser = RoutineLibrary.createParser();
+	private final RoutineStep routine;
+	private final ArrayList<RoutineStep> leaves = new ArrayList<RoutineStep>();
+	private final ArrayList<Parameter> parameters = new ArrayList<Parameter>();
+	private double[] target;
+
+	/**
+	 * One swept argument.
+	 */
+	private static class Parameter {
+		final String name;
+		final int leaf, arg, count;
+		final double min, max;
+
+		Parameter(String name, int leaf, int arg, double min, double max, int count) {
+			this.name = name;
+			this.leaf = leaf;
+			this.arg = arg;
+			this.min = min;
+			this.max = max;
+			this.count = count;
+		}
+
+		double value(int index) {
+			return count == 1 ? min : min + (max - min) * index / (count - 1);
+		}
+	}
+
+	/**
+	 * Simulated outcome of one variant.
+	 */
+	private static class Result {
+		final double[] values;
+		final double positionError, headingError, time, score;
+
+		Result(double[] values, double positionError, double headingError, double time) {
+			this.values = values;
+			this.positionError = positionError;
+			this.headingError = headingError;
+			this.time = time;
+			score = positionError + HEADING_WEIGHT * headingError;
+		}
+	}
+
+	/**
+	 * Splits a range of variants until it is small enough to simulate in one
+	 * task.
+	 */
+	private class Sweep extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Result[] results;
+		private final int from, to;
+
+		Sweep(Result[] results, int from, int to) {
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_SIZE) {
+				for (int i = from; i < to; i++) {
+					results[i] = evaluate(i);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Sweep(results, from, middle), new Sweep(results, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * @param routine
+	 *            Root step of routine to tune
+	 */
+	public AutoTuner(RoutineStep routine) {
+		this.routine = routine;
+		collectLeaves(routine);
+	}
+
+	/**
+	 * Adds a swept parameter.
+	 *
+	 * @param spec
+	 *            <code>leaf.arg=min:max:count</code> or
+	 *            <code>scale=min:max:count</code>
+	 */
+	public void addParameter(String spec) {
+		String[] nameAndRange = spec.split("=");
+		String[] range = nameAndRange[1].split(":");
+		double min = Double.parseDouble(range[0]), max = Double.parseDouble(range[1]);
+		int count = Integer.parseInt(range[2]);
+		if (count < 1) {
+			throw new IllegalArgumentException("Count must be positive in " + spec);
+		}
+		if (nameAndRange[0].equals("scale")) {
+			parameters.add(new Parameter("scale", -1, -1, min, max, count));
+			return;
+		}
+		String[] position = nameAndRange[0].split("\\.");
+		int leaf = Integer.parseInt(position[0]), arg = Integer.parseInt(position[1]);
+		if (leaf < 0 || leaf >= leaves.size() || arg < 0 || arg >= leaves.get(leaf).getArgCount()) {
+			throw new IllegalArgumentException("No argument " + nameAndRange[0]);
+		}
+		parameters.add(new Parameter(nameAndRange[0] + " " + leaves.get(leaf).getName(), leaf, arg, min, max, count));
+	}
+
+	/**
+	 * @param target
+	 *            Pose to finish at as {x, y, heading}, in inches and degrees
+	 */
+	public void setTarget(double[] target) {
+		this.target = target;
+	}
+
+	/**
+	 * Simulates every variant in parallel.
+	 *
+	 * @return Results of valid variants, best first
+	 * @throws IllegalStateException
+	 *             if no target is set
+	 */
+	List<Result> sweep() {
+		if (target == null) {
+			throw new IllegalStateException("Sweep needs a target pose");
+		}
+		long total = 1;
+		for (Parameter p : parameters) {
+			total *= p.count;
+		}
+		if (total > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many variants: " + total);
+		}
+		Result[] results = new Result[(int) total];
+		ForkJoinPool.commonPool().invoke(new Sweep(results, 0, results.length));
+
+		ArrayList<Result> valid = new ArrayList<Result>();
+		for (Result result : results) {
+			if (result != null) {
+				valid.add(result);
+			}
+		}
+		valid.sort(new Comparator<Result>() {
+			public int compare(Result a, Result b) {
+				int byScore = Double.compare(a.score, b.score);
+				return byScore != 0 ? byScore : Double.compare(a.time, b.time);
+			}
+		});
+		return valid;
+	}
+
+	/**
+	 * Simulates one variant of the grid.
+	 *
+	 * @return Result, or null if the variant's arguments are invalid
+	 */
+	private Result evaluate(int index) {
+		double[] values = new double[parameters.size()];
+		int remainder = index;
+		for (int i = parameters.size() - 1; i >= 0; i--) {
+			Parameter p = parameters.get(i);
+			values[i] = p.value(remainder % p.count);
+			remainder /= p.count;
+		}
+
+		RoutineStep variant = substitute(routine, values, new int[1]);
+		try {
+			parser.validate(variant);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		double[] pose = new AutoSimulator(variant).run();
+		double positionError = Math.hypot(pose[0] - target[0], pose[1] - target[1]);
+		double headingError = Math.abs(((pose[2] - target[2]) % 360 + 540) % 360 - 180);
+		return new Result(values, positionError, headingError, pose[3]);
+	}
+
+	/**
+	 * Copies a step tree with swept values applied.
+	 */
+	private RoutineStep substitute(RoutineStep step, double[] values, int[] leafIndex) {
+		if (step.getChildren().isEmpty() && !isGroup(step)) {
+			int leaf = leafIndex[0]++;
+			double[] args = new double[step.getArgCount()];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = step.getArg(i);
+			}
+			boolean changed = false;
+			for (int i = 0; i < values.length; i++) {
+				Parameter p = parameters.get(i);
+				if (p.leaf == leaf) {
+					args[p.arg] = values[i];
+					changed = true;
+				}
+			}
+			for (int i = 0; i < values.length; i++) {
+				Parameter p = parameters.get(i);
+				if (p.leaf < 0 && isTimed(step)) {
+					args[1] *= values[i];
+					changed = true;
+				}
+			}
+			return changed ? step.withArgs(args) : step;
+		}
+		ArrayList<RoutineStep> children = new ArrayList<RoutineStep>();
+		for (RoutineStep child : step.getChildren()) {
+			children.add(substitute(child, values, leafIndex));
+		}
+		double[] args = new double[step.getArgCount()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = step.getArg(i);
+		}
+		return new RoutineStep(step.getName(), args, children, step.getLine());
+	}
+
+	private void collectLeaves(RoutineStep step) {
+		if (step.getChildren().isEmpty() && !isGroup(step)) {
+			leaves.add(step);
+		}
+		for (RoutineStep child : step.getChildren()) {
+			collectLeaves(child);
+		}
+	}
+
+	private static boolean isGroup(RoutineStep step) {
+		String name = step.getName();
+		return name.equals(RoutineParser.SEQUENTIAL) || name.equals(RoutineParser.PARALLEL)
+				|| name.equals(RoutineParser.TIMEOUT);
+	}
+
+	private static boolean isTimed(RoutineStep step) {
+		String name = step.getName();
+		return name.equals("forward") || name.equals("strafe") || name.equals("climb");
+	}
+
+	/**
+	 * Runs a sweep from the command line.
+	 *
+	 * @param args
+	 *            See class documentation
+	 * @throws IOException
+	 *             if the routine file can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: AutoTuner \"Routine Name\" [file=routines.txt] target=x,y,heading [top=n] "
+					+ "[scale=min:max:count] [leaf.arg=min:max:count]...");
+			return;
+		}
+		String description = RoutineLibrary.ROUTINES;
+		double[] target = null;
+		int top = 20;
+		ArrayList<String> specs = new ArrayList<String>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].startsWith("file=")) {
+				description = new String(Files.readAllBytes(Paths.get(args[i].substring(5))), StandardCharsets.UTF_8);
+			} else if (args[i].startsWith("target=")) {
+				String[] parts = args[i].substring(7).split(",");
+				target = new double[] { Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+						Double.parseDouble(parts[2]) };
+			} else if (args[i].startsWith("top=")) {
+				top = Integer.parseInt(args[i].substring(4));
+			} else {
+				specs.add(args[i]);
+			}
+		}
+
+		Map<String, RoutineStep> routines = RoutineLibrary.createParser().parse(description);
+		RoutineStep routine = routines.get(args[0]);
+		if (routine == null) {
+			System.out.println("No routine " + args[0] + ", have " + routines.keySet());
+			return;
+		}
+		AutoTuner tuner = new AutoTuner(routine);
+		if (specs.isEmpty()) {
+			for (int i = 0; i < tuner.leaves.size(); i++) {
+				System.out.println(i + ": " + tuner.leaves.get(i));
+			}
+			double[] pose = new AutoSimulator(routine).run();
+			System.out.println(String.format("Finishes at (%.1f, %.1f) heading %.1f after %.2fs", pose[0], pose[1],
+					pose[2], pose[3]));
+			return;
+		}
+		if (target == null) {
+			System.out.println("Error - Sweeping needs target=x,y,heading, the pose the routine should finish at");
+			return;
+		}
+		for (String spec : specs) {
+			tuner.addParameter(spec);
+		}
+		tuner.setTarget(target);
+
+		long start = System.nanoTime();
+		List<Result> results = tuner.sweep();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Simulated %d variants in %.2fs on %d cores, target (%.1f, %.1f) heading %.1f",
+				results.size(), seconds, ForkJoinPool.commonPool().getParallelism(), tuner.target[0],
+				tuner.target[1], tuner.target[2]));
+		StringBuilder header = new StringBuilder("rank");
+		for (Parameter p : tuner.parameters) {
+			header.append('\t').append(p.name);
+		}
+		System.out.println(header.append("\terror (in)\terror (deg)\ttime (s)"));
+		for (int i = 0; i < Math.min(top, results.size()); i++) {
+			Result r = results.get(i);
+			StringBuilder line = new StringBuilder().append(i + 1);
+			for (double v : r.values) {
+				line.append('\t').append(String.format("%.4g", v));
+			}
+			System.out.println(line.append(String.format("\t%.2f\t%.2f\t%.2f", r.positionError, r.headingError,
+					r.time)));
+		}
+		if (results.isEmpty()) {
+			System.out.println("No valid variants");
+		} else {
+			System.out.println("Best variant: " + Arrays.toString(results.get(0).values));
+		}
+	}
+}
@@ -1,15 +1,59 @@
 package org.usfirst.frc.team263.robot;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import edu.wpi.first.wpilibj.DigitalInput;
-import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.InterruptHandlerFunction;
 
+/**
+ * Autonomous routines, described as data and run by the routine engine.
+ *
+ * <p>
+ * Routines are parsed, validated and compiled once by {@link #loadRoutines()},
+ * which should be called from <code>robotInit</code>. A description at
+ * {@link #ROUTINE_FILE} replaces the built in one,
+ * {@link RoutineLibrary#ROUTINES}, so routes can be changed without
+ * redeploying code. The actions routines may use are listed in
+ * {@link RoutineLibrary}.
+ * </p>
+ *
+ * @version 2.1
+ * @since 10-18-26
+ */
 public class Autonomous {
+	/**
+	 * Routine description which replaces the built in one if present
+	 */
+	public static final String ROUTINE_FILE = "/home/lvuser/autoRoutines.txt";
+
+	private final int WORKER_THREADS = 4, WARM_UP_PASSES = 20, PATH_TIMEOUT_MARGIN = 1000;
+
 	DigitalInput climberSprocketLS;
 	RopeClimber climber;
 	BallShooter shooter;
 	GearMechanism gearMechanism;
 	MecanumDrive drive;
-	double mult;
+	private final RoutineParser parser;
+	private final ThreadPoolExecutor workers;
+	private final HashMap<String, AutoRoutine> routines = new HashMap<String, AutoRoutine>();
+	// Handles waiting for the sprocket limit switch, guarded by itself
+	private final ArrayList<MotionHandle> sprocketWaiters = new ArrayList<MotionHandle>();
+	private int trajectoriesMapped, trajectoriesPlanned;
+	private long trajectoryNanos;
 
 	public Autonomous(MecanumDrive drive, GearMechanism gearMechanism, BallShooter shooter, RopeClimber climber,
 			DigitalInput climberSprocketLS) {
@@ -18,267 +62,290 @@ public class Autonomous {
 		this.shooter = shooter;
 		this.climber = climber;
 		this.climberSprocketLS = climberSprocketLS;
-		mult = 0.6;
-	}
+		parser = RoutineLibrary.createParser();
 
-	public void leftGear() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
+		// Complete sprocket waits from the interrupt thread on the switch
+		// closing, rather than polling it
+		climberSprocketLS.requestInterrupts(new InterruptHandlerFunction<Object>() {
+			public void interruptFired(int mask, Object param) {
+				MotionHandle[] reached;
+				synchronized (sprocketWaiters) {
+					reached = sprocketWaiters.toArray(new MotionHandle[sprocketWaiters.size()]);
+					sprocketWaiters.clear();
+				}
+				for (MotionHandle waiter : reached) {
+					waiter.finish();
+				}
 			}
-		}).start();
-		drive.forward(0.3, (int) (mult * 3850));
-		Timer.delay(1.5);
-		drive.autoRotate(60);
-		// drive.rotate(-0.4, 550);
-		long t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				drive.autoMovement = false;
-				break;
-			}
-		}
-		drive.forward(0.25, (int) (mult * 2000));
-		drive.forward(-0.25, (int) (mult * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		Timer.delay(1.5);
-		drive.forward(-0.3, (int) (mult * 2300));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		drive.autoRotate(0);
-		t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				drive.autoMovement = false;
-				break;
-			}
-		}
-		drive.forward(0.6, (int) (mult * 2700));
+		});
+		climberSprocketLS.setUpSourceEdge(true, false);
+		climberSprocketLS.enableInterrupts();
+		// Core threads never time out, so threads started while warming up are
+		// still there when autonomous starts
+		workers = new ThreadPoolExecutor(WORKER_THREADS, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "AutoWorker");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		workers.prestartAllCoreThreads();
 	}
 
-	public void rightGear_1() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.3, (int) (3520 * mult));
-		Timer.delay(1.5);
-		drive.autoRotate(-60);
-		// drive.rotate(-0.4, 550);
-		long t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1900) {
-				drive.autoMovement = false;
-				break;
+	/**
+	 * Maps the precomputed trajectory of a path step, planning it instead if
+	 * there is no file for it.
+	 */
+	private Trajectory loadPath(RoutineStep step) {
+		long start = System.nanoTime();
+		double[] arguments = TrajectoryFile.getArguments(step);
+		Path file = Paths.get(TrajectoryFile.DIRECTORY, TrajectoryFile.getFileName(arguments));
+		Trajectory trajectory = null;
+		if (Files.exists(file)) {
+			try {
+				trajectory = TrajectoryFile.map(file, arguments);
+				trajectoriesMapped++;
+			} catch (IOException e) {
+				System.out.println("Error - Invalid trajectory file: " + e.getMessage());
 			}
 		}
-		drive.forward(0.25, /* 2000 */(int) (mult * 2550));
-		drive.forward(-0.25, (int) (mult * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		Timer.delay(1.5);
-		drive.forward(-0.3, (int) (mult * 2500));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		drive.autoRotate(0);
-		t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				drive.autoMovement = false;
-				break;
-			}
+		if (trajectory == null) {
+			trajectory = RoutineLibrary.planPath(step);
+			trajectoriesPlanned++;
 		}
-		drive.forward(0.6, (int) (mult * 2700));
+		trajectoryNanos += System.nanoTime() - start;
+		return trajectory;
 	}
-	
-	public void rightGear_t() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.3, (int) (4050 * mult));
-		Timer.delay(1.5);
-		drive.autoRotate(-61);
-		// drive.rotate(-0.4, 550);
-		long t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1900) {
-				drive.autoMovement = false;
-				break;
+
+	/**
+	 * Parses, validates and compiles all routines. Falls back to the built in
+	 * description if the routine file is missing or invalid.
+	 */
+	public void loadRoutines() {
+		long start = System.nanoTime();
+		Map<String, RoutineStep> steps = null;
+		Path file = Paths.get(ROUTINE_FILE);
+		if (Files.exists(file)) {
+			try {
+				steps = parser.parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+			} catch (IOException | IllegalArgumentException e) {
+				System.out.println("Error - Invalid routine file " + ROUTINE_FILE + ": " + e.getMessage());
 			}
 		}
-		drive.forward(0.25, /* 2000 */(int) (mult * 2550));
-		drive.forward(-0.25, (int) (mult * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		Timer.delay(1.5);
-		drive.forward(-0.3, (int) (mult * 2500));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		drive.autoRotate(0);
-		t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				drive.autoMovement = false;
-				break;
-			}
+		if (steps == null) {
+			steps = parser.parse(RoutineLibrary.ROUTINES);
 		}
-		drive.forward(0.6, (int) (mult * 2700));
-	}
 
-	public void rightGear() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.23, (int) (mult * 4700));
-		Timer.delay(1.5);
-		drive.autoRotate(-60);
-		// drive.rotate(-0.4, 550);
-		long t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1900) {
-				drive.autoMovement = false;
-				break;
-			}
-		}
-		drive.forward(0.25, /* 2000 */(int) (mult * 2550));
-		drive.forward(-0.25, (int) (mult * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		Timer.delay(1.5);
-		drive.forward(-0.3, (int) (mult * 2500));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		drive.autoRotate(0);
-		t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				drive.autoMovement = false;
-				break;
-			}
+		routines.clear();
+		trajectoriesMapped = trajectoriesPlanned = 0;
+		trajectoryNanos = 0;
+		for (Map.Entry<String, RoutineStep> entry : steps.entrySet()) {
+			routines.put(entry.getKey(), new AutoRoutine(entry.getKey(), compile(entry.getValue()), workers));
 		}
-		drive.forward(0.6, (int) (mult * 2700));
+		System.out.println("Loaded " + routines.size() + " autonomous routines in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		System.out.println(String.format("Mapped %d and planned %d trajectories in %.2f ms", trajectoriesMapped,
+				trajectoriesPlanned, trajectoryNanos / 1e6));
 	}
 
-	public void middleGearShoot() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		// drive.forward(0.25, 4400);
-		drive.forward(0.2, /* 5400 */(int) (mult * 6800));
-		drive.forward(-0.2, (int) (mult * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		long t = System.currentTimeMillis();
-		while (!gearMechanism.getState().equals(GearMechanism.GearModes.eUp)) {
-			if (System.currentTimeMillis() - t > 1500)
-				break;
+	/**
+	 * Prepares a routine to start with as little delay as possible, by dry
+	 * running it and starting the threads and loading the classes it uses.
+	 * Does not move the robot.
+	 * 
+	 * @param routine
+	 *            Routine to prepare
+	 */
+	public void warmUp(final AutoRoutine routine) {
+		long start = System.nanoTime();
+		drive.warmUp();
+		try {
+			// Dry run on a worker, the way the real run will be dispatched
+			workers.submit(new Runnable() {
+				public void run() {
+					routine.warmUp(WARM_UP_PASSES);
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
 		}
-		drive.forward(-0.3, (int) (mult * 2900));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		drive.strafe(-0.3, 700);
-		shooter.setMotorPower(.98);
-		Timer.delay(2.2);
-		shooter.setAgitator(true);
-		shooter.run();
+		System.out.println("Warmed up " + routine.getName() + " in " + (System.nanoTime() - start) / 1000000 + " ms");
 	}
 
-	public void middleGear() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
+	/**
+	 * Starts a routine on a worker thread.
+	 * 
+	 * @param routine
+	 *            Routine to run
+	 * @return Future which completes when the routine ends
+	 */
+	public Future<AutoCommand.Outcome> start(final AutoRoutine routine) {
+		return workers.submit(new Callable<AutoCommand.Outcome>() {
+			public AutoCommand.Outcome call() {
+				return routine.run();
 			}
-		}).start();
-		drive.forward(0.2, /* 5400 */(int) (mult * 6800));
-		drive.forward(-0.2, (int) (1.0 * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		long t = System.currentTimeMillis();
-		while (!gearMechanism.getState().equals(GearMechanism.GearModes.eUp)) {
-			if (System.currentTimeMillis() - t > 1500)
-				break;
-		}
-		drive.forward(-0.3, (int) (mult * 2900));
-		gearMechanism.toggleState();
-		gearMechanism.run();
+		});
 	}
-	
-	public void straight() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.2, /* 5400 */(int) (mult * 7500));
-		drive.forward(-0.2, (int) (1.0 * 200));
+
+	/**
+	 * @param name
+	 *            Name of routine
+	 * @return Compiled routine, or null if there is no routine with that name
+	 */
+	public AutoRoutine getRoutine(String name) {
+		return routines.get(name);
 	}
 
-	public void leftGearStill() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.3, (int) (mult * 3500));
-		Timer.delay(1.5);
-		drive.autoRotate(60);
-		// drive.rotate(-0.4, 550);
-		long t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				break;
+	/**
+	 * Waits for the climber sprocket limit switch to close without blocking.
+	 *
+	 * @return Handle which completes when the switch closes, or immediately if
+	 *         it is already closed
+	 */
+	private MotionHandle awaitSprocket() {
+		MotionHandle handle = new MotionHandle(0);
+		handle.start();
+		synchronized (sprocketWaiters) {
+			for (int i = sprocketWaiters.size() - 1; i >= 0; i--) {
+				if (sprocketWaiters.get(i).isDone()) {
+					sprocketWaiters.remove(i);
+				}
 			}
+			sprocketWaiters.add(handle);
 		}
-		drive.forward(0.25, /* 2000 */(int) (mult * 2500));
-		drive.forward(-0.25, (int) (mult * 100));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		Timer.delay(0.5);
-		drive.forward(-0.3, (int) (mult * 2300));
-		gearMechanism.toggleState();
-		gearMechanism.run();
+		if (climberSprocketLS.get()) {
+			handle.finish();
+		}
+		return handle;
 	}
 
-	public void rightGearStill() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.3, (int) (mult * 3500));
-		Timer.delay(1.5);
-		drive.autoRotate(-60);
-		// drive.rotate(-0.4, 550);
-		long t = System.currentTimeMillis();
-		while (drive.autoMovement) {
-			if (System.currentTimeMillis() - t > 1500) {
-				break;
-			}
+	/**
+	 * Builds the command for a validated step and its children.
+	 *
+	 * @param step
+	 *            Step to compile
+	 * @return Command running step
+	 */
+	private AutoCommand compile(final RoutineStep step) {
+		ArrayList<AutoCommand> children = new ArrayList<AutoCommand>();
+		for (RoutineStep child : step.getChildren()) {
+			children.add(compile(child));
+		}
+		String name = step.getName();
+		if (name.equals(RoutineParser.SEQUENTIAL)) {
+			return new AutoCommand.Sequential(step, children);
+		} else if (name.equals(RoutineParser.PARALLEL)) {
+			return new AutoCommand.Parallel(step, children);
+		} else if (name.equals(RoutineParser.TIMEOUT)) {
+			return new AutoCommand.Timeout(step, children.get(0));
 		}
-		drive.forward(0.25, /* 2000 */(int) (mult * 2500));
-		drive.forward(-.25, (int) (mult * 200));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-		Timer.delay(0.5);
-		drive.forward(-0.3, (int) (mult * 2300));
-		gearMechanism.toggleState();
-		gearMechanism.run();
-	}
 
-	public void baseline() {
-		(new Thread() {
-			public void run() {
-				climber.pulse(0.3, 2150);
-			}
-		}).start();
-		drive.forward(0.3, (int) (4100 * mult));
+		final double a = step.getArgCount() > 0 ? step.getArg(0) : 0;
+		final long time = step.getArgCount() > 1 ? (long) step.getArg(1) : 0;
+		final String label = step.toString();
+		switch (name) {
+		case "forward":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					return routine.await(drive.forwardAsync(a, time), deadline, label);
+				}
+			};
+		case "contact":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					return routine.await(drive.forwardUntilContactAsync(a, time), deadline, label);
+				}
+			};
+		case "strafe":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					return routine.await(drive.strafeAsync(a, time), deadline, label);
+				}
+			};
+		case "rotate":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					return routine.await(drive.autoRotate(a, time), deadline, label);
+				}
+			};
+		case "path":
+			// Loaded while loading routines so autonomous starts following at
+			// once
+			final Trajectory trajectory = loadPath(step);
+			final long pathTimeout = (long) (trajectory.getTotalTime() * 1000) + PATH_TIMEOUT_MARGIN;
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					return routine.await(drive.followPathAsync(trajectory, pathTimeout), deadline, label);
+				}
+			};
+		case "wait":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) throws InterruptedException {
+					long wakeTime = System.nanoTime() + (long) (a * 1e9);
+					if (!routine.sleepUntil(Math.min(wakeTime, deadline))) {
+						return Outcome.eCancelled;
+					}
+					return wakeTime > deadline ? Outcome.eTimedOut : Outcome.eCompleted;
+				}
+			};
+		case "gear":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					// The control loop runs the mechanism
+					gearMechanism.toggleState();
+					return Outcome.eCompleted;
+				}
+			};
+		case "gearUp":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					long end = System.nanoTime() + (long) (a * 1000000L);
+					return routine.await(gearMechanism.awaitState(GearMechanism.GearModes.eUp),
+							Math.min(deadline, end), label);
+				}
+			};
+		case "sprocket":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					long end = System.nanoTime() + (long) (a * 1000000L);
+					return routine.await(awaitSprocket(), Math.min(deadline, end), label);
+				}
+			};
+		case "climb":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) throws InterruptedException {
+					climber.setMotor(a);
+					try {
+						long end = System.nanoTime() + time * 1000000L;
+						if (!routine.sleepUntil(Math.min(end, deadline))) {
+							return Outcome.eCancelled;
+						}
+						return end > deadline ? Outcome.eTimedOut : Outcome.eCompleted;
+					} finally {
+						climber.setMotor(0);
+					}
+				}
+			};
+		case "shooter":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					shooter.setMotorPower(a);
+					return Outcome.eCompleted;
+				}
+			};
+		case "agitate":
+			return new AutoCommand(step) {
+				protected Outcome execute(AutoRoutine routine, long deadline) {
+					shooter.setAgitator(true);
+					shooter.run();
+					return Outcome.eCompleted;
+				}
+			};
+		default:
+			throw new IllegalArgumentException("No command for action " + name);
+		}
 	}
 }
@@ -1,8 +1,9 @@
 package org.usfirst.frc.team263.robot;
 
-import edu.wpi.first.wpilibj.Encoder;
 import edu.wpi.first.wpilibj.SpeedController;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
 
 /**
  * Class to contain all methods relating to shooter mechanism on Notorious
@@ -13,49 +14,61 @@ import edu.wpi.first.wpilibj.XboxController;
  * @since 01-20-17
  */
 public class BallShooter {
-	private SpeedController shooterMotor, agitatorMotor;
-	private Encoder enc;
-	private Thread PIDLoop;
-	private final double epsilon = 25, TUNED_KP = 0.01, TUNED_KI = 0, TUNED_KD = 0, AGITATOR_SPEED = -0.45;
-	private double setRPM;
+	/**
+	 * Proportional gain (output per count per second) and integral gain
+	 * (output per count) of the velocity loop
+	 */
+	public static final double TUNED_KP = 0.0005, TUNED_KI = 0.002;
+
+	private FlywheelBackend flywheel;
+	private SpeedController agitatorMotor;
+	private final double AGITATOR_SPEED = -0.45;
+	// Fraction of set point error must fall within to become up to speed, and
+	// exceed to stop being up to speed
+	private final double ENTER_TOLERANCE = 0.03, EXIT_TOLERANCE = 0.06;
+	// Consecutive cycles within tolerance before becoming up to speed, 25 ms at
+	// the control rate
+	private final int SETTLE_CYCLES = 5;
+	private final double CONTROL_RATE = 200, PUBLISH_RATE = 10;
+	private final VelocityController velocityController;
 	private XboxController controller;
 	private double speed;
+	private volatile double setRPM, spinUpTime, agitatorScale = 1;
 	private volatile boolean isUpToSpeed, isAgitatorOn, PIDGo = false;
 
 	/**
 	 * Instantiates BallShooter object
 	 * 
-	 * @param shooterMotor
-	 *            SpeedController for flywheel
+	 * @param flywheel
+	 *            Backend which drives the flywheel and closes its velocity loop
 	 * @param agitatorMotor
 	 *            SpeedController for agitator in hopper
-	 * @param enc
-	 *            Rotary encoder on shooter shaft
 	 */
-	public BallShooter(SpeedController shooterMotor, SpeedController agitatorMotor, Encoder enc,
-			XboxController controller) {
-		this.shooterMotor = shooterMotor;
+	public BallShooter(FlywheelBackend flywheel, SpeedController agitatorMotor, XboxController controller) {
+		this.flywheel = flywheel;
 		this.agitatorMotor = agitatorMotor;
 		this.controller = controller;
-		this.enc = enc;
-		this.enc.setMinRate(0);
+		flywheel.setGains(TUNED_KP, TUNED_KI, new Feedforward(0, 0, 0));
 		setRPM = 0;
 		isUpToSpeed = false;
 		isAgitatorOn = false;
 		speed = 0.0;
+		velocityController = new VelocityController();
+		velocityController.start();
 	}
 
 	/**
 	 * Disables shooter mechanism if currently spinning
 	 * 
 	 * <p>
-	 * Interrupts any PID Controller that may currently be running, then
-	 * disables motors.
+	 * Stops closed loop control if it is running, then disables motors.
 	 * </p>
 	 */
 	public void disable() {
-		PIDGo = false;
-		shooterMotor.set(0);
+		synchronized (velocityController) {
+			stopVelocityControl();
+			flywheel.setPower(0);
+		}
 		agitatorMotor.set(0);
 	}
 
@@ -73,37 +86,114 @@ public class BallShooter {
 		} else if (controller.getPOV() == 270) {
 			speed = 0.85;
 		}
-		shooterMotor.set(speed);
+		setMotorPower(speed);
 	}
 
 	/**
-	 * Directly sets the motor power of the ball shooter.
+	 * Sets controller which shooter power presets are read from.
+	 * 
+	 * @param controller
+	 *            Controller to read POV from
+	 */
+	public void setController(XboxController controller) {
+		this.controller = controller;
+	}
+
+	/**
+	 * Directly sets the motor power of the ball shooter, stopping closed loop
+	 * control if it is running.
 	 * 
 	 * @param power
 	 *            Power to set the shooter motor
 	 */
 	public void setMotorPower(double power) {
-		shooterMotor.set(power);
+		synchronized (velocityController) {
+			stopVelocityControl();
+			flywheel.setPower(power);
+		}
 	}
 
 	/**
-	 * Creates or maintains rotation rate if within epsilon
+	 * Sets rotation rate held by the velocity controller.
+	 * 
+	 * <p>
+	 * Only updates the set point, so it may be called every cycle. The
+	 * flywheel stays up to speed through small set point changes, and a set
+	 * point of 0 stops closed loop control and the flywheel.
+	 * </p>
 	 * 
 	 * @param rpm
-	 *            Desired rotation rate in rotations per minute
+	 *            Desired rotation rate (in encoder counts per second, as the
+	 *            shooter encoder measures)
 	 */
 	public void setMotorRPM(double rpm) {
-		if (rpm == 0) {
-			PIDGo = false;
-		} else if (Math.abs(rpm - setRPM) > epsilon) {
+		synchronized (velocityController) {
+			if (rpm == 0) {
+				if (PIDGo) {
+					stopVelocityControl();
+					flywheel.setPower(0);
+				}
+				return;
+			}
+			if (!PIDGo) {
+				spinUpTime = 0;
+				velocityController.reset();
+			}
+			setRPM = rpm;
+			flywheel.setSetpoint(rpm);
 			PIDGo = true;
-			PIDLoop = new VelocityPID(TUNED_KP, TUNED_KI, TUNED_KD, rpm, enc, shooterMotor);
-			PIDLoop.start();
+			velocityController.notify();
+		}
+	}
+
+	/**
+	 * @return Rotation rate held by the velocity controller, or 0 if it is not
+	 *         running (in encoder counts per second)
+	 */
+	public double getSetRPM() {
+		return PIDGo ? setRPM : 0;
+	}
+
+	/**
+	 * @return Measured rotation rate (in encoder counts per second)
+	 */
+	public double getRate() {
+		return flywheel.getRate();
+	}
+
+	/**
+	 * @return Time from starting closed loop control to first being up to
+	 *         speed, or 0 if it hasn't been reached yet (in seconds)
+	 */
+	public double getSpinUpTime() {
+		return spinUpTime;
+	}
+
+	/**
+	 * Sets flywheel feedforward, which the velocity loop starts from instead of
+	 * from zero output.
+	 * 
+	 * @param feedforward
+	 *            Voltage per encoder count per second
+	 */
+	public void setFeedforward(Feedforward feedforward) {
+		synchronized (velocityController) {
+			flywheel.setGains(flywheel.getKP(), flywheel.getKI(), feedforward);
 		}
 	}
 
 	/**
-	 * @return true if current rotation rate is within epsilon, false otherwise.
+	 * @return Flywheel feedforward in use
+	 */
+	public Feedforward getFeedforward() {
+		synchronized (velocityController) {
+			return flywheel.getFeedforward();
+		}
+	}
+
+	/**
+	 * @return true if the velocity controller is running and has settled
+	 *         within tolerance of its set point, false otherwise.
 	 */
 	public boolean isUpToSpeed() {
 		return isUpToSpeed;
@@ -119,66 +209,107 @@ public class BallShooter {
 		isAgitatorOn = enabled;
 	}
 
+	/**
+	 * Sets fraction of full agitator speed it runs at when on, to meter feed
+	 * 
+	 * @param scale
+	 *            Fraction of agitator speed, from 0 to 1
+	 */
+	public void setAgitatorScale(double scale) {
+		agitatorScale = Math.max(0, Math.min(1, scale));
+	}
+
 	/**
 	 * Method to run agitator.
 	 */
 	public void run() {
-		agitatorMotor.set(isAgitatorOn ? AGITATOR_SPEED : 0);
+		agitatorMotor.set(isAgitatorOn ? AGITATOR_SPEED * agitatorScale : 0);
+	}
+
+	/**
+	 * Stops closed loop control. Must hold the velocity controller's lock.
+	 */
+	private void stopVelocityControl() {
+		PIDGo = false;
+		isUpToSpeed = false;
+		setRPM = 0;
 	}
 
 	/**
-	 * PID Class to control PID on flywheel shooter.
+	 * Fixed rate control thread for the flywheel.
 	 * 
-	 * There's probably a better way to do this... I just took a positional PID
-	 * and differentiated in terms of time.
+	 * <p>
+	 * Runs any part of the velocity loop the backend does on the roboRIO, and
+	 * decides whether the flywheel is up to speed from its measured rate. Being
+	 * up to speed has hysteresis, so measurement noise near the tolerance
+	 * doesn't stop and start feeding. The thread waits without running while
+	 * closed loop control is stopped.
+	 * </p>
 	 * 
-	 * @author Dan Waxman
-	 * @since 02-23-2017
-	 * @version 0.1
+	 * @version 1.1
+	 * @since 10-18-26
 	 */
-	private class VelocityPID extends Thread {
-		private double Kp, Ki, Kd, setPoint, previousOmega, error, u, integral;
-		private Encoder enc;
-		private SpeedController motor;
+	private class VelocityController extends Thread {
+		private final FixedRateLoop loop = new FixedRateLoop(CONTROL_RATE);
+		private double startTime;
+		private int settledCycles;
+
+		public VelocityController() {
+			super("ShooterVelocity");
+			setDaemon(true);
+		}
 
 		/**
-		 * Constructor for VPID thread object
-		 * @param Kp Tuned proportional gain constant
-		 * @param Ki Tuned integral gain constant
-		 * @param Kd Tuned derivative gain constant
-		 * @param setPoint Desired velocity (in native counts)
-		 * @param enc Encoder device for feedback
-		 * @param output Device to output to
+		 * Clears controller state for a new spin up. Must hold this lock.
 		 */
-		public VelocityPID(double Kp, double Ki, double Kd, double setPoint, Encoder enc, SpeedController output) {
-			this.Kp = Kp;
-			this.Ki = Ki;
-			this.Kd = Kd;
-			this.setPoint = setPoint;
-			this.enc = enc;
-			this.motor = output;
-			previousOmega = enc.getRate();
-			u = 0;
+		public void reset() {
+			settledCycles = 0;
+			startTime = Timer.getFPGATimestamp();
 		}
 
 		/**
 		 * Method for controlling velocity
 		 */
 		public void run() {
-			while (PIDGo) {
+			NetworkTable table = NetworkTable.getTable("shooterData");
+			int publishDivider = (int) (CONTROL_RATE / PUBLISH_RATE), cycle = 0;
+			double dt = loop.getPeriod();
+			while (true) {
 				synchronized (this) {
-					error = setPoint - Math.abs(enc.getRate());
-					u += Kp * error + Ki * integral + Kd * (Math.abs(enc.getRate() - previousOmega));
-					integral += enc.getRate();
-					previousOmega = enc.getRate();
-					motor.set(Math.abs(u) > 1 ? Math.signum(u) : u);
+					while (!PIDGo) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+						loop.start();
+					}
+
+					flywheel.update(dt);
+					double rate = flywheel.getRate();
+					double tolerance = Math.abs(setRPM - rate) / setRPM;
+					if (tolerance > EXIT_TOLERANCE) {
+						isUpToSpeed = false;
+					}
+					settledCycles = tolerance < ENTER_TOLERANCE ? settledCycles + 1 : 0;
+					if (settledCycles >= SETTLE_CYCLES && !isUpToSpeed) {
+						isUpToSpeed = true;
+						if (spinUpTime == 0) {
+							spinUpTime = Timer.getFPGATimestamp() - startTime;
+						}
+					}
+
+					if (++cycle >= publishDivider) {
+						cycle = 0;
+						table.putNumber("setPoint", setRPM);
+						table.putNumber("rate", rate);
+						table.putNumber("output", flywheel.getOutput());
+						table.putBoolean("upToSpeed", isUpToSpeed);
+						table.putNumber("spinUpTime", spinUpTime);
+					}
 				}
+				loop.waitForNextCycle();
 			}
-			motor.set(0);
-			PIDGo = false;
-			motor = null;
-			enc = null;
 		}
 	}
-
-}
\ No newline at end of file
+}
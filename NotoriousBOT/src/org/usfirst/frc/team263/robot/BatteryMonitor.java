@@ -0,0 +1,133 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import edu.wpi.first.wpilibj.ControllerPower;
+import edu.wpi.first.wpilibj.SpeedController;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Samples battery voltage at a fixed rate and provides the factor open loop
+ * outputs are scaled by to behave as they would at nominal voltage.
+ *
+ * <p>
+ * Voltage is read from the roboRIO input on this thread only and low pass
+ * filtered, so motor outputs read a single volatile instead of making a HAL
+ * call on every set. Compensation is capped at a minimum voltage so a brownout
+ * reading can't demand unbounded output.
+ * </p>
+ * <p>
+ * Each cycle the largest correction applied by any wrapped controller since
+ * the previous cycle is collected, and published with the voltage to
+ * NetworkTables.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class BatteryMonitor extends Thread {
+	/**
+	 * Voltage outputs are compensated to (in volts)
+	 */
+	public static final double NOMINAL_VOLTAGE = 12;
+
+	private final double SAMPLE_RATE = 50, PUBLISH_RATE = 10, FILTER_TIME_CONSTANT = 0.1, MIN_VOLTAGE = 7;
+	private final FixedRateLoop loop = new FixedRateLoop(SAMPLE_RATE);
+	private final CopyOnWriteArrayList<VoltageCompensatedController> controllers =
+			new CopyOnWriteArrayList<VoltageCompensatedController>();
+	private volatile double voltage = NOMINAL_VOLTAGE, compensation = 1;
+	private volatile boolean enabled = true;
+
+	/**
+	 * Instantiates battery monitor. Call {@link #start()} to begin sampling.
+	 */
+	public BatteryMonitor() {
+		super("BatteryMonitor");
+		setDaemon(true);
+	}
+
+	/**
+	 * Wraps a motor controller so its outputs are compensated for battery
+	 * voltage.
+	 *
+	 * @param controller
+	 *            SpeedController to wrap
+	 * @param name
+	 *            Name to log corrections under
+	 * @return Compensated controller
+	 */
+	public VoltageCompensatedController compensate(SpeedController controller, String name) {
+		VoltageCompensatedController compensated = new VoltageCompensatedController(controller, this, name);
+		controllers.add(compensated);
+		return compensated;
+	}
+
+	/**
+	 * @return Factor to scale open loop outputs by, 1 at nominal voltage
+	 */
+	public double getCompensation() {
+		return compensation;
+	}
+
+	/**
+	 * @return Filtered battery voltage (in volts)
+	 */
+	public double getVoltage() {
+		return voltage;
+	}
+
+	/**
+	 * @param enabled
+	 *            true to compensate outputs, false to pass them through
+	 *            unchanged
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		compensation = enabled ? NOMINAL_VOLTAGE / Math.max(MIN_VOLTAGE, voltage) : 1;
+	}
+
+	/**
+	 * Method to continuously sample voltage and log corrections.
+	 */
+	public void run() {
+		NetworkTable table = NetworkTable.getTable("batteryData");
+		int publishDivider = (int) (SAMPLE_RATE / PUBLISH_RATE), cycle = 0;
+		double k = (1 / SAMPLE_RATE) / (FILTER_TIME_CONSTANT + 1 / SAMPLE_RATE);
+		double maxCorrection = 0;
+		String maxCorrectionName = "";
+		int saturated = 0;
+		loop.start();
+		while (true) {
+			double sample = ControllerPower.getInputVoltage();
+			// No reading is available off the robot or before the HAL is up
+			if (sample > 0) {
+				voltage += (sample - voltage) * k;
+			}
+			compensation = enabled ? NOMINAL_VOLTAGE / Math.max(MIN_VOLTAGE, voltage) : 1;
+
+			for (VoltageCompensatedController controller : controllers) {
+				double correction = controller.takeCorrection();
+				if (Math.abs(correction) > Math.abs(maxCorrection)) {
+					maxCorrection = correction;
+					maxCorrectionName = controller.getName();
+				}
+				if (controller.isSaturated()) {
+					saturated++;
+				}
+			}
+
+			if (++cycle >= publishDivider) {
+				cycle = 0;
+				table.putNumber("voltage", voltage);
+				table.putNumber("compensation", compensation);
+				table.putNumber("maxCorrection", maxCorrection);
+				table.putString("maxCorrectionMotor", maxCorrectionName);
+				table.putNumber("saturatedCycles", saturated);
+				maxCorrection = 0;
+				maxCorrectionName = "";
+				saturated = 0;
+			}
+			loop.waitForNextCycle();
+		}
+	}
+}
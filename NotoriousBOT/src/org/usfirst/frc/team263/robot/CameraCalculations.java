@@ -72,9 +72,7 @@ public class CameraCalculations {
 		double x = orig.x;
 		double y = orig.y;
 
-		double angle = Math.atan2(y, x) * 180 / Math.PI; // atan gives radians,
-															// convert to
-															// degrees
+		double angle = FastMath.atan2Degrees(y, x);
 
 		if (angle < 0)
 			angle += 360; // make all values positive in the range [0,360]
@@ -0,0 +1,390 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import com.kauailabs.navx.frc.AHRS;
+
+import org.usfirst.frc.team263.robot.DrivetrainArbiter.Owner;
+import org.usfirst.frc.team263.robot.MecanumDrive.PIDModes;
+
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Feedforward characterization of the drivebase and flywheel, run from test
+ * mode.
+ *
+ * <p>
+ * Each test applies a slow voltage ramp (quasi-static) and then a voltage
+ * step, recording applied voltage and measured velocity at a fixed rate.
+ * Acceleration is differentiated from velocity within each phase, and kS, kV
+ * and kA are fitted to V = kS * sgn(v) + kV * v + kA * a by least squares over
+ * every moving sample. A fit of enough samples which explains enough of the
+ * voltage is applied immediately and saved to {@link Feedforward#FILE}, from
+ * which {@link #loadConstants} restores them at startup. A poorer fit is only
+ * printed, and the constants in use are kept.
+ * </p>
+ * <p>
+ * Voltages are applied through battery compensation, so the requested voltage
+ * is the voltage recorded. Drive velocities come from the navX: yaw rate for
+ * rotation, and the navX velocity estimate rotated into the robot frame for
+ * translation, as the drivebase has no wheel encoders. Flywheel velocity comes
+ * from the shooter's backend in counts per second.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class Characterization {
+	public static enum Mechanism {
+		eForward, eStrafe, eRotate, eFlywheel;
+	}
+
+	private final double SAMPLE_RATE = 200, INCHES_PER_METER = 39.37;
+	// Slowest samples counted as moving, above sensor noise (in inches,
+	// degrees or counts per second)
+	private final double MIN_DRIVE_VELOCITY = 2, MIN_ROTATE_VELOCITY = 5, MIN_FLYWHEEL_VELOCITY = 50;
+	// Ramp rate (in volts per second), ramp time, step voltage, step time and
+	// rest between them (in seconds)
+	private final double DRIVE_RAMP_RATE = 0.5, DRIVE_RAMP_TIME = 6, DRIVE_STEP_VOLTAGE = 5, DRIVE_STEP_TIME = 1.5,
+			DRIVE_REST_TIME = 2, FLYWHEEL_RAMP_RATE = 0.5, FLYWHEEL_RAMP_TIME = 20, FLYWHEEL_STEP_VOLTAGE = 8,
+			FLYWHEEL_STEP_TIME = 4, FLYWHEEL_REST_TIME = 6;
+	// Samples either side used to differentiate velocity
+	private final int DERIVATIVE_SPAN = 4, MAX_SAMPLES = 8192;
+	// Fit quality needed to apply and save constants, r squared and moving
+	// samples, 2 seconds at the sample rate
+	private final double MIN_R_SQUARED = 0.95;
+	private final int MIN_FIT_SAMPLES = 400;
+
+	private final MecanumDrive drive;
+	private final BallShooter shooter;
+	private final AHRS gyro;
+	private final FixedRateLoop loop = new FixedRateLoop(SAMPLE_RATE);
+	private final double[] times = new double[MAX_SAMPLES], voltages = new double[MAX_SAMPLES],
+			velocities = new double[MAX_SAMPLES], accelerations = new double[MAX_SAMPLES];
+	private int count;
+
+	/**
+	 * @param drive
+	 *            MecanumDrive to characterize
+	 * @param shooter
+	 *            BallShooter to characterize
+	 * @param gyro
+	 *            AHRS device to measure drive velocity with
+	 */
+	public Characterization(MecanumDrive drive, BallShooter shooter, AHRS gyro) {
+		this.drive = drive;
+		this.shooter = shooter;
+		this.gyro = gyro;
+	}
+
+	/**
+	 * Runs the quasi-static and step tests on a mechanism, then fits its
+	 * constants and applies and saves them if the fit is good enough. Stops
+	 * without fitting if the robot leaves enabled test mode.
+	 *
+	 * @param mechanism
+	 *            Mechanism to characterize
+	 * @param robot
+	 *            Robot to check mode of
+	 * @return Fitted constants, or null if the test was stopped or the fit
+	 *         failed or was too poor to use
+	 */
+	public Feedforward run(Mechanism mechanism, RobotBase robot) {
+		boolean flywheel = mechanism == Mechanism.eFlywheel;
+		if (!flywheel && !drive.getArbiter().acquire(Owner.eMacro)) {
+			System.out.println("Error - Drivebase is busy, not characterizing " + mechanism);
+			return null;
+		}
+		if (!flywheel) {
+			// Velocity estimate is integrated from zero
+			gyro.resetDisplacement();
+		}
+		count = 0;
+		boolean completed;
+		try {
+			completed = flywheel
+					? record(mechanism, robot, FLYWHEEL_RAMP_RATE, FLYWHEEL_RAMP_TIME, 0)
+							&& record(mechanism, robot, 0, FLYWHEEL_REST_TIME, Double.NaN)
+							&& record(mechanism, robot, 0, FLYWHEEL_STEP_TIME, FLYWHEEL_STEP_VOLTAGE)
+					: record(mechanism, robot, DRIVE_RAMP_RATE, DRIVE_RAMP_TIME, 0)
+							&& record(mechanism, robot, 0, DRIVE_REST_TIME, Double.NaN)
+							&& record(mechanism, robot, 0, DRIVE_STEP_TIME, DRIVE_STEP_VOLTAGE);
+		} finally {
+			apply(mechanism, 0);
+			if (!flywheel) {
+				drive.getArbiter().release(Owner.eMacro);
+			}
+		}
+		if (!completed) {
+			System.out.println("Characterization of " + mechanism + " stopped");
+			return null;
+		}
+
+		double minVelocity = flywheel ? MIN_FLYWHEEL_VELOCITY
+				: mechanism == Mechanism.eRotate ? MIN_ROTATE_VELOCITY : MIN_DRIVE_VELOCITY;
+		double[] fit = fit(voltages, velocities, accelerations, count, minVelocity);
+		if (fit == null) {
+			System.out.println("Error - Not enough motion to characterize " + mechanism);
+			return null;
+		}
+		Feedforward feedforward = new Feedforward(fit[0], fit[1], fit[2]);
+		System.out.println(String.format("Characterized %s from %d samples (%d moving): %s r^2=%.4f", mechanism,
+				count, (int) fit[4], feedforward, fit[3]));
+		NetworkTable table = NetworkTable.getTable("characterizationData");
+		table.putString("mechanism", mechanism.toString());
+		table.putNumber("kS", fit[0]);
+		table.putNumber("kV", fit[1]);
+		table.putNumber("kA", fit[2]);
+		table.putNumber("rSquared", fit[3]);
+		table.putNumber("samples", fit[4]);
+
+		if (fit[3] < MIN_R_SQUARED || fit[4] < MIN_FIT_SAMPLES) {
+			System.out.println(String.format(
+					"Error - Fit of %s needs r^2 of %.2f from %d moving samples, keeping constants in use",
+					mechanism, MIN_R_SQUARED, MIN_FIT_SAMPLES));
+			return null;
+		}
+		setFeedforward(drive, shooter, mechanism, feedforward);
+		save(mechanism, feedforward);
+		return feedforward;
+	}
+
+	/**
+	 * Applies a voltage ramp or step and records samples.
+	 *
+	 * @param rampRate
+	 *            Voltage increase per second (in volts per second)
+	 * @param duration
+	 *            Length of phase (in seconds)
+	 * @param voltage
+	 *            Starting voltage, or NaN to rest without recording
+	 * @return false if the robot left enabled test mode
+	 */
+	private boolean record(Mechanism mechanism, RobotBase robot, double rampRate, double duration,
+			double voltage) {
+		boolean resting = Double.isNaN(voltage);
+		int first = count;
+		long start = System.nanoTime();
+		double t = 0;
+		loop.start();
+		while (t < duration && count < MAX_SAMPLES) {
+			if (!robot.isEnabled() || !robot.isTest()) {
+				return false;
+			}
+			double applied = resting ? 0 : voltage + rampRate * t;
+			apply(mechanism, applied / BatteryMonitor.NOMINAL_VOLTAGE);
+			if (!resting) {
+				times[count] = t;
+				voltages[count] = applied;
+				velocities[count] = measure(mechanism);
+				count++;
+			}
+			loop.waitForNextCycle();
+			t = (System.nanoTime() - start) / 1e9;
+		}
+		differentiate(times, velocities, accelerations, first, count, DERIVATIVE_SPAN);
+		return true;
+	}
+
+	/**
+	 * Sets output of mechanism under test.
+	 */
+	private void apply(Mechanism mechanism, double u) {
+		switch (mechanism) {
+		case eForward:
+			drive.getArbiter().set(Owner.eMacro, u, u, u, u);
+			break;
+		case eStrafe:
+			drive.getArbiter().set(Owner.eMacro, -u, u, u, -u);
+			break;
+		case eRotate:
+			drive.getArbiter().set(Owner.eMacro, -u, -u, u, u);
+			break;
+		case eFlywheel:
+			shooter.setMotorPower(u);
+			break;
+		}
+	}
+
+	/**
+	 * @return Velocity of mechanism under test, in inches per second, degrees
+	 *         per second or counts per second
+	 */
+	private double measure(Mechanism mechanism) {
+		double yaw = gyro.getYaw();
+		double vx = gyro.getVelocityX() * INCHES_PER_METER, vy = gyro.getVelocityY() * INCHES_PER_METER;
+		switch (mechanism) {
+		case eForward:
+			return vx * FastMath.sinDegrees(yaw) + vy * FastMath.cosDegrees(yaw);
+		case eStrafe:
+			return vx * FastMath.cosDegrees(yaw) - vy * FastMath.sinDegrees(yaw);
+		case eRotate:
+			return gyro.getRate();
+		default:
+			return shooter.getRate();
+		}
+	}
+
+	/**
+	 * Differentiates one phase of samples with a central difference.
+	 *
+	 * @param from
+	 *            Index of first sample of phase
+	 * @param to
+	 *            Index after last sample of phase
+	 * @param span
+	 *            Samples either side of each sample to difference across
+	 */
+	static void differentiate(double[] times, double[] values, double[] derivatives, int from, int to, int span) {
+		for (int i = from; i < to; i++) {
+			int a = Math.max(from, i - span), b = Math.min(to - 1, i + span);
+			derivatives[i] = b > a && times[b] > times[a] ? (values[b] - values[a]) / (times[b] - times[a]) : 0;
+		}
+	}
+
+	/**
+	 * Fits V = kS * sgn(v) + kV * v + kA * a by least squares over samples
+	 * that are moving.
+	 *
+	 * @param minVelocity
+	 *            Smallest speed of samples to include
+	 * @return {kS, kV, kA, r squared, samples used}, or null if the samples don't determine
+	 *         the constants
+	 */
+	static double[] fit(double[] voltages, double[] velocities, double[] accelerations, int count,
+			double minVelocity) {
+		// Normal equations of the three regressors
+		double[][] m = new double[3][4];
+		double[] x = new double[3];
+		double sum = 0, sumSquares = 0;
+		int used = 0;
+		for (int i = 0; i < count; i++) {
+			if (Math.abs(velocities[i]) < minVelocity) {
+				continue;
+			}
+			x[0] = Math.signum(velocities[i]);
+			x[1] = velocities[i];
+			x[2] = accelerations[i];
+			for (int r = 0; r < 3; r++) {
+				for (int c = 0; c < 3; c++) {
+					m[r][c] += x[r] * x[c];
+				}
+				m[r][3] += x[r] * voltages[i];
+			}
+			sum += voltages[i];
+			sumSquares += voltages[i] * voltages[i];
+			used++;
+		}
+		if (used < 3) {
+			return null;
+		}
+		double[] normal = { m[0][3], m[1][3], m[2][3] };
+
+		// Gaussian elimination with partial pivoting
+		for (int col = 0; col < 3; col++) {
+			int pivot = col;
+			for (int r = col + 1; r < 3; r++) {
+				if (Math.abs(m[r][col]) > Math.abs(m[pivot][col])) {
+					pivot = r;
+				}
+			}
+			if (Math.abs(m[pivot][col]) < 1e-12) {
+				return null;
+			}
+			double[] swap = m[col];
+			m[col] = m[pivot];
+			m[pivot] = swap;
+			for (int r = 0; r < 3; r++) {
+				if (r != col) {
+					double factor = m[r][col] / m[col][col];
+					for (int c = col; c < 4; c++) {
+						m[r][c] -= factor * m[col][c];
+					}
+				}
+			}
+		}
+		double kS = m[0][3] / m[0][0], kV = m[1][3] / m[1][1], kA = m[2][3] / m[2][2];
+
+		// Residual sum of squares from the normal equations
+		double residual = sumSquares - (kS * normal[0] + kV * normal[1] + kA * normal[2]);
+		double total = sumSquares - sum * sum / used;
+		return new double[] { kS, kV, kA, total > 0 ? 1 - residual / total : 0, used };
+	}
+
+	/**
+	 * Adds constants to the constants file, keeping those of other
+	 * mechanisms.
+	 */
+	private void save(Mechanism mechanism, Feedforward feedforward) {
+		Properties constants = Feedforward.loadFile();
+		feedforward.store(constants, getKey(mechanism));
+		try (OutputStream out = Files.newOutputStream(Paths.get(Feedforward.FILE))) {
+			constants.store(out, "Characterized feedforward constants");
+		} catch (IOException e) {
+			System.out.println("Error - Could not write " + Feedforward.FILE + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Loads characterized constants into the drivebase and flywheel, keeping
+	 * the current constants of any mechanism not yet characterized.
+	 *
+	 * @param drive
+	 *            MecanumDrive to load into
+	 * @param shooter
+	 *            BallShooter to load into
+	 */
+	public static void loadConstants(MecanumDrive drive, BallShooter shooter) {
+		Properties constants = Feedforward.loadFile();
+		for (Mechanism mechanism : Mechanism.values()) {
+			Feedforward current = mechanism == Mechanism.eFlywheel ? shooter.getFeedforward()
+					: drive.getFeedforward(getMode(mechanism));
+			Feedforward loaded = Feedforward.load(constants, getKey(mechanism), current);
+			if (loaded != current) {
+				System.out.println("Loaded " + mechanism + " feedforward " + loaded);
+			}
+			setFeedforward(drive, shooter, mechanism, loaded);
+		}
+	}
+
+	private static void setFeedforward(MecanumDrive drive, BallShooter shooter, Mechanism mechanism,
+			Feedforward feedforward) {
+		if (mechanism == Mechanism.eFlywheel) {
+			shooter.setFeedforward(feedforward);
+		} else {
+			drive.setFeedforward(getMode(mechanism), feedforward);
+		}
+	}
+
+	private static PIDModes getMode(Mechanism mechanism) {
+		switch (mechanism) {
+		case eStrafe:
+			return PIDModes.eLinearX;
+		case eRotate:
+			return PIDModes.eRotate;
+		default:
+			return PIDModes.eLinearY;
+		}
+	}
+
+	/**
+	 * @return Prefix of mechanism's constants in the constants file
+	 */
+	private static String getKey(Mechanism mechanism) {
+		switch (mechanism) {
+		case eForward:
+			return "drive.forward";
+		case eStrafe:
+			return "drive.strafe";
+		case eRotate:
+			return "drive.rotate";
+		default:
+			return "flywheel";
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.Arrays;
+
+import com.kauailabs.navx.AHRSProtocol.AHRSUpdateBase;
+import com.kauailabs.navx.frc.AHRS;
+import com.kauailabs.navx.frc.ITimestampedDataSubscriber;
+
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Detects the drivebase running into something from navX linear acceleration.
+ *
+ * <p>
+ * Every navX sample is delivered to this detector by the navX IO thread as it
+ * arrives, so detection latency is one sensor sample and no sample is missed
+ * between control loop cycles. Contact is a sample whose jerk exceeds a
+ * threshold while the velocity lost along the direction of travel over a short
+ * window exceeds another, so starting, stopping and bumps across the direction
+ * of travel are ignored.
+ * </p>
+ * <p>
+ * Detection is armed by a motion with its robot relative direction of travel,
+ * and completes the handle returned from {@link #arm(double, double)}.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class CollisionDetector implements ITimestampedDataSubscriber {
+	// Jerk (in g per second) and velocity lost over the window (in inches per
+	// second) which together mean contact
+	private final double JERK_THRESHOLD = 50, VELOCITY_DROP_THRESHOLD = 6, INCHES_PER_SECOND_PER_G = 386.1;
+	// Window of samples velocity loss is summed over, 50 ms at 200 Hz
+	private final int WINDOW = 10;
+
+	private final double[] along = new double[WINDOW];
+	private int index;
+	private double alongSum, previousX, previousY;
+	private long previousTimestamp;
+	private volatile MotionHandle waiter;
+	private volatile double directionX, directionY;
+	private volatile boolean clearWindow;
+	private volatile int contacts;
+
+	/**
+	 * Instantiates detector and subscribes it to navX samples.
+	 *
+	 * @param gyro
+	 *            AHRS device to read acceleration from
+	 */
+	public CollisionDetector(AHRS gyro) {
+		gyro.registerCallback(this, null);
+	}
+
+	/**
+	 * Arms detection for a move, replacing any armed move, which ends as
+	 * cancelled.
+	 *
+	 * @param strafe
+	 *            Strafe component of direction of travel, positive to the
+	 *            right
+	 * @param forward
+	 *            Forward component of direction of travel
+	 * @return Handle which completes on contact
+	 */
+	public MotionHandle arm(double strafe, double forward) {
+		double length = Math.hypot(strafe, forward);
+		directionX = length > 0 ? strafe / length : 0;
+		directionY = length > 0 ? forward / length : 1;
+		clearWindow = true;
+		MotionHandle handle = new MotionHandle(0);
+		handle.start();
+		MotionHandle previous = waiter;
+		waiter = handle;
+		if (previous != null) {
+			previous.cancel();
+		}
+		return handle;
+	}
+
+	/**
+	 * Disarms detection, cancelling the armed handle if contact was not made.
+	 */
+	public void disarm() {
+		MotionHandle handle = waiter;
+		waiter = null;
+		if (handle != null) {
+			handle.cancel();
+		}
+	}
+
+	/**
+	 * @return Number of contacts detected since startup
+	 */
+	public int getContactCount() {
+		return contacts;
+	}
+
+	/**
+	 * Processes one navX sample on the navX IO thread.
+	 */
+	public void timestampedDataReceived(long systemTimestamp, long sensorTimestamp, AHRSUpdateBase update,
+			Object context) {
+		double dt = (sensorTimestamp - previousTimestamp) / 1000.0;
+		previousTimestamp = sensorTimestamp;
+		if (dt <= 0 || dt > 0.1) {
+			// First sample or a gap in samples, so there is no jerk to measure
+			previousX = update.linear_accel_x;
+			previousY = update.linear_accel_y;
+			return;
+		}
+
+		// Acceleration in the robot frame, from the world frame navX reports
+		double sinYaw = FastMath.sinDegrees(update.yaw), cosYaw = FastMath.cosDegrees(update.yaw);
+		double strafe = update.linear_accel_x * cosYaw - update.linear_accel_y * sinYaw;
+		double forward = update.linear_accel_x * sinYaw + update.linear_accel_y * cosYaw;
+		double jerk = Math.hypot(update.linear_accel_x - previousX, update.linear_accel_y - previousY) / dt;
+		previousX = update.linear_accel_x;
+		previousY = update.linear_accel_y;
+
+		// Velocity change along direction of travel over the window, which
+		// starts empty for each move
+		if (clearWindow) {
+			clearWindow = false;
+			Arrays.fill(along, 0);
+			alongSum = 0;
+		}
+		double change = (strafe * directionX + forward * directionY) * dt * INCHES_PER_SECOND_PER_G;
+		alongSum += change - along[index];
+		along[index] = change;
+		index = (index + 1) % WINDOW;
+
+		MotionHandle handle = waiter;
+		if (handle != null && jerk > JERK_THRESHOLD && -alongSum > VELOCITY_DROP_THRESHOLD) {
+			waiter = null;
+			contacts++;
+			handle.finish();
+			NetworkTable table = NetworkTable.getTable("collisionData");
+			table.putNumber("jerk", jerk);
+			table.putNumber("velocityDrop", -alongSum);
+			table.putNumber("contacts", contacts);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.usfirst.frc.team263.robot;
+
+import java.lang.management.ManagementFactory;
+
+import com.kauailabs.navx.frc.AHRS;
+
+import edu.wpi.first.wpilibj.RobotBase;
+import edu.wpi.first.wpilibj.SPI;
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Benchmark of {@link MecanumDrive#drive} which checks it allocates nothing
+ * and reports its cost per call.
+ *
+ * <p>
+ * Driver inputs come from a {@link ReplayController} cycling through
+ * translation, rotation, POV strafing and throttled driving, in both field
+ * and robot centric modes, and yaw from a navX whose readings are replaced
+ * with a slow sweep, so heading hold latches and corrects. Wheels are stub
+ * motors, so nothing moves. Allocation is read from the JVM's per thread
+ * allocation counter around the timed calls, less what reading the counter
+ * itself allocates.
+ * </p>
+ * <p>
+ * The controller and navX need the HAL, so the benchmark runs on the roboRIO
+ * with robot code stopped:
+ * </p>
+ *
+ * <pre>
+ * java -cp /home/lvuser/FRCUserProgram.jar org.usfirst.frc.team263.robot.DriveBenchmark [calls]
+ * </pre>
+ * <p>
+ * Exits with status 1 if any call allocated.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class DriveBenchmark {
+	// Calls to warm up the compiler with before measuring
+	private static final int WARM_UP_CALLS = 200000;
+	// Frames of inputs as {left x, left y, left trigger, right trigger,
+	// buttons, POV}, avoiding the buttons which start rotations
+	private static final double[][] FRAMES = { { 0.5, -0.7, 0, 0, 0, -1 }, { 0, 0, 0, 0.6, 0, -1 },
+			{ 0, 0, 0, 0, 0, 90 }, { -0.3, 0.8, 0, 0, 1 << 4, -1 }, { 0.4, 0.4, 0, 0, 1 << 5, 270 },
+			{ 0, 0, 0, 0, 0, -1 } };
+	// Calls each frame is held for, so heading hold latches between them
+	private static final int FRAME_CALLS = 50;
+
+	private DriveBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            Optionally the number of calls to measure
+	 */
+	public static void main(String[] args) {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("Error - This JVM can't measure thread allocation");
+			System.exit(1);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		RobotBase.initializeHardwareConfiguration();
+		ReplayController controller = new ReplayController(0);
+		SweptGyro gyro = new SweptGyro();
+		MecanumDrive drive = new MecanumDrive(new StubMotor(), new StubMotor(), new StubMotor(), new StubMotor(),
+				gyro);
+		double[] axes = new double[InputRecorder.AXES];
+
+		run(drive, controller, gyro, axes, WARM_UP_CALLS);
+		long thread = Thread.currentThread().getId();
+		// What reading the counter allocates, so it isn't counted against drive
+		long overhead = -threads.getThreadAllocatedBytes(thread);
+		overhead += threads.getThreadAllocatedBytes(thread);
+
+		long allocated = -threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		run(drive, controller, gyro, axes, calls);
+		long nanos = System.nanoTime() - start;
+		allocated += threads.getThreadAllocatedBytes(thread) - overhead;
+
+		System.out.println(String.format("drive: %.1f ns/op, %d bytes allocated over %d calls (%.3f bytes/op)",
+				(double) nanos / calls, allocated, calls, (double) allocated / calls));
+		if (allocated > 0) {
+			System.out.println("Error - drive allocated, and will make garbage every control cycle");
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Calls drive with inputs cycling through the frames.
+	 */
+	private static void run(MecanumDrive drive, ReplayController controller, SweptGyro gyro, double[] axes,
+			int calls) {
+		for (int i = 0; i < calls; i++) {
+			if (i % FRAME_CALLS == 0) {
+				double[] frame = FRAMES[(i / FRAME_CALLS) % FRAMES.length];
+				axes[0] = frame[0];
+				axes[1] = frame[1];
+				axes[2] = frame[2];
+				axes[3] = frame[3];
+				controller.set(axes, (int) frame[4], (int) frame[5]);
+			}
+			gyro.step(i);
+			drive.drive(controller, (i / (FRAMES.length * FRAME_CALLS)) % 2 == 0);
+		}
+	}
+
+	/**
+	 * navX whose yaw and rate are a slow sweep rather than measured.
+	 */
+	private static class SweptGyro extends AHRS {
+		private float yaw;
+		private double rate;
+
+		SweptGyro() {
+			// Same update rate as the robot's navX
+			super(SPI.Port.kMXP, (byte) 200);
+		}
+
+		/**
+		 * Moves the sweep to a call, drifting and resting in turn.
+		 */
+		void step(int call) {
+			rate = (call / 500) % 2 == 0 ? 5 * Math.sin(call * 0.01) : 0;
+			yaw = (float) (((yaw + rate * 0.01) + 540) % 360 - 180);
+		}
+
+		@Override
+		public float getYaw() {
+			return yaw;
+		}
+
+		@Override
+		public double getRate() {
+			return rate;
+		}
+	}
+
+	/**
+	 * Motor which only remembers its output.
+	 */
+	private static class StubMotor implements SpeedController {
+		private double output;
+		private boolean inverted;
+
+		@Override
+		public void pidWrite(double output) {
+			set(output);
+		}
+
+		@Override
+		public double get() {
+			return output;
+		}
+
+		@Override
+		public void set(double speed) {
+			output = speed;
+		}
+
+		@Override
+		public void setInverted(boolean isInverted) {
+			inverted = isInverted;
+		}
+
+		@Override
+		public boolean getInverted() {
+			return inverted;
+		}
+
+		@Override
+		public void disable() {
+			output = 0;
+		}
+
+		@Override
+		public void stopMotor() {
+			output = 0;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Arbitrates ownership of the four drivebase motor controllers.
+ *
+ * <p>
+ * Exactly one owner may drive the wheels at a time. An owner of equal or
+ * higher priority may take ownership at any time, preempting the current
+ * owner. Ownership changes are lock-free. Wheel outputs are written as a whole
+ * frame under a short lock after checking ownership, so a frame is never split
+ * between two owners.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class DrivetrainArbiter {
+	/**
+	 * Possible owners of the drivebase, from lowest to highest priority.
+	 */
+	public static enum Owner {
+		eDriver, eAutonomous, eMacro, eRotation;
+	}
+
+	/**
+	 * Notified when an owner loses the drivebase to another owner.
+	 */
+	public interface PreemptionListener {
+		/**
+		 * Called on the thread taking ownership.
+		 *
+		 * @param previous
+		 *            Owner which lost the drivebase
+		 * @param next
+		 *            Owner which took the drivebase
+		 */
+		void preempted(Owner previous, Owner next);
+	}
+
+	private final SpeedController frontRight, backRight, frontLeft, backLeft;
+	private final AtomicReference<Owner> owner = new AtomicReference<Owner>();
+	private final PreemptionListener listener;
+	// Last written wheel outputs as {fr, br, fl, bl}, guarded by itself
+	private final double[] outputs = new double[4];
+	// Times of last markEnable() and first nonzero output after it, guarded
+	// by outputs
+	private long enableTime, firstOutputTime;
+
+	/**
+	 * Instantiates arbiter for a drivebase.
+	 *
+	 * @param frontRight
+	 *            front right wheel motor controller
+	 * @param backRight
+	 *            back right wheel motor controller
+	 * @param frontLeft
+	 *            front left wheel motor controller
+	 * @param backLeft
+	 *            back left wheel motor controller
+	 * @param listener
+	 *            Listener to notify of preemptions
+	 */
+	public DrivetrainArbiter(SpeedController frontRight, SpeedController backRight, SpeedController frontLeft,
+			SpeedController backLeft, PreemptionListener listener) {
+		this.frontRight = frontRight;
+		this.backRight = backRight;
+		this.frontLeft = frontLeft;
+		this.backLeft = backLeft;
+		this.listener = listener;
+	}
+
+	/**
+	 * Takes ownership of the drivebase if it is free, already held by the
+	 * requester, or held by an owner of equal or lower priority.
+	 *
+	 * @param requester
+	 *            Owner requesting the drivebase
+	 * @return true if requester now owns the drivebase, false otherwise
+	 */
+	public boolean acquire(Owner requester) {
+		while (true) {
+			Owner current = owner.get();
+			if (current == requester) {
+				return true;
+			}
+			if (current != null && current.ordinal() > requester.ordinal()) {
+				return false;
+			}
+			if (owner.compareAndSet(current, requester)) {
+				if (current != null) {
+					listener.preempted(current, requester);
+				}
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases the drivebase if held by the given owner.
+	 *
+	 * @param releaser
+	 *            Owner releasing the drivebase
+	 */
+	public void release(Owner releaser) {
+		owner.compareAndSet(releaser, null);
+	}
+
+	/**
+	 * @param candidate
+	 *            Owner to test
+	 * @return true if candidate currently owns the drivebase, false otherwise
+	 */
+	public boolean owns(Owner candidate) {
+		return owner.get() == candidate;
+	}
+
+	/**
+	 * @return Current owner of the drivebase, or null if it is free
+	 */
+	public Owner getOwner() {
+		return owner.get();
+	}
+
+	/**
+	 * Writes all four wheel outputs if the writer owns the drivebase.
+	 *
+	 * @param writer
+	 *            Owner writing outputs
+	 * @param fr
+	 *            front right wheel output
+	 * @param br
+	 *            back right wheel output
+	 * @param fl
+	 *            front left wheel output
+	 * @param bl
+	 *            back left wheel output
+	 * @return true if outputs were written, false if writer does not own the
+	 *         drivebase
+	 */
+	public boolean set(Owner writer, double fr, double br, double fl, double bl) {
+		synchronized (outputs) {
+			if (owner.get() != writer) {
+				return false;
+			}
+			if (firstOutputTime == 0 && enableTime != 0 && (fr != 0 || br != 0 || fl != 0 || bl != 0)) {
+				firstOutputTime = System.nanoTime();
+			}
+			outputs[0] = fr;
+			outputs[1] = br;
+			outputs[2] = fl;
+			outputs[3] = bl;
+			frontRight.set(fr);
+			backRight.set(br);
+			frontLeft.set(fl);
+			backLeft.set(bl);
+			return true;
+		}
+	}
+
+	/**
+	 * Marks the moment the robot was enabled, to measure how long it takes for
+	 * the first nonzero wheel output to be written.
+	 */
+	public void markEnable() {
+		synchronized (outputs) {
+			enableTime = System.nanoTime();
+			firstOutputTime = 0;
+		}
+	}
+
+	/**
+	 * @return Time from the last {@link #markEnable()} to the first nonzero
+	 *         wheel output after it (in seconds), or -1 if there has been no
+	 *         output yet
+	 */
+	public double getEnableLatency() {
+		synchronized (outputs) {
+			return firstOutputTime == 0 ? -1 : (firstOutputTime - enableTime) / 1e9;
+		}
+	}
+
+	/**
+	 * Copies the last written wheel outputs.
+	 *
+	 * @param copy
+	 *            array of length 4 to fill as {fr, br, fl, bl}
+	 */
+	public void getOutputs(double[] copy) {
+		synchronized (outputs) {
+			System.arraycopy(outputs, 0, copy, 0, outputs.length);
+		}
+	}
+}
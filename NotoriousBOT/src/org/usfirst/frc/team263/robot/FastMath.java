@@ -0,0 +1,211 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Fast approximations of trigonometric functions for control loops.
+ *
+ * <p>
+ * Sine and cosine are linearly interpolated from a precomputed table of 4096
+ * samples per turn, with a maximum absolute error of {@link #SIN_MAX_ERROR}.
+ * Arctangent uses the polynomial approximation from Abramowitz and Stegun
+ * 4.4.49, with a maximum absolute error of {@link #ATAN2_MAX_ERROR} radians.
+ * </p>
+ * <p>
+ * Setting {@link #useTables} to false routes every call back to
+ * <code>java.lang.Math</code>, for comparison or if the error ever matters.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class FastMath {
+	/**
+	 * Maximum absolute error of sine and cosine approximations
+	 */
+	public static final double SIN_MAX_ERROR = 3e-7;
+	/**
+	 * Maximum absolute error of arctangent approximations (in radians)
+	 */
+	public static final double ATAN2_MAX_ERROR = 1.2e-5;
+	/**
+	 * true to use approximations, false to use <code>java.lang.Math</code>
+	 */
+	public static volatile boolean useTables = true;
+
+	private static final int TABLE_SIZE = 4096, TABLE_MASK = TABLE_SIZE - 1;
+	private static final double RADIANS_TO_INDEX = TABLE_SIZE / (2 * Math.PI), DEGREES_TO_INDEX = TABLE_SIZE / 360.0;
+	private static final double[] SIN_TABLE = new double[TABLE_SIZE + 1];
+
+	static {
+		for (int i = 0; i <= TABLE_SIZE; i++) {
+			SIN_TABLE[i] = Math.sin(2 * Math.PI * i / TABLE_SIZE);
+		}
+	}
+
+	private FastMath() {
+	}
+
+	/**
+	 * @param angle
+	 *            Angle (in radians)
+	 * @return Sine of angle
+	 */
+	public static double sin(double angle) {
+		return useTables ? lookup(angle * RADIANS_TO_INDEX) : Math.sin(angle);
+	}
+
+	/**
+	 * @param angle
+	 *            Angle (in radians)
+	 * @return Cosine of angle
+	 */
+	public static double cos(double angle) {
+		return useTables ? lookup(angle * RADIANS_TO_INDEX + TABLE_SIZE / 4) : Math.cos(angle);
+	}
+
+	/**
+	 * @param angle
+	 *            Angle (in degrees)
+	 * @return Sine of angle
+	 */
+	public static double sinDegrees(double angle) {
+		return useTables ? lookup(angle * DEGREES_TO_INDEX) : Math.sin(Math.toRadians(angle));
+	}
+
+	/**
+	 * @param angle
+	 *            Angle (in degrees)
+	 * @return Cosine of angle
+	 */
+	public static double cosDegrees(double angle) {
+		return useTables ? lookup(angle * DEGREES_TO_INDEX + TABLE_SIZE / 4) : Math.cos(Math.toRadians(angle));
+	}
+
+	/**
+	 * @param y
+	 *            Ordinate
+	 * @param x
+	 *            Abscissa
+	 * @return Angle of point (x, y) in [-pi, pi] (in radians)
+	 */
+	public static double atan2(double y, double x) {
+		if (!useTables) {
+			return Math.atan2(y, x);
+		}
+		double ax = Math.abs(x), ay = Math.abs(y);
+		if (ax == 0 && ay == 0) {
+			return 0;
+		}
+		double angle = ax >= ay ? atan(ay / ax) : Math.PI / 2 - atan(ax / ay);
+		if (x < 0) {
+			angle = Math.PI - angle;
+		}
+		return y < 0 ? -angle : angle;
+	}
+
+	/**
+	 * @param y
+	 *            Ordinate
+	 * @param x
+	 *            Abscissa
+	 * @return Angle of point (x, y) in [-180, 180] (in degrees)
+	 */
+	public static double atan2Degrees(double y, double x) {
+		return Math.toDegrees(atan2(y, x));
+	}
+
+	/**
+	 * Arctangent on [0, 1] by Abramowitz and Stegun 4.4.49.
+	 */
+	private static double atan(double z) {
+		double z2 = z * z;
+		return z * (0.9998660 + z2 * (-0.3302995 + z2 * (0.1801410 + z2 * (-0.0851330 + z2 * 0.0208351))));
+	}
+
+	/**
+	 * Linearly interpolates the sine table at a fractional index. Valid for
+	 * angles within about 500000 turns of zero.
+	 */
+	private static double lookup(double index) {
+		double floor = Math.floor(index);
+		int i = (int) floor & TABLE_MASK;
+		double fraction = index - floor;
+		return SIN_TABLE[i] + (SIN_TABLE[i + 1] - SIN_TABLE[i]) * fraction;
+	}
+
+	/**
+	 * Checks the approximations against <code>java.lang.Math</code> and times
+	 * both, so the comparison can be run on the roboRIO as well as a desktop.
+	 * Exits with status 1 if an error bound is exceeded.
+	 *
+	 * <pre>
+	 * FastMath [calls]
+	 * </pre>
+	 *
+	 * @param args
+	 *            Optionally the number of calls to time each function over
+	 */
+	public static void main(String[] args) {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		// Errors over several turns either side of zero, and over points all
+		// around the origin at many radii
+		double sinError = 0, sinDegreesError = 0, atan2Error = 0;
+		int samples = 1000000;
+		for (int i = 0; i < samples; i++) {
+			double angle = (i - samples / 2) * (8 * Math.PI / samples), degrees = Math.toDegrees(angle);
+			sinError = Math.max(sinError, Math.abs(sin(angle) - Math.sin(angle)));
+			sinError = Math.max(sinError, Math.abs(cos(angle) - Math.cos(angle)));
+			sinDegreesError = Math.max(sinDegreesError, Math.abs(sinDegrees(degrees) - Math.sin(angle)));
+			sinDegreesError = Math.max(sinDegreesError, Math.abs(cosDegrees(degrees) - Math.cos(angle)));
+			double radius = Math.pow(10, (i % 13) - 6), y = radius * Math.sin(angle), x = radius * Math.cos(angle);
+			atan2Error = Math.max(atan2Error, Math.abs(atan2(y, x) - Math.atan2(y, x)));
+		}
+		boolean passed = sinError <= SIN_MAX_ERROR && sinDegreesError <= SIN_MAX_ERROR
+				&& atan2Error <= ATAN2_MAX_ERROR;
+		System.out.println(String.format("max error sin/cos %.2e, degrees %.2e (bound %.1e), atan2 %.2e (bound %.1e)",
+				sinError, sinDegreesError, SIN_MAX_ERROR, atan2Error, ATAN2_MAX_ERROR));
+
+		// Times each function through the tables and through Math, as the
+		// control loops call them
+		String[] names = { "sin", "cos", "sinDegrees", "atan2" };
+		double step = 4 * Math.PI / calls, checksum = 0;
+		for (int function = 0; function < names.length; function++) {
+			double[] nanos = new double[2];
+			for (int route = 0; route < 2; route++) {
+				useTables = route == 0;
+				long start = 0;
+				// The first pass warms up the compiler, the second is timed
+				for (int pass = 0; pass < 2; pass++) {
+					start = System.nanoTime();
+					for (int i = 0; i < calls; i++) {
+						double angle = (i - calls / 2) * step;
+						switch (function) {
+						case 0:
+							checksum += sin(angle);
+							break;
+						case 1:
+							checksum += cos(angle);
+							break;
+						case 2:
+							checksum += sinDegrees(angle);
+							break;
+						default:
+							checksum += atan2(angle, 1 - angle);
+							break;
+						}
+					}
+				}
+				nanos[route] = (double) (System.nanoTime() - start) / calls;
+			}
+			System.out.println(String.format("%-10s  table %6.1f ns  Math %6.1f ns  %5.2fx", names[function],
+					nanos[0], nanos[1], nanos[1] / nanos[0]));
+		}
+		useTables = true;
+		System.out.println(String.format("checksum %.3f", checksum));
+
+		if (!passed) {
+			System.out.println("Error - Approximation exceeds its documented bound");
+			System.exit(1);
+		}
+	}
+}
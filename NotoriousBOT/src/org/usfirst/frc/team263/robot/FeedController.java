@@ -0,0 +1,218 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.Arrays;
+
+import edu.wpi.first.wpilibj.SpeedController;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Feeds balls to the shooter only while the flywheel is up to speed, and
+ * meters feed to how fast it recovers from each shot.
+ *
+ * <p>
+ * The flywheel is ready when its rate is within 3% of its reference rate, and
+ * stops being ready once it sags past 6%. The reference is the set point
+ * under closed loop control. Under open loop power it is the rate the
+ * flywheel recovers to, tracked as a peak which follows the rate up at once
+ * and down slowly, so sag from a shot is measured against the speed before
+ * it, and the flywheel is not ready while it is still speeding up. Feed
+ * starts gated until the flywheel is ready.
+ * </p>
+ * <p>
+ * A shot is a drop of 4% of the reference within 50 ms, and is under speed if
+ * the flywheel was already more than 3% slow when it fired. Feed is gated off
+ * from each shot until the flywheel is ready again. Feed power is scaled down after each
+ * under speed shot and back up after each good one, so it settles at the
+ * fastest feed the flywheel recovers from in time.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class FeedController {
+	// Fractions of the reference rate the flywheel is ready within, stops being
+	// ready beyond, and loses in a shot
+	private final double READY_TOLERANCE = 0.03, SAG_TOLERANCE = 0.06, SHOT_DROP = 0.04;
+	// Rise of an open loop flywheel, as a fraction of its rate, which restarts
+	// the time it must hold steady for before it is ready (in seconds)
+	private final double RISE_TOLERANCE = 0.02, STEADY_TIME = 0.4;
+	// Time constant the open loop reference decays with (in seconds)
+	private final double REFERENCE_DECAY_TIME = 2;
+	// Feed scale after an under speed shot is multiplied by this, and after a
+	// good shot increased by this, never below the minimum
+	private final double FEED_DECREASE = 0.8, FEED_INCREASE = 0.05, MIN_FEED_SCALE = 0.4;
+	// Cycles of rate a shot's drop is measured over, 50 ms at 100 Hz
+	private final int SHOT_WINDOW = 5;
+	private final double PUBLISH_RATE = 10;
+
+	private final BallShooter shooter;
+	private final SpeedController hopperMotor;
+	private final double[] window = new double[SHOT_WINDOW];
+	private double reference, feedScale = 1, previousTime, publishTime, feedTime, lastCadence, recoveryTimeSum,
+			shotTime, steadyRate, steadyTime;
+	private int index, shots, underSpeedShots, sessionShots, sessionUnderSpeedShots, recoveries;
+	private boolean ready, inShot, feeding;
+
+	/**
+	 * Instantiates feed controller.
+	 *
+	 * @param shooter
+	 *            BallShooter whose flywheel is fed and whose agitator is gated
+	 * @param hopperMotor
+	 *            SpeedController for hopper feed
+	 */
+	public FeedController(BallShooter shooter, SpeedController hopperMotor) {
+		this.shooter = shooter;
+		this.hopperMotor = hopperMotor;
+	}
+
+	/**
+	 * Gates requested feed on flywheel speed. Call every control cycle.
+	 *
+	 * @param agitate
+	 *            true if the agitator is requested
+	 * @param hopperPower
+	 *            Requested hopper power, from 0 to 1
+	 */
+	public void update(boolean agitate, double hopperPower) {
+		double time = Timer.getFPGATimestamp(), dt = previousTime == 0 ? 0 : time - previousTime;
+		previousTime = time;
+		double rate = shooter.getRate(), setpoint = shooter.getSetRPM();
+
+		// Reference rate the flywheel should shoot at
+		if (setpoint > 0) {
+			reference = setpoint;
+		} else if (rate >= reference) {
+			reference = rate;
+		} else {
+			reference += (rate - reference) * dt / (REFERENCE_DECAY_TIME + dt);
+		}
+
+		// Drop over the window is a shot, counted once until recovery
+		double peak = rate;
+		for (double sample : window) {
+			peak = Math.max(peak, sample);
+		}
+		window[index] = rate;
+		index = (index + 1) % window.length;
+
+		// An open loop flywheel is still speeding up until its rate holds
+		// steady for a while
+		if (rate > steadyRate * (1 + RISE_TOLERANCE)) {
+			steadyRate = rate;
+			steadyTime = time;
+		}
+		boolean rising = setpoint == 0 && time - steadyTime < STEADY_TIME;
+
+		if (reference <= 0 || rising || rate < reference * (1 - SAG_TOLERANCE)) {
+			ready = false;
+		} else if (rate >= reference * (1 - READY_TOLERANCE)) {
+			if (inShot) {
+				recoveryTimeSum += time - shotTime;
+				recoveries++;
+			}
+			ready = true;
+			inShot = false;
+		}
+
+		boolean requested = agitate || hopperPower > 0;
+		if (requested && !inShot && reference > 0 && peak - rate > SHOT_DROP * reference) {
+			inShot = true;
+			ready = false;
+			shotTime = time;
+			shots++;
+			sessionShots++;
+			if (peak < reference * (1 - READY_TOLERANCE)) {
+				underSpeedShots++;
+				sessionUnderSpeedShots++;
+				feedScale = Math.max(MIN_FEED_SCALE, feedScale * FEED_DECREASE);
+			} else {
+				feedScale = Math.min(1, feedScale + FEED_INCREASE);
+			}
+		}
+
+		if (requested) {
+			feedTime += dt;
+		} else if (feeding) {
+			endSession();
+		}
+		feeding = requested;
+		boolean gate = ready && !inShot;
+		shooter.setAgitator(agitate && gate);
+		shooter.setAgitatorScale(feedScale);
+		hopperMotor.set(gate ? hopperPower * feedScale : 0);
+
+		if (time - publishTime >= 1 / PUBLISH_RATE) {
+			publishTime = time;
+			NetworkTable table = NetworkTable.getTable("feedData");
+			table.putBoolean("ready", ready);
+			table.putNumber("reference", reference);
+			table.putNumber("feedScale", feedScale);
+			table.putNumber("shots", shots);
+			table.putNumber("underSpeedShots", underSpeedShots);
+			table.putNumber("cadence", getCadence());
+			table.putNumber("recoveryTime", getRecoveryTime());
+		}
+	}
+
+	/**
+	 * Stops feed, ending any feed session, so the next starts gated.
+	 */
+	public void disable() {
+		if (feeding) {
+			endSession();
+		}
+		feeding = false;
+		ready = false;
+		inShot = false;
+		reference = 0;
+		steadyRate = 0;
+		Arrays.fill(window, 0);
+		shooter.setAgitator(false);
+		hopperMotor.set(0);
+	}
+
+	/**
+	 * @return Shots fired since startup
+	 */
+	public int getShotCount() {
+		return shots;
+	}
+
+	/**
+	 * @return Shots fired under speed since startup
+	 */
+	public int getUnderSpeedShotCount() {
+		return underSpeedShots;
+	}
+
+	/**
+	 * @return Shots per second of feed requested in the current or last feed
+	 *         session
+	 */
+	public double getCadence() {
+		return feedTime > 0 ? sessionShots / feedTime : lastCadence;
+	}
+
+	/**
+	 * @return Mean time from a shot to ready again since startup (in seconds)
+	 */
+	public double getRecoveryTime() {
+		return recoveries > 0 ? recoveryTimeSum / recoveries : 0;
+	}
+
+	/**
+	 * Reports a feed session and starts the next.
+	 */
+	private void endSession() {
+		if (sessionShots > 0) {
+			lastCadence = getCadence();
+			System.out.println(String.format("Fed %d shots in %.2fs, %.2f per second, %d under speed",
+					sessionShots, feedTime, lastCadence, sessionUnderSpeedShots));
+		}
+		sessionShots = 0;
+		sessionUnderSpeedShots = 0;
+		feedTime = 0;
+	}
+}
@@ -0,0 +1,150 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Motor feedforward model, V = kS * sgn(v) + kV * v + kA * a.
+ *
+ * <p>
+ * Constants are fitted by {@link Characterization} and stored in
+ * {@link #FILE} under a prefix for each mechanism, as
+ * <code>prefix.kS</code>, <code>prefix.kV</code> and <code>prefix.kA</code>.
+ * Outputs assume battery voltage compensation, so volts convert to output by
+ * dividing by {@link BatteryMonitor#NOMINAL_VOLTAGE}.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class Feedforward {
+	/**
+	 * File characterized constants are loaded from at startup
+	 */
+	public static final String FILE = "/home/lvuser/feedforward.properties";
+
+	private final double kS, kV, kA;
+
+	/**
+	 * @param kS
+	 *            Voltage to overcome static friction (in volts)
+	 * @param kV
+	 *            Voltage per unit of velocity
+	 * @param kA
+	 *            Voltage per unit of acceleration
+	 */
+	public Feedforward(double kS, double kV, double kA) {
+		this.kS = kS;
+		this.kV = kV;
+		this.kA = kA;
+	}
+
+	/**
+	 * @param velocity
+	 *            Desired velocity
+	 * @param acceleration
+	 *            Desired acceleration
+	 * @return Voltage to apply (in volts)
+	 */
+	public double calculate(double velocity, double acceleration) {
+		return kS * Math.signum(velocity) + kV * velocity + kA * acceleration;
+	}
+
+	/**
+	 * @param velocity
+	 *            Desired velocity
+	 * @param acceleration
+	 *            Desired acceleration
+	 * @return Compensated motor output to apply
+	 */
+	public double getOutput(double velocity, double acceleration) {
+		return calculate(velocity, acceleration) / BatteryMonitor.NOMINAL_VOLTAGE;
+	}
+
+	/**
+	 * @return Voltage to overcome static friction (in volts)
+	 */
+	public double getKS() {
+		return kS;
+	}
+
+	/**
+	 * @return Voltage per unit of velocity
+	 */
+	public double getKV() {
+		return kV;
+	}
+
+	/**
+	 * @return Voltage per unit of acceleration
+	 */
+	public double getKA() {
+		return kA;
+	}
+
+	/**
+	 * Stores constants in properties under a prefix.
+	 *
+	 * @param properties
+	 *            Properties to store into
+	 * @param prefix
+	 *            Name of mechanism
+	 */
+	public void store(Properties properties, String prefix) {
+		properties.setProperty(prefix + ".kS", Double.toString(kS));
+		properties.setProperty(prefix + ".kV", Double.toString(kV));
+		properties.setProperty(prefix + ".kA", Double.toString(kA));
+	}
+
+	/**
+	 * Reads constants stored under a prefix.
+	 *
+	 * @param properties
+	 *            Properties to read from
+	 * @param prefix
+	 *            Name of mechanism
+	 * @param defaults
+	 *            Constants to use if any are missing or malformed
+	 * @return Stored constants, or defaults
+	 */
+	public static Feedforward load(Properties properties, String prefix, Feedforward defaults) {
+		try {
+			String kS = properties.getProperty(prefix + ".kS"), kV = properties.getProperty(prefix + ".kV"),
+					kA = properties.getProperty(prefix + ".kA");
+			if (kS == null || kV == null || kA == null) {
+				return defaults;
+			}
+			return new Feedforward(Double.parseDouble(kS), Double.parseDouble(kV), Double.parseDouble(kA));
+		} catch (NumberFormatException e) {
+			System.out.println("Error - Invalid feedforward constants for " + prefix + ": " + e.getMessage());
+			return defaults;
+		}
+	}
+
+	/**
+	 * Reads the constants file.
+	 *
+	 * @return Stored constants, empty if the file is missing or unreadable
+	 */
+	public static Properties loadFile() {
+		Properties properties = new Properties();
+		Path file = Paths.get(FILE);
+		if (Files.exists(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				properties.load(in);
+			} catch (IOException e) {
+				System.out.println("Error - Could not read " + FILE + ": " + e.getMessage());
+			}
+		}
+		return properties;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("kS=%.4f kV=%.6f kA=%.6f", kS, kV, kA);
+	}
+}
@@ -0,0 +1,145 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Fixed rate scheduler for control loops.
+ *
+ * <p>
+ * Deadlines are computed as absolute multiples of the period from the start of
+ * the loop, so time spent inside the loop body never accumulates as drift.
+ * Cycles which finish after their deadline are counted as overruns and the
+ * schedule is resynchronized instead of trying to catch up with a burst of
+ * back-to-back cycles.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class FixedRateLoop {
+	private final long periodNanos;
+	private long nextDeadline, lastCycleStart, cycles, overruns;
+	private double periodSum, periodSquaredSum, maxJitter;
+
+	/**
+	 * Instantiates a fixed rate loop.
+	 *
+	 * @param frequency
+	 *            Rate to run loop at (in Hz)
+	 */
+	public FixedRateLoop(double frequency) {
+		if (frequency <= 0) {
+			throw new IllegalArgumentException("Loop frequency must be positive: " + frequency);
+		}
+		periodNanos = (long) (1e9 / frequency);
+		start();
+	}
+
+	/**
+	 * Resets statistics and starts the schedule from the current time.
+	 */
+	public void start() {
+		lastCycleStart = System.nanoTime();
+		nextDeadline = lastCycleStart + periodNanos;
+		cycles = 0;
+		overruns = 0;
+		periodSum = 0;
+		periodSquaredSum = 0;
+		maxJitter = 0;
+	}
+
+	/**
+	 * Blocks until the start of the next cycle.
+	 *
+	 * <p>
+	 * Should be called once at the end of every loop iteration.
+	 * </p>
+	 */
+	public void waitForNextCycle() {
+		long now = System.nanoTime();
+		if (now > nextDeadline) {
+			overruns++;
+			nextDeadline = now;
+		} else {
+			while (now < nextDeadline) {
+				LockSupport.parkNanos(nextDeadline - now);
+				now = System.nanoTime();
+			}
+		}
+
+		double period = (now - lastCycleStart) / 1e9;
+		double jitter = Math.abs(period - getPeriod());
+		periodSum += period;
+		periodSquaredSum += period * period;
+		maxJitter = Math.max(maxJitter, jitter);
+		cycles++;
+
+		lastCycleStart = now;
+		nextDeadline += periodNanos;
+	}
+
+	/**
+	 * @return Nominal period of loop (in seconds)
+	 */
+	public double getPeriod() {
+		return periodNanos / 1e9;
+	}
+
+	/**
+	 * @return Mean measured period of loop since start (in seconds)
+	 */
+	public double getAveragePeriod() {
+		return cycles == 0 ? 0 : periodSum / cycles;
+	}
+
+	/**
+	 * @return Standard deviation of measured period since start (in seconds)
+	 */
+	public double getJitter() {
+		if (cycles == 0) {
+			return 0;
+		}
+		double mean = getAveragePeriod();
+		return Math.sqrt(Math.max(0, periodSquaredSum / cycles - mean * mean));
+	}
+
+	/**
+	 * @return Largest deviation of a single period from nominal (in seconds)
+	 */
+	public double getMaxJitter() {
+		return maxJitter;
+	}
+
+	/**
+	 * @return Number of cycles which ran past their deadline
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * @return Number of completed cycles since start
+	 */
+	public long getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Publishes loop statistics to NetworkTables and the console.
+	 *
+	 * @param name
+	 *            Name of loop to report statistics under
+	 */
+	public void report(String name) {
+		NetworkTable table = NetworkTable.getTable("loopData/" + name);
+		table.putNumber("period", getAveragePeriod());
+		table.putNumber("jitter", getJitter());
+		table.putNumber("maxJitter", getMaxJitter());
+		table.putNumber("overruns", overruns);
+		table.putNumber("cycles", cycles);
+		System.out.println(name + " loop: period " + getAveragePeriod() * 1e3 + " ms, jitter " + getJitter() * 1e3
+				+ " ms, max jitter " + maxJitter * 1e3 + " ms, " + overruns + "/" + cycles + " overruns");
+	}
+}
@@ -0,0 +1,89 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Closes the flywheel velocity loop for {@link BallShooter}.
+ *
+ * <p>
+ * Every backend takes rates in shooter encoder counts per second, outputs as
+ * fractions of {@link BatteryMonitor#NOMINAL_VOLTAGE}, and gains in those
+ * units. Gains tuned or characterized against one backend therefore carry over
+ * to the others, which convert them to whatever units they run in.
+ * </p>
+ * <p>
+ * Calls are made with the shooter's lock held, so a backend needs no locking
+ * of its own.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public interface FlywheelBackend {
+	/**
+	 * Holds a rotation rate with closed loop control, or stops closed loop
+	 * control and the flywheel if the rate is 0.
+	 *
+	 * @param rate
+	 *            Rate to hold (in encoder counts per second)
+	 */
+	void setSetpoint(double rate);
+
+	/**
+	 * @return Rate being held, or 0 if closed loop control is stopped (in
+	 *         encoder counts per second)
+	 */
+	double getSetpoint();
+
+	/**
+	 * Stops closed loop control and sets output directly.
+	 *
+	 * @param power
+	 *            Output from -1 to 1
+	 */
+	void setPower(double power);
+
+	/**
+	 * Sets gains of the velocity loop.
+	 *
+	 * @param kP
+	 *            Output per count per second of error
+	 * @param kI
+	 *            Output per count of integrated error
+	 * @param feedforward
+	 *            Flywheel feedforward, in volts per count per second
+	 */
+	void setGains(double kP, double kI, Feedforward feedforward);
+
+	/**
+	 * @return Proportional gain (output per count per second)
+	 */
+	double getKP();
+
+	/**
+	 * @return Integral gain (output per count)
+	 */
+	double getKI();
+
+	/**
+	 * @return Flywheel feedforward in use
+	 */
+	Feedforward getFeedforward();
+
+	/**
+	 * @return Measured rotation rate (in encoder counts per second)
+	 */
+	double getRate();
+
+	/**
+	 * @return Last output applied, from -1 to 1
+	 */
+	double getOutput();
+
+	/**
+	 * Runs one cycle of any control done on the roboRIO. Called at a fixed rate
+	 * while closed loop control is running.
+	 *
+	 * @param dt
+	 *            Time since last cycle (in seconds)
+	 */
+	void update(double dt);
+}
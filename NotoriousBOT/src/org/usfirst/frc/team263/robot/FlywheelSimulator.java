@@ -0,0 +1,328 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.Random;
+
+import edu.wpi.first.wpilibj.PIDSource;
+import edu.wpi.first.wpilibj.PIDSourceType;
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Simulates the flywheel under each {@link FlywheelBackend}, in simulated time
+ * as fast as the processor allows, so backends and gains can be compared on a
+ * desktop.
+ *
+ * <p>
+ * The flywheel follows V = kS + kV * v + kA * a with constants near a
+ * characterized flywheel, and each shot takes {@link #SHOT_LOSS} of its speed.
+ * The software backend runs unchanged against a model motor and encoder, at
+ * the shooter thread's rate, with output reaching the motor at the CAN frame
+ * period of a Talon in open loop. Its rate comes either from the encoder
+ * averaged over edges, or from a {@link FlywheelSpeedEstimator} fed single
+ * edge periods, which are uneven in 2x decoding. The Talon backend is stood in for by a model
+ * of its firmware loop, run every millisecond with the gains
+ * {@link TalonFlywheel} would write, and reading a velocity averaged over a
+ * short window. Backends are given a feedforward a few percent off the model,
+ * as characterization would be, so their feedback is exercised.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class FlywheelSimulator {
+	/**
+	 * Step of simulated time (in seconds), the rate of the Talon's loop
+	 */
+	public static final double DT = TalonFlywheel.LOOP_PERIOD;
+	/**
+	 * Fraction of speed each shot takes
+	 */
+	public static final double SHOT_LOSS = 0.08;
+
+	// Model flywheel (in volts, counts per second and seconds)
+	private final double KS = 0.7, KV = 0.0029, KA = 0.0035;
+	// Noise of a roboRIO encoder rate averaged over edges (in counts per
+	// second), and error of a single edge period from uneven edge spacing
+	private final double ENCODER_NOISE = 15, EDGE_ERROR = 0.04;
+	// Period of the shooter thread, and of open loop CAN frames to the Talon
+	// (in seconds)
+	private final double SOFTWARE_PERIOD = 0.005, CAN_FRAME_PERIOD = 0.01;
+	// Samples of the Talon's velocity average, assumed
+	private final int TALON_VELOCITY_WINDOW = 10;
+	// Tolerance and settle time of BallShooter's up to speed check
+	private final double TOLERANCE = 0.03, SETTLE_TIME = 0.025;
+
+	private final Random random = new Random(263);
+	private double rate, voltage;
+
+	/**
+	 * Runs a spin up and a volley of shots against a backend.
+	 *
+	 * @param talon
+	 *            true to simulate the Talon's loop, false the software loop
+	 * @param filter
+	 *            Filter of the speed estimator the software loop reads, or
+	 *            null to read the encoder averaged over edges
+	 * @param setpoint
+	 *            Rate to hold (in encoder counts per second)
+	 * @param shots
+	 *            Number of shots to fire, each as soon as the flywheel is back
+	 *            up to speed
+	 * @param kP
+	 *            Proportional gain (output per count per second)
+	 * @param kI
+	 *            Integral gain (output per count)
+	 * @return {spin up time, overshoot fraction, RMS error once up to speed
+	 *         (in counts per second), mean recovery time per shot}, in seconds
+	 */
+	public double[] run(boolean talon, FlywheelSpeedEstimator.Filter filter, double setpoint, int shots, double kP,
+			double kI) {
+		rate = voltage = 0;
+		Motor motor = new Motor();
+		FlywheelSpeedEstimator estimator = filter == null ? null : new FlywheelSpeedEstimator(null, filter, 8);
+		FlywheelBackend backend = talon ? new SimulatedTalon()
+				: new SoftwareFlywheel(motor, estimator == null ? motor : estimator);
+		backend.setGains(kP, kI, new Feedforward(0.6, 0.97 * KV, 0));
+		backend.setSetpoint(setpoint);
+
+		double time = 0, settledTime = 0, spinUpTime = -1, peak = 0, errorSum = 0, shotTime = 0, recoverySum = 0;
+		int errorSamples = 0, fired = 0, softwareSteps = (int) Math.round(SOFTWARE_PERIOD / DT),
+				frameSteps = (int) Math.round(CAN_FRAME_PERIOD / DT),
+				sampleSteps = (int) Math.round(1 / FlywheelSpeedEstimator.SAMPLE_RATE / DT);
+		for (int step = 0; time < 30 && fired <= shots; step++, time += DT) {
+			if (talon) {
+				((SimulatedTalon) backend).tick();
+			} else {
+				if (estimator != null && step % sampleSteps == 0) {
+					double edgeError = random.nextBoolean() ? EDGE_ERROR : -EDGE_ERROR;
+					estimator.addSample(time, rate * (1 + edgeError));
+				}
+				if (step % softwareSteps == 0) {
+					backend.update(SOFTWARE_PERIOD);
+				}
+				if (step % frameSteps == 0) {
+					voltage = motor.get() * BatteryMonitor.NOMINAL_VOLTAGE;
+				}
+			}
+			integrate();
+
+			settledTime = Math.abs(setpoint - rate) < TOLERANCE * setpoint ? settledTime + DT : 0;
+			boolean upToSpeed = settledTime >= SETTLE_TIME;
+			if (spinUpTime < 0) {
+				peak = Math.max(peak, rate);
+				if (upToSpeed) {
+					spinUpTime = time;
+					shotTime = time;
+				}
+				continue;
+			}
+			peak = Math.max(peak, rate);
+			errorSum += (setpoint - rate) * (setpoint - rate);
+			errorSamples++;
+			if (upToSpeed && (fired == 0 || time - shotTime > SETTLE_TIME)) {
+				if (fired > 0) {
+					recoverySum += time - shotTime;
+				}
+				if (fired < shots) {
+					rate *= 1 - SHOT_LOSS;
+					shotTime = time;
+				}
+				fired++;
+			}
+		}
+		return new double[] { spinUpTime, Math.max(0, peak / setpoint - 1),
+				Math.sqrt(errorSum / Math.max(1, errorSamples)), shots > 0 ? recoverySum / shots : 0 };
+	}
+
+	/**
+	 * Integrates one step of the flywheel.
+	 */
+	private void integrate() {
+		double v = Math.max(-BatteryMonitor.NOMINAL_VOLTAGE, Math.min(BatteryMonitor.NOMINAL_VOLTAGE, voltage));
+		double friction = rate > 0 ? KS : Math.min(KS, Math.abs(v)) * Math.signum(v);
+		rate = Math.max(0, rate + (v - friction - KV * rate) / KA * DT);
+	}
+
+	/**
+	 * Compares backends, and speed estimator filters for the software backend,
+	 * at a few set points.
+	 *
+	 * <pre>
+	 * FlywheelSimulator [shots [kP kI]]
+	 * </pre>
+	 *
+	 * @param args
+	 *            Optionally the number of shots per volley, and gains to use
+	 *            instead of the shooter's
+	 */
+	public static void main(String[] args) {
+		int shots = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		double kP = args.length > 2 ? Double.parseDouble(args[1]) : BallShooter.TUNED_KP;
+		double kI = args.length > 2 ? Double.parseDouble(args[2]) : BallShooter.TUNED_KI;
+		FlywheelSimulator simulator = new FlywheelSimulator();
+		System.out.println("backend                   setpoint  spin up  overshoot  RMS error  recovery");
+		FlywheelSpeedEstimator.Filter[] filters = FlywheelSpeedEstimator.Filter.values();
+		for (double setpoint : new double[] { 2000, 2800, 3400 }) {
+			// Software with the averaged encoder, with each filter, then Talon
+			for (int i = -1; i <= filters.length; i++) {
+				boolean talon = i == filters.length;
+				FlywheelSpeedEstimator.Filter filter = i >= 0 && !talon ? filters[i] : null;
+				double[] result = simulator.run(talon, filter, setpoint, shots, kP, kI);
+				String name = talon ? "talon" : "software " + (filter == null ? "averaged" : filter.toString());
+				System.out.println(String.format("%-24s  %8.0f  %6.3fs  %8.1f%%  %9.1f  %7.3fs", name, setpoint,
+						result[0], 100 * result[1], result[2], result[3]));
+			}
+		}
+	}
+
+	/**
+	 * Model motor and encoder for the software backend.
+	 */
+	private class Motor implements SpeedController, PIDSource {
+		private double output;
+
+		@Override
+		public void set(double speed) {
+			output = speed;
+		}
+
+		@Override
+		public void pidWrite(double output) {
+			set(output);
+		}
+
+		@Override
+		public double get() {
+			return output;
+		}
+
+		@Override
+		public void setInverted(boolean isInverted) {
+		}
+
+		@Override
+		public boolean getInverted() {
+			return false;
+		}
+
+		@Override
+		public void disable() {
+			set(0);
+		}
+
+		@Override
+		public void stopMotor() {
+			set(0);
+		}
+
+		@Override
+		public void setPIDSourceType(PIDSourceType pidSource) {
+		}
+
+		@Override
+		public PIDSourceType getPIDSourceType() {
+			return PIDSourceType.kRate;
+		}
+
+		@Override
+		public double pidGet() {
+			return rate + random.nextGaussian() * ENCODER_NOISE;
+		}
+	}
+
+	/**
+	 * Stand in for a Talon in speed mode, running its firmware loop in its own
+	 * units.
+	 */
+	private class SimulatedTalon implements FlywheelBackend {
+		private final double[] window = new double[TALON_VELOCITY_WINDOW];
+		private double kP, kI, setpoint, power, accumulator, measured;
+		private double[] gains = new double[3];
+		private Feedforward feedforward = new Feedforward(0, 0, 0);
+		private int index;
+
+		/**
+		 * Runs one millisecond of the Talon's loop.
+		 */
+		public void tick() {
+			// Velocity in edges per 100 ms, averaged over the window
+			double sample = TalonFlywheel.toNative(rate);
+			measured += (sample - window[index]) / window.length;
+			window[index] = sample;
+			index = (index + 1) % window.length;
+			if (setpoint == 0) {
+				voltage = power * BatteryMonitor.NOMINAL_VOLTAGE;
+				return;
+			}
+
+			double target = TalonFlywheel.toNative(setpoint), error = target - measured;
+			if (Math.abs(error) < TalonFlywheel.toNative(TalonFlywheel.INTEGRAL_ZONE)) {
+				accumulator += error;
+			} else {
+				accumulator = 0;
+			}
+			double u = gains[0] * error + gains[1] * accumulator + gains[2] * target;
+			voltage = Math.max(0, Math.min(1, u / TalonFlywheel.FULL_OUTPUT)) * BatteryMonitor.NOMINAL_VOLTAGE;
+		}
+
+		@Override
+		public void setSetpoint(double rate) {
+			if (rate == 0) {
+				setPower(0);
+				return;
+			}
+			if (setpoint == 0) {
+				accumulator = 0;
+			}
+			setpoint = rate;
+			gains = TalonFlywheel.toNativeGains(kP, kI, feedforward, setpoint);
+		}
+
+		@Override
+		public double getSetpoint() {
+			return setpoint;
+		}
+
+		@Override
+		public void setPower(double power) {
+			setpoint = 0;
+			this.power = power;
+		}
+
+		@Override
+		public void setGains(double kP, double kI, Feedforward feedforward) {
+			this.kP = kP;
+			this.kI = kI;
+			this.feedforward = feedforward;
+			gains = TalonFlywheel.toNativeGains(kP, kI, feedforward, setpoint);
+		}
+
+		@Override
+		public double getKP() {
+			return kP;
+		}
+
+		@Override
+		public double getKI() {
+			return kI;
+		}
+
+		@Override
+		public Feedforward getFeedforward() {
+			return feedforward;
+		}
+
+		@Override
+		public double getRate() {
+			return TalonFlywheel.fromNative(measured);
+		}
+
+		@Override
+		public double getOutput() {
+			return voltage / BatteryMonitor.NOMINAL_VOLTAGE;
+		}
+
+		@Override
+		public void update(double dt) {
+		}
+	}
+}
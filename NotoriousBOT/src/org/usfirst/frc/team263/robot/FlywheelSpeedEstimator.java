@@ -0,0 +1,254 @@
+package org.usfirst.frc.team263.robot;
+
+import edu.wpi.first.wpilibj.Encoder;
+import edu.wpi.first.wpilibj.PIDSource;
+import edu.wpi.first.wpilibj.PIDSourceType;
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Flywheel rate estimator from the shooter encoder's edge period.
+ *
+ * <p>
+ * The encoder is sampled at a fixed rate with no averaging in the FPGA, so each
+ * sample is the rate over the most recent edge alone. A sample is only taken
+ * when a new edge has arrived since the last one, and when edges stop the rate
+ * decays as the time since the last edge grows, so a stopping flywheel reads
+ * as slowing rather than holding its last rate. Samples and their timestamps
+ * go into a preallocated ring buffer, which the selected filter reads:
+ * </p>
+ * <ul>
+ * <li>moving average, the mean of the window. Even windows cancel the uneven
+ * spacing of rising and falling edges in 2x decoding</li>
+ * <li>median, the median of the window, which rejects single bad periods</li>
+ * <li>alpha-beta, which tracks rate and acceleration and predicts between
+ * samples, so it has the least lag while accelerating</li>
+ * </ul>
+ * <p>
+ * The estimate is published with a sequence lock, so the control loop reads a
+ * fresh rate without blocking the sampler or touching the encoder. As a
+ * {@link PIDSource} it is a drop in rate source for {@link SoftwareFlywheel}.
+ * Rates are in encoder counts per second.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class FlywheelSpeedEstimator extends Thread implements PIDSource {
+	public static enum Filter {
+		eMovingAverage, eMedian, eAlphaBeta;
+	}
+
+	/**
+	 * Rate the encoder is sampled at (in Hz)
+	 */
+	public static final double SAMPLE_RATE = 500;
+	private final double PUBLISH_RATE = 10;
+	// Gains of the alpha-beta filter on rate and acceleration
+	private final double ALPHA = 0.35, BETA = 0.05;
+
+	private final Encoder enc;
+	private final FixedRateLoop loop = new FixedRateLoop(SAMPLE_RATE);
+	private final double[] times, rates, sorted;
+	private volatile Filter filter;
+	private int index, count, lastRaw;
+	private double lastEdgeTime, lastPeriod, lastEdgeRate, sum, alphaBetaRate, alphaBetaAcceleration, alphaBetaTime;
+	private volatile long sequence;
+	private volatile double rate, acceleration, timestamp;
+
+	/**
+	 * Instantiates estimator.
+	 *
+	 * @param enc
+	 *            Encoder to sample, which is switched to a distance per pulse
+	 *            of 1 so rates are in counts and to no averaging, or null to be
+	 *            fed samples with {@link #addSample(double, double)}
+	 * @param filter
+	 *            Filter to start with
+	 * @param window
+	 *            Number of samples the moving average and median filters use
+	 */
+	public FlywheelSpeedEstimator(Encoder enc, Filter filter, int window) {
+		super("FlywheelSpeed");
+		setDaemon(true);
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must hold a sample: " + window);
+		}
+		this.enc = enc;
+		this.filter = filter;
+		times = new double[window];
+		rates = new double[window];
+		sorted = new double[window];
+		if (enc != null) {
+			enc.setDistancePerPulse(1);
+			enc.setSamplesToAverage(1);
+		}
+	}
+
+	/**
+	 * Selects the filter, which starts from the samples in the window.
+	 *
+	 * @param filter
+	 *            Filter to use
+	 */
+	public synchronized void setFilter(Filter filter) {
+		this.filter = filter;
+		alphaBetaTime = 0;
+	}
+
+	/**
+	 * @return Filter in use
+	 */
+	public Filter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @return Filtered rate (in encoder counts per second)
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Copies a consistent snapshot of the estimate without blocking.
+	 *
+	 * @param estimate
+	 *            array of length 3 to fill as {rate, acceleration, time}, in
+	 *            counts per second, counts per second squared and FPGA seconds
+	 */
+	public void getEstimate(double[] estimate) {
+		long seq;
+		do {
+			seq = sequence;
+			estimate[0] = rate;
+			estimate[1] = acceleration;
+			estimate[2] = timestamp;
+		} while ((seq & 1) != 0 || seq != sequence);
+	}
+
+	@Override
+	public void setPIDSourceType(PIDSourceType pidSource) {
+		if (pidSource != PIDSourceType.kRate) {
+			throw new IllegalArgumentException("Flywheel speed estimator only measures rate");
+		}
+	}
+
+	@Override
+	public PIDSourceType getPIDSourceType() {
+		return PIDSourceType.kRate;
+	}
+
+	@Override
+	public double pidGet() {
+		return rate;
+	}
+
+	/**
+	 * Method to continuously sample the encoder.
+	 */
+	public void run() {
+		NetworkTable table = NetworkTable.getTable("flywheelSpeedData");
+		int publishDivider = (int) (SAMPLE_RATE / PUBLISH_RATE), cycle = 0;
+		lastRaw = enc.getRaw();
+		lastEdgeTime = Timer.getFPGATimestamp();
+		loop.start();
+		while (true) {
+			loop.waitForNextCycle();
+			double time = Timer.getFPGATimestamp();
+			int raw = enc.getRaw();
+			if (raw != lastRaw) {
+				lastRaw = raw;
+				lastEdgeTime = time;
+				// Rate over the latest edge, as distance per pulse is 1 and
+				// nothing is averaged
+				lastEdgeRate = Math.abs(enc.getRate());
+				if (Double.isNaN(lastEdgeRate) || Double.isInfinite(lastEdgeRate)) {
+					lastEdgeRate = 0;
+				}
+				lastPeriod = lastEdgeRate > 0 ? 1 / lastEdgeRate : 0;
+				addSample(time, lastEdgeRate);
+			} else if (lastEdgeRate > 0 && time - lastEdgeTime > lastPeriod) {
+				// No edge for longer than the last period, so the flywheel is
+				// at most this fast
+				addSample(time, 1 / (time - lastEdgeTime));
+			}
+
+			if (++cycle >= publishDivider) {
+				cycle = 0;
+				table.putNumber("rate", rate);
+				table.putNumber("acceleration", acceleration);
+				table.putNumber("rawRate", lastEdgeRate);
+				table.putString("filter", filter.toString());
+			}
+		}
+	}
+
+	/**
+	 * Adds a sample to the window and publishes a new estimate.
+	 *
+	 * @param time
+	 *            Time of sample (in seconds)
+	 * @param sample
+	 *            Rate measured over the latest edge (in encoder counts per
+	 *            second)
+	 */
+	public synchronized void addSample(double time, double sample) {
+		sample = Math.abs(sample);
+		sum += sample - (count == rates.length ? rates[index] : 0);
+		times[index] = time;
+		rates[index] = sample;
+		index = (index + 1) % rates.length;
+		count = Math.min(count + 1, rates.length);
+		if (index == 0) {
+			// Resum once per lap so rounding doesn't accumulate
+			sum = 0;
+			for (int i = 0; i < count; i++) {
+				sum += rates[i];
+			}
+		}
+		int newest = (index + rates.length - 1) % rates.length, oldest = count == rates.length ? index : 0;
+		double span = times[newest] - times[oldest];
+
+		double estimate, slope = count > 1 && span > 0 ? (rates[newest] - rates[oldest]) / span : 0;
+		switch (filter) {
+		case eMedian:
+			System.arraycopy(rates, 0, sorted, 0, count);
+			// Insertion sort, as windows are small
+			for (int i = 1; i < count; i++) {
+				double value = sorted[i];
+				int j = i - 1;
+				for (; j >= 0 && sorted[j] > value; j--) {
+					sorted[j + 1] = sorted[j];
+				}
+				sorted[j + 1] = value;
+			}
+			estimate = (count & 1) != 0 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2;
+			break;
+		case eAlphaBeta:
+			double dt = time - alphaBetaTime;
+			if (alphaBetaTime == 0 || dt <= 0 || dt > 0.1) {
+				// Start from the sample after a gap
+				alphaBetaRate = sample;
+				alphaBetaAcceleration = 0;
+			} else {
+				double predicted = alphaBetaRate + alphaBetaAcceleration * dt, residual = sample - predicted;
+				alphaBetaRate = predicted + ALPHA * residual;
+				alphaBetaAcceleration += BETA * residual / dt;
+			}
+			alphaBetaTime = time;
+			estimate = alphaBetaRate;
+			slope = alphaBetaAcceleration;
+			break;
+		default:
+			estimate = sum / count;
+			break;
+		}
+
+		sequence++;
+		rate = Math.max(0, estimate);
+		acceleration = slope;
+		timestamp = time;
+		sequence++;
+	}
+}
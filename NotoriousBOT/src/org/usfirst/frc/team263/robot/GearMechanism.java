@@ -1,5 +1,8 @@
 package org.usfirst.frc.team263.robot;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+
 import javax.swing.plaf.ProgressBarUI;
 
 import edu.wpi.first.wpilibj.Compressor;
@@ -20,7 +23,10 @@ public class GearMechanism {
 		eDown, eUp, eGoingDown, eGoingUp;
 	}
 
-	private GearModes state;
+	private volatile GearModes state;
+	// Handles waiting for each state, guarded by itself
+	private final EnumMap<GearModes, ArrayList<MotionHandle>> waiters = new EnumMap<GearModes, ArrayList<MotionHandle>>(
+			GearModes.class);
 	private DigitalInput downwardLimitSwitch, upwardLimitSwitch;
 	private Solenoid gearPiston;
 	private boolean desireUp, pistonTriggered;
@@ -54,7 +60,7 @@ public class GearMechanism {
 	/**
 	 * Toggles whether the gear mechanism should currently be going up or down.
 	 */
-	public void toggleState() {
+	public synchronized void toggleState() {
 		desireUp = !desireUp;
 		pistonTriggered = !pistonTriggered;
 	}
@@ -71,6 +77,42 @@ public class GearMechanism {
 	public GearModes getUp() {
 		return GearModes.eUp;
 	}
+
+	/**
+	 * Waits for the system to reach a state without blocking.
+	 * 
+	 * <p>
+	 * The returned handle completes the next time {@link #run()} moves the
+	 * system into the state, or immediately if it is already there. Cancel the
+	 * handle to stop waiting.
+	 * </p>
+	 * 
+	 * @param mode
+	 *            State to wait for
+	 * @return Handle which completes when the system is in mode
+	 */
+	public MotionHandle awaitState(GearModes mode) {
+		MotionHandle handle = new MotionHandle(0);
+		handle.start();
+		synchronized (waiters) {
+			if (state != mode) {
+				ArrayList<MotionHandle> list = waiters.get(mode);
+				if (list == null) {
+					list = new ArrayList<MotionHandle>();
+					waiters.put(mode, list);
+				}
+				for (int i = list.size() - 1; i >= 0; i--) {
+					if (list.get(i).isDone()) {
+						list.remove(i);
+					}
+				}
+				list.add(handle);
+				return handle;
+			}
+		}
+		handle.finish();
+		return handle;
+	}
 	
 	private void runPiston() {
 		System.out.println(!gearPiston.get() + "\t" + pistonTriggered + "\t" + desireUp);
@@ -85,20 +127,28 @@ public class GearMechanism {
 
 	/**
 	 * Contains logic for movement of GearMech gate based upon current set state
+	 * 
+	 * <p>
+	 * Synchronized with {@link #toggleState()}, which routines call from
+	 * their own threads.
+	 * </p>
 	 */
-	public void run() {
+	public synchronized void run() {
+		GearModes previous = state, next = state;
 		if (downwardLimitSwitch.get()) {
-			state = GearModes.eDown;
+			next = GearModes.eDown;
 		}
 		if (desireUp && !upwardLimitSwitch.get()) {
-			state = GearModes.eGoingUp;
+			next = GearModes.eGoingUp;
 		}
 		if (upwardLimitSwitch.get()) {
-			state = GearModes.eUp;
+			next = GearModes.eUp;
 		}
 		if (!desireUp && !downwardLimitSwitch.get()) {
-			state = GearModes.eGoingDown;
+			next = GearModes.eGoingDown;
 		}
+		// Publish state once so waiters never see an intermediate value
+		state = next;
 
 		switch (state) {
 		case eDown:
@@ -115,5 +165,20 @@ public class GearMechanism {
 		default:
 			motor.set(0.00);
 		}
+
+		if (state != previous) {
+			MotionHandle[] reached;
+			synchronized (waiters) {
+				ArrayList<MotionHandle> list = waiters.get(state);
+				if (list == null || list.isEmpty()) {
+					return;
+				}
+				reached = list.toArray(new MotionHandle[list.size()]);
+				list.clear();
+			}
+			for (MotionHandle handle : reached) {
+				handle.finish();
+			}
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Proportional control law for holding a heading while translating.
+ *
+ * <p>
+ * Correction is proportional to heading error and limited to
+ * {@link #MAX_CORRECTION}, so holding heading never takes over from
+ * translation. Error statistics are accumulated so heading hold can be judged
+ * over a match. Holds no hardware, so the same law drives the robot and
+ * {@link AutoSimulator}.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class HeadingController {
+	/**
+	 * Proportional gain the robot holds heading with (output per degree)
+	 */
+	public static final double TUNED_KP = 0.02;
+	/**
+	 * Largest rotation output of a correction
+	 */
+	public static final double MAX_CORRECTION = 0.3;
+
+	private final double kp;
+	private double errorSquaredSum;
+	private long errorSamples;
+
+	/**
+	 * @param kp
+	 *            Proportional gain (output per degree)
+	 */
+	public HeadingController(double kp) {
+		this.kp = kp;
+	}
+
+	/**
+	 * Computes rotation output to hold a heading, and accumulates heading
+	 * error statistics.
+	 *
+	 * @param yaw
+	 *            Current yaw of the robot (in degrees)
+	 * @param heading
+	 *            Heading to hold (in degrees)
+	 * @return Rotation output, positive is clockwise
+	 */
+	public double calculate(double yaw, double heading) {
+		double error = yaw - heading;
+		if (error < -180) {
+			error += 360;
+		} else if (error > 180) {
+			error -= 360;
+		}
+		errorSquaredSum += error * error;
+		errorSamples++;
+		return Math.max(-MAX_CORRECTION, Math.min(MAX_CORRECTION, -kp * error));
+	}
+
+	/**
+	 * @return Root mean square heading error since the last reset (in
+	 *         degrees)
+	 */
+	public double getErrorRMS() {
+		return errorSamples == 0 ? 0 : Math.sqrt(errorSquaredSum / errorSamples);
+	}
+
+	/**
+	 * Resets heading error statistics.
+	 */
+	public void resetStatistics() {
+		errorSquaredSum = 0;
+		errorSamples = 0;
+	}
+}
@@ -0,0 +1,218 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import edu.wpi.first.wpilibj.XboxController;
+
+/**
+ * Records driver controller inputs to a compact binary file, one frame per
+ * control loop cycle.
+ *
+ * <p>
+ * Frames are written into preallocated buffers on the control loop thread and
+ * written to disk by a background thread, so recording costs the loop a few
+ * hundred nanoseconds and never touches the file system. If the disk falls so
+ * far behind that no buffer is free, frames are dropped and counted rather
+ * than blocking the loop.
+ * </p>
+ *
+ * <p>
+ * A file starts with a header of {@link #MAGIC} (int), {@link #VERSION}
+ * (short), number of controllers (short), frame rate in Hz (float) and the
+ * initial field oriented state (byte). Each frame then holds, per controller,
+ * {@link #AXES} axes scaled to shorts, a short bitmask of buttons 1 to
+ * {@link #BUTTONS} and the POV angle as a short.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class InputRecorder {
+	public static final int MAGIC = 0x32363352;
+	public static final short VERSION = 1;
+	public static final int AXES = 6, BUTTONS = 10, HEADER_BYTES = 13, CONTROLLER_BYTES = 2 * (AXES + 2);
+	public static final double AXIS_SCALE = Short.MAX_VALUE;
+
+	private final int FRAMES_PER_BUFFER = 256, BUFFERS = 4;
+	// Empty buffer queued to tell the flush thread to close the file
+	private final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private final XboxController[] controllers;
+	private final ArrayBlockingQueue<ByteBuffer> freeBuffers, fullBuffers;
+	private ByteBuffer current;
+	private Thread flusher;
+	private boolean recording;
+	private int frames, droppedFrames;
+	private String path;
+
+	/**
+	 * Instantiates a recorder and allocates its buffers.
+	 *
+	 * @param controllers
+	 *            Controllers to record, in the order they will be replayed
+	 */
+	public InputRecorder(XboxController[] controllers) {
+		this.controllers = controllers;
+		freeBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+		fullBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+		for (int i = 0; i < BUFFERS; i++) {
+			freeBuffers.add(ByteBuffer.allocateDirect(FRAMES_PER_BUFFER * controllers.length * CONTROLLER_BYTES));
+		}
+	}
+
+	/**
+	 * Opens a file and starts recording to it.
+	 *
+	 * @param path
+	 *            File to record to, replaced if it exists
+	 * @param rate
+	 *            Rate {@link #record()} will be called at (in Hz)
+	 * @param fieldOriented
+	 *            true if the drivebase starts out field oriented
+	 * @return true if recording started, false if the file could not be opened
+	 */
+	public boolean start(String path, double rate, boolean fieldOriented) {
+		if (recording) {
+			stop();
+		}
+		final FileChannel channel;
+		try {
+			Path file = Paths.get(path);
+			if (file.getParent() != null) {
+				Files.createDirectories(file.getParent());
+			}
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putShort(VERSION).putShort((short) controllers.length).putFloat((float) rate)
+					.put((byte) (fieldOriented ? 1 : 0));
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} catch (IOException e) {
+			System.out.println("Error - Could not record to " + path + ": " + e.getMessage());
+			return false;
+		}
+
+		this.path = path;
+		frames = 0;
+		droppedFrames = 0;
+		flusher = new Thread("InputRecorder") {
+			public void run() {
+				flush(channel);
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+		recording = true;
+		return true;
+	}
+
+	/**
+	 * Records one frame of controller inputs. Call once per control loop
+	 * cycle; does nothing if not recording.
+	 */
+	public void record() {
+		if (!recording) {
+			return;
+		}
+		if (current == null) {
+			current = freeBuffers.poll();
+			if (current == null) {
+				droppedFrames++;
+				return;
+			}
+		}
+		for (XboxController controller : controllers) {
+			for (int axis = 0; axis < AXES; axis++) {
+				double value = Math.max(-1, Math.min(1, controller.getRawAxis(axis)));
+				current.putShort((short) Math.round(value * AXIS_SCALE));
+			}
+			int buttons = 0;
+			for (int button = 1; button <= BUTTONS; button++) {
+				if (controller.getRawButton(button)) {
+					buttons |= 1 << (button - 1);
+				}
+			}
+			current.putShort((short) buttons);
+			current.putShort((short) controller.getPOV(0));
+		}
+		frames++;
+		if (!current.hasRemaining()) {
+			current.flip();
+			fullBuffers.add(current);
+			current = null;
+		}
+	}
+
+	/**
+	 * Stops recording, and waits for the file to be written and closed.
+	 */
+	public void stop() {
+		if (!recording) {
+			return;
+		}
+		recording = false;
+		if (current != null) {
+			current.flip();
+			fullBuffers.add(current);
+			current = null;
+		}
+		fullBuffers.add(END);
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Recorded " + frames + " frames to " + path + ", dropped " + droppedFrames);
+	}
+
+	/**
+	 * @return true if recording, false otherwise
+	 */
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * Writes full buffers to the file and returns them to the free queue until
+	 * the end marker is queued.
+	 */
+	private void flush(FileChannel channel) {
+		boolean failed = false;
+		try {
+			while (true) {
+				ByteBuffer buffer = fullBuffers.take();
+				if (buffer == END) {
+					break;
+				}
+				try {
+					while (!failed && buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				} catch (IOException e) {
+					System.out.println("Error - Recording to " + path + " failed: " + e.getMessage());
+					failed = true;
+				}
+				buffer.clear();
+				freeBuffers.add(buffer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
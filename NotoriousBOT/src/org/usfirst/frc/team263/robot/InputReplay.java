@@ -0,0 +1,136 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Recording of driver controller inputs made by {@link InputRecorder}, loaded
+ * into memory for replay.
+ *
+ * <p>
+ * Each call to {@link #advance()} moves every replay controller to the next
+ * recorded frame. It should be called at the recorded rate, before the code
+ * that reads the controllers.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class InputReplay {
+	private final String name;
+	private final ByteBuffer data;
+	private final double rate;
+	private final boolean fieldOriented;
+	private final ReplayController[] controllers;
+	private final double[] axes = new double[InputRecorder.AXES];
+	private final int frameBytes;
+
+	/**
+	 * Loads a recording.
+	 *
+	 * @param name
+	 *            Name of recording, for reporting
+	 * @param path
+	 *            File recording was made to
+	 * @param ports
+	 *            Port of each recorded controller, in recorded order
+	 * @throws IOException
+	 *             if the file can't be read or isn't a recording for this many
+	 *             controllers
+	 */
+	public InputReplay(String name, String path, int[] ports) throws IOException {
+		this.name = name;
+		data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path)));
+		if (data.remaining() < InputRecorder.HEADER_BYTES || data.getInt() != InputRecorder.MAGIC) {
+			throw new IOException(path + " is not an input recording");
+		} else if (data.getShort() != InputRecorder.VERSION) {
+			throw new IOException(path + " was recorded by an incompatible version");
+		} else if (data.getShort() != ports.length) {
+			throw new IOException(path + " was not recorded with " + ports.length + " controllers");
+		}
+		rate = data.getFloat();
+		fieldOriented = data.get() != 0;
+		frameBytes = ports.length * InputRecorder.CONTROLLER_BYTES;
+
+		controllers = new ReplayController[ports.length];
+		for (int i = 0; i < ports.length; i++) {
+			controllers[i] = new ReplayController(ports[i]);
+		}
+	}
+
+	/**
+	 * Moves to the first frame, with all controllers released.
+	 */
+	public void rewind() {
+		data.position(InputRecorder.HEADER_BYTES);
+		neutral();
+	}
+
+	/**
+	 * Loads the next frame into the replay controllers.
+	 *
+	 * @return true if a frame was loaded, false if the recording has ended
+	 */
+	public boolean advance() {
+		if (data.remaining() < frameBytes) {
+			return false;
+		}
+		for (ReplayController controller : controllers) {
+			for (int axis = 0; axis < axes.length; axis++) {
+				axes[axis] = data.getShort() / InputRecorder.AXIS_SCALE;
+			}
+			int buttons = data.getShort() & 0xFFFF;
+			int pov = data.getShort();
+			controller.set(axes, buttons, pov);
+		}
+		return true;
+	}
+
+	/**
+	 * Releases all inputs on the replay controllers.
+	 */
+	public void neutral() {
+		for (ReplayController controller : controllers) {
+			controller.neutral();
+		}
+	}
+
+	/**
+	 * @param index
+	 *            Index of controller, in recorded order
+	 * @return Replay controller
+	 */
+	public ReplayController getController(int index) {
+		return controllers[index];
+	}
+
+	/**
+	 * @return Rate recording was made at (in Hz)
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return true if the drivebase was field oriented when recording started
+	 */
+	public boolean isFieldOriented() {
+		return fieldOriented;
+	}
+
+	/**
+	 * @return Number of recorded frames
+	 */
+	public int getFrameCount() {
+		return (data.limit() - InputRecorder.HEADER_BYTES) / frameBytes;
+	}
+
+	/**
+	 * @return Name of recording
+	 */
+	public String getName() {
+		return name;
+	}
+}
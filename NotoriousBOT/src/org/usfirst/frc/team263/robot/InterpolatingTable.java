@@ -0,0 +1,284 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Lookup table which interpolates between calibration points, such as shooter
+ * rate by distance.
+ *
+ * <p>
+ * Points are kept sorted by key in primitive arrays and found by binary
+ * search, so a lookup doesn't allocate and costs a few comparisons. Between
+ * points, values are interpolated linearly or along a monotone cubic spline,
+ * which passes smoothly through every point without overshooting between
+ * them. Keys outside the calibrated range are either clamped to the nearest
+ * end or rejected as NaN, as chosen when the table is made.
+ * </p>
+ * <p>
+ * A calibration file has one point per line as a key and a value separated
+ * by whitespace or a comma, in any order. Blank lines and lines starting with
+ * <code>#</code> are ignored.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class InterpolatingTable {
+	public static enum Interpolation {
+		eLinear, eSpline;
+	}
+
+	public static enum OutOfRange {
+		/**
+		 * Keys past an end return the value at that end
+		 */
+		eClamp,
+		/**
+		 * Keys past an end return NaN
+		 */
+		eReject;
+	}
+
+	private final double[] keys, values, tangents;
+	private final Interpolation interpolation;
+	private final OutOfRange outOfRange;
+
+	/**
+	 * Instantiates a table from calibration points.
+	 *
+	 * @param keys
+	 *            Key of each point, in any order and each distinct
+	 * @param values
+	 *            Value of each point
+	 * @param interpolation
+	 *            Interpolation between points
+	 * @param outOfRange
+	 *            Behavior for keys outside the calibrated range
+	 */
+	public InterpolatingTable(double[] keys, double[] values, Interpolation interpolation, OutOfRange outOfRange) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("Table needs one value per key");
+		}
+		this.interpolation = interpolation;
+		this.outOfRange = outOfRange;
+
+		// Sort points by key
+		Integer[] order = new Integer[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(keys[a], keys[b]);
+			}
+		});
+		this.keys = new double[keys.length];
+		this.values = new double[keys.length];
+		for (int i = 0; i < order.length; i++) {
+			this.keys[i] = keys[order[i]];
+			this.values[i] = values[order[i]];
+			if (Double.isNaN(this.keys[i]) || Double.isNaN(this.values[i])) {
+				throw new IllegalArgumentException("Table point " + i + " is not a number");
+			} else if (i > 0 && this.keys[i] == this.keys[i - 1]) {
+				throw new IllegalArgumentException("Table has two points at " + this.keys[i]);
+			}
+		}
+		tangents = computeTangents(this.keys, this.values);
+	}
+
+	/**
+	 * Loads a table from a calibration file.
+	 *
+	 * @param file
+	 *            Calibration file to read
+	 * @param interpolation
+	 *            Interpolation between points
+	 * @param outOfRange
+	 *            Behavior for keys outside the calibrated range
+	 * @return Table of the points in the file
+	 * @throws IOException
+	 *             if the file can't be read or a line isn't a point
+	 */
+	public static InterpolatingTable load(Path file, Interpolation interpolation, OutOfRange outOfRange)
+			throws IOException {
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		double[] keys = new double[lines.size()], values = new double[lines.size()];
+		int count = 0;
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("[\\s,]+");
+			try {
+				if (fields.length != 2) {
+					throw new NumberFormatException("expected a key and a value");
+				}
+				keys[count] = Double.parseDouble(fields[0]);
+				values[count] = Double.parseDouble(fields[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException(file + " line " + (i + 1) + " is not a point: " + e.getMessage());
+			}
+			count++;
+		}
+		try {
+			return new InterpolatingTable(Arrays.copyOf(keys, count), Arrays.copyOf(values, count), interpolation,
+					outOfRange);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Interpolates the value at a key.
+	 *
+	 * @param key
+	 *            Key to look up
+	 * @return Interpolated value, or NaN if the table is empty, the key is NaN
+	 *         or the key is out of range and out of range keys are rejected
+	 */
+	public double get(double key) {
+		int last = keys.length - 1;
+		if (last < 0 || Double.isNaN(key)) {
+			return Double.NaN;
+		} else if (key <= keys[0] || key >= keys[last]) {
+			if (key != keys[0] && key != keys[last] && outOfRange == OutOfRange.eReject) {
+				return Double.NaN;
+			}
+			return key <= keys[0] ? values[0] : values[last];
+		}
+
+		// Binary search for the last point at or before the key
+		int low = 0, high = last;
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle] <= key) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		double width = keys[high] - keys[low], t = (key - keys[low]) / width;
+		if (interpolation == Interpolation.eLinear) {
+			return values[low] + (values[high] - values[low]) * t;
+		}
+
+		// Cubic Hermite basis
+		double t2 = t * t, t3 = t2 * t;
+		return (2 * t3 - 3 * t2 + 1) * values[low] + (t3 - 2 * t2 + t) * width * tangents[low]
+				+ (-2 * t3 + 3 * t2) * values[high] + (t3 - t2) * width * tangents[high];
+	}
+
+	/**
+	 * @param key
+	 *            Key to check
+	 * @return true if the key is within the calibrated range, false otherwise
+	 */
+	public boolean contains(double key) {
+		return keys.length > 0 && key >= keys[0] && key <= keys[keys.length - 1];
+	}
+
+	/**
+	 * @return Number of calibration points
+	 */
+	public int size() {
+		return keys.length;
+	}
+
+	/**
+	 * @return Smallest calibrated key, or NaN if the table is empty
+	 */
+	public double getMinKey() {
+		return keys.length > 0 ? keys[0] : Double.NaN;
+	}
+
+	/**
+	 * @return Largest calibrated key, or NaN if the table is empty
+	 */
+	public double getMaxKey() {
+		return keys.length > 0 ? keys[keys.length - 1] : Double.NaN;
+	}
+
+	/**
+	 * Computes tangents of a monotone cubic spline through sorted points with
+	 * the Fritsch-Carlson method.
+	 */
+	private static double[] computeTangents(double[] keys, double[] values) {
+		int n = keys.length;
+		double[] tangents = new double[n];
+		if (n < 2) {
+			return tangents;
+		}
+		double[] secants = new double[n - 1];
+		for (int i = 0; i < n - 1; i++) {
+			secants[i] = (values[i + 1] - values[i]) / (keys[i + 1] - keys[i]);
+		}
+		tangents[0] = secants[0];
+		tangents[n - 1] = secants[n - 2];
+		for (int i = 1; i < n - 1; i++) {
+			// Flat at local extrema so the curve doesn't overshoot them
+			tangents[i] = secants[i - 1] * secants[i] <= 0 ? 0 : (secants[i - 1] + secants[i]) / 2;
+		}
+		for (int i = 0; i < n - 1; i++) {
+			if (secants[i] == 0) {
+				tangents[i] = tangents[i + 1] = 0;
+				continue;
+			}
+			double a = tangents[i] / secants[i], b = tangents[i + 1] / secants[i], length = Math.hypot(a, b);
+			if (length > 3) {
+				tangents[i] = 3 * a / length * secants[i];
+				tangents[i + 1] = 3 * b / length * secants[i];
+			}
+		}
+		return tangents;
+	}
+
+	/**
+	 * Loads a calibration file and prints interpolated values and lookup cost.
+	 *
+	 * <pre>
+	 * InterpolatingTable calibration.txt [key...]
+	 * </pre>
+	 *
+	 * @param args
+	 *            Calibration file, and keys to print values at
+	 * @throws IOException
+	 *             if the file can't be loaded
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: InterpolatingTable calibration.txt [key...]");
+			return;
+		}
+		InterpolatingTable linear = load(Paths.get(args[0]), Interpolation.eLinear, OutOfRange.eReject);
+		InterpolatingTable spline = load(Paths.get(args[0]), Interpolation.eSpline, OutOfRange.eReject);
+		for (int i = 1; i < args.length; i++) {
+			double key = Double.parseDouble(args[i]);
+			System.out.println(String.format("%10.3f  linear %10.3f  spline %10.3f", key, linear.get(key),
+					spline.get(key)));
+		}
+
+		// Look up keys spread over and past the range, as the macro would
+		int lookups = 1000000;
+		double from = spline.getMinKey() - 1, step = (spline.getMaxKey() + 1 - from) / lookups, checksum = 0;
+		long start = 0;
+		// The first pass warms up the compiler, the second is timed
+		for (int pass = 0; pass < 2; pass++) {
+			start = System.nanoTime();
+			for (int i = 0; i < lookups; i++) {
+				double value = spline.get(from + i * step);
+				checksum += Double.isNaN(value) ? 0 : value;
+			}
+		}
+		double lookupNanos = (double) (System.nanoTime() - start) / lookups;
+		System.out.println(String.format("%d points, %.0f ns per lookup (checksum %.1f)", spline.size(),
+				lookupNanos, checksum));
+	}
+}
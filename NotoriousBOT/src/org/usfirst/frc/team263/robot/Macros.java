@@ -1,10 +1,12 @@
 package org.usfirst.frc.team263.robot;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import com.kauailabs.navx.frc.AHRS;
 
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.XboxController;
 
 /**
@@ -22,11 +24,20 @@ public class Macros {
 	private BallShooter shooter;
 	private GearMechanism gearMechanism;
 	private XboxController[] joysticks;
-	private HashMap<Double, Double> shooterDistance;
-	private final double MAX_FIRE_DISTANCE = 7.0; // to be found empirically?
+	/**
+	 * Calibration of shooter rate (in encoder counts per second) by boiler
+	 * distance (in inches), loaded at startup
+	 */
+	public static final String SHOOTER_TABLE_FILE = "/home/lvuser/shooterTable.txt";
+
+	// Shooter rate by boiler distance, with no rate outside the calibrated
+	// distances
+	private InterpolatingTable shooterTable;
 	private int stateCounter;
 	private boolean isRunning;
 	private double distanceGearPeg, RPMNeeded;
+	private MotionHandle currentMotion;
+	private long gearReleaseTime;
 
 	/**
 	 * Instantiate Macros object
@@ -53,7 +64,7 @@ public class Macros {
 		this.gearMechanism = gearMechanism;
 		this.drive = drive;
 		this.joysticks = joysticks;
-		shooterDistance = new HashMap<Double, Double>();
+		shooterTable = loadShooterTable();
 		vision = new VisionProcessing(cameraResX, cameraResY);
 		stateCounter = 0;
 		isRunning = false;
@@ -69,9 +80,14 @@ public class Macros {
 			stateCounter++;
 		}
 		if (isRunning) {
+			// Wait on any motion in progress without blocking the caller
+			if (currentMotion != null && !currentMotion.isDone()) {
+				return;
+			}
 			if (stateCounter == 1) {
-				drive.autoRotate(findClosestAngle(gyro.getYaw()));
+				currentMotion = drive.autoRotate(findClosestAngle(gyro.getYaw()));
 				stateCounter++;
+				return;
 			}
 
 			// Now it is assumed that we are facing the correct direction,
@@ -87,17 +103,20 @@ public class Macros {
 				} else {
 					//strafeDist = vision.findStrafeDistancePeg(centerPoints);
 					if (centerPoints[0] > 0.55) {
-						drive.strafe(0.4, 300);
+						currentMotion = drive.strafeAsync(0.4, 300);
+						return;
 					} else if(centerPoints[1] < 0.45) {
-						drive.strafe(-0.4, 300);
+						currentMotion = drive.strafeAsync(-0.4, 300);
+						return;
 					} else { 
 						stateCounter++;
 					}
 				}
 			}
 			if (stateCounter == 3) {
-				drive.forward(0.5, 800);
+				currentMotion = drive.forwardAsync(0.5, 800);
 				stateCounter++;
+				return;
 			}
 			if (stateCounter == 4) {
 				//drive.autoDrive(distanceGearPeg);
@@ -105,10 +124,10 @@ public class Macros {
 			}
 			if (stateCounter == 5) {
 				gearMechanism.toggleState();
+				gearReleaseTime = System.currentTimeMillis() + 500;
 				stateCounter++;
 			}
-			if (stateCounter == 6) {
-				Timer.delay(0.5);
+			if (stateCounter == 6 && System.currentTimeMillis() >= gearReleaseTime) {
 				stateCounter++;
 			}
 			if (stateCounter == 7) {
@@ -130,11 +149,13 @@ public class Macros {
 		if (stateCounter == 1) {
 			double[] centerPoints = CameraCoprocessor.updateShooterCamera();
 			double distance = vision.findDistanceBoiler(centerPoints);
-			RPMNeeded = shooterDistance.get(distance);
-			if (distance == -1 || distance > MAX_FIRE_DISTANCE) {
+			// No target, or a distance the shooter isn't calibrated for
+			RPMNeeded = shooterTable.get(distance);
+			if (Double.isNaN(RPMNeeded)) {
 				(new JoystickRumble(joysticks, 2)).start();
 				return;
 			}
+			stateCounter++;
 		}
 		if (stateCounter == 2) {
 			shooter.setMotorRPM(RPMNeeded);
@@ -146,10 +167,37 @@ public class Macros {
 		}
 	}
 
+	/**
+	 * Loads shooter calibration, which is empty if missing or invalid so the
+	 * shooter macro never fires.
+	 */
+	private static InterpolatingTable loadShooterTable() {
+		Path file = Paths.get(SHOOTER_TABLE_FILE);
+		if (Files.exists(file)) {
+			try {
+				InterpolatingTable table = InterpolatingTable.load(file, InterpolatingTable.Interpolation.eSpline,
+						InterpolatingTable.OutOfRange.eReject);
+				System.out.println("Loaded shooter table of " + table.size() + " points from "
+						+ table.getMinKey() + " to " + table.getMaxKey() + " inches");
+				return table;
+			} catch (IOException e) {
+				System.out.println("Error - Could not load shooter table: " + e.getMessage());
+			}
+		} else {
+			System.out.println("Error - No shooter table at " + SHOOTER_TABLE_FILE);
+		}
+		return new InterpolatingTable(new double[0], new double[0], InterpolatingTable.Interpolation.eSpline,
+				InterpolatingTable.OutOfRange.eReject);
+	}
+
 	/**
 	 * Disable everything currently running
 	 */
 	public void disableAll() {
+		if (currentMotion != null) {
+			currentMotion.cancel();
+			currentMotion = null;
+		}
 		isRunning = false;
 		stateCounter = 0;
 		shooter.disable();
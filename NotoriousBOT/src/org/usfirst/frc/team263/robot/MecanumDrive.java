@@ -1,10 +1,17 @@
 package org.usfirst.frc.team263.robot;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 import com.kauailabs.navx.frc.AHRS;
 
+import org.usfirst.frc.team263.robot.DrivetrainArbiter.Owner;
+
+import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.GenericHID.Hand;
 import edu.wpi.first.wpilibj.SpeedController;
-import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.XboxController;
 
 /**
@@ -16,13 +23,50 @@ import edu.wpi.first.wpilibj.XboxController;
  * @since 01-20-17
  */
 public class MecanumDrive {
-	private Thread rotationThread;
-	private SpeedController mFrontRight, mBackRight, mFrontLeft, mBackLeft;
-	private double kd;
-	public volatile boolean autoMovement;
+	private PIDController rotationController;
+	private final DrivetrainArbiter arbiter;
+	private final HeadingController headingController;
+	private double headingSetPoint;
+	private boolean headingLatched;
 	private AHRS mGyro;
-	private final double TUNED_KP = 0.0033, TUNED_KI = 0.004, TUNED_KD = -0.0025, TUNED_KF = 0.045,
-			ROTATION_CONSTANT = 0.55;
+	/**
+	 * Wheel output of a rotation output of 1 when mixed with translation
+	 */
+	public static final double ROTATION_CONSTANT = 0.55;
+	private final double HEADING_LATCH_RATE = 10;
+	private final double MOTION_RATE = 100, PROFILE_KP = 0.02, PROFILE_ROTATION_KP = 0.01;
+	// Motions run one at a time on a single thread, so their state is only
+	// touched by that thread.
+	private final ExecutorService motionExecutor;
+	private final FixedRateLoop motionLoop = new FixedRateLoop(MOTION_RATE);
+	private final double[] profileStart = new double[3], profilePose = new double[3];
+	private volatile MotionHandle currentMotion;
+	private volatile Owner motionOwner;
+
+	/**
+	 * A motion primitive run on the motion thread.
+	 */
+	private interface Motion {
+		/**
+		 * Runs motion until done or until handle requests a stop.
+		 * 
+		 * @param handle
+		 *            Handle to check for cancellation and timeout
+		 */
+		void run(MotionHandle handle);
+	}
+	private static final double[] STRAFE_RIGHT_SPEEDS = { -0.7, 0.784, 1.0899, -0.7 },
+			STRAFE_LEFT_SPEEDS = { 0.7, -0.784, -1.0899, 0.7 };
+	// Preallocated wheel speed buffers so that drive loops do not create
+	// garbage every cycle. They are shared, not per thread: driveSpeeds is only
+	// used by drive() on the robot's main loop, and forwardSpeeds only inside
+	// motions on the motion thread, never by the caller of a blocking move.
+	private final double[] driveSpeeds = new double[4], forwardSpeeds = new double[4];
+	private PoseEstimator poseEstimator;
+	private CollisionDetector collisionDetector;
+	private volatile Feedforward rotateFeedforward = PathFollower.DEFAULT_ROTATION,
+			strafeFeedforward = PathFollower.DEFAULT_TRANSLATION,
+			forwardFeedforward = PathFollower.DEFAULT_TRANSLATION;
 
 	public enum PIDModes {
 		eRotate, eLinearX, eLinearY;
@@ -42,18 +86,39 @@ public class MecanumDrive {
 	 *            back left wheel motor controller
 	 * @param gyro
 	 *            AHRS device to read yaw from
-	 * @param driftConstant
-	 *            proportionality constant for angle drift of drivebase
+	 * @param headingConstant
+	 *            proportional gain for holding heading while translating
 	 */
 	public MecanumDrive(SpeedController frontRight, SpeedController backRight, SpeedController frontLeft,
-			SpeedController backLeft, AHRS gyro, double driftConstant) {
-		mFrontRight = frontRight;
-		mBackRight = backRight;
-		mFrontLeft = frontLeft;
-		mBackLeft = backLeft;
-		kd = driftConstant;
-		autoMovement = false;
+			SpeedController backLeft, AHRS gyro, double headingConstant) {
+		arbiter = new DrivetrainArbiter(frontRight, backRight, frontLeft, backLeft,
+				new DrivetrainArbiter.PreemptionListener() {
+					public void preempted(Owner previous, Owner next) {
+						// A rotation is the highest owner, so it is never
+						// preempted and only ends itself
+						if (previous == Owner.eAutonomous || previous == Owner.eMacro) {
+							MotionHandle motion = currentMotion;
+							if (motion != null) {
+								motion.cancel();
+							}
+						}
+					}
+				});
+		headingController = new HeadingController(headingConstant);
+		headingLatched = false;
 		mGyro = gyro;
+		rotationController = new PIDController(new RotationController(), mGyro);
+		rotationController.start();
+		poseEstimator = new PoseEstimator(this, mGyro);
+		poseEstimator.start();
+		collisionDetector = new CollisionDetector(mGyro);
+		motionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "MotionExecutor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 
 	/**
@@ -73,7 +138,7 @@ public class MecanumDrive {
 	 */
 	public MecanumDrive(SpeedController frontRight, SpeedController backRight, SpeedController frontLeft,
 			SpeedController backLeft, AHRS gyro) {
-		this(frontRight, backRight, frontLeft, backLeft, gyro, 0.005);
+		this(frontRight, backRight, frontLeft, backLeft, gyro, HeadingController.TUNED_KP);
 	}
 
 	/**
@@ -97,7 +162,9 @@ public class MecanumDrive {
 	 *            true if field centric controls, false otherwise.
 	 */
 	public void drive(XboxController controller, boolean fieldCentric) {
-		if (!autoMovement) {
+		// The driver has the lowest priority, so this only fails while a
+		// rotation, macro or autonomous motion holds the drivebase.
+		if (arbiter.acquire(Owner.eDriver)) {
 			// Get controller inputs with artificial deadband.
 			// y-axis is negated in order to make driving more intuitive.	
 			double x = deadband(controller.getRawAxis(0), 0.1);
@@ -109,32 +176,49 @@ public class MecanumDrive {
 				x = 0;
 			}
 
-			// Drift correction using proportional gain
-			if (r == 0 && Math.abs(x) + Math.abs(y) > 0) {
-				r = kd * mGyro.getRate();
+			// Heading hold. The heading is latched once the driver releases
+			// rotation and the robot has stopped spinning, then held with
+			// proportional feedback on yaw while translating.
+			double yaw = mGyro.getYaw();
+			int pov = controller.getPOV(0);
+			boolean translating = Math.abs(x) + Math.abs(y) > 0 || pov == 90 || pov == 270;
+			if (r != 0) {
+				headingLatched = false;
+			} else if (!headingLatched && Math.abs(mGyro.getRate()) < HEADING_LATCH_RATE) {
+				headingSetPoint = yaw;
+				headingLatched = true;
+			}
+			if (r == 0 && headingLatched && translating) {
+				r = holdHeading(yaw, headingSetPoint);
 			}
 
 			if (fieldCentric) {
 				// Perform vector rotation in R^2 by theta degrees
 				// This can be useful for things such as aligning a rope climb
 				// Where relative movement can be confusing
-				double theta = mGyro.getYaw();
-				double sinT = Math.sin(Math.toRadians(theta));
-				double cosT = Math.cos(Math.toRadians(theta));
+				double theta = yaw;
+				double sinT = FastMath.sinDegrees(theta);
+				double cosT = FastMath.cosDegrees(theta);
 				double yPrime = x * sinT + y * cosT;
 				x = x * cosT - y * sinT;
 				y = yPrime;
 			}
 
-			double[] speeds;
-			if (controller.getPOV(0) == 90) {
-				speeds = new double[] { -0.7, 0.784, 1.0899, -0.7 };
-			} else if (controller.getPOV(0) == 270) {
-				speeds = new double[] { 0.7, -0.784, -1.0899, 0.7 };
+			double[] speeds = driveSpeeds;
+			if (pov == 90) {
+				System.arraycopy(STRAFE_RIGHT_SPEEDS, 0, speeds, 0, speeds.length);
+			} else if (pov == 270) {
+				System.arraycopy(STRAFE_LEFT_SPEEDS, 0, speeds, 0, speeds.length);
 			} else {
-				speeds = new double[] { 1.0 * (-x + y - r * ROTATION_CONSTANT), 1.0 * (x + y - r * ROTATION_CONSTANT),
-						1.0 * (x + y + r * ROTATION_CONSTANT), 1.0 * (-x + y + r * ROTATION_CONSTANT) };
+				speeds[0] = -x + y;
+				speeds[1] = x + y;
+				speeds[2] = x + y;
+				speeds[3] = -x + y;
 			}
+			speeds[0] -= r * ROTATION_CONSTANT;
+			speeds[1] -= r * ROTATION_CONSTANT;
+			speeds[2] += r * ROTATION_CONSTANT;
+			speeds[3] += r * ROTATION_CONSTANT;
 
 			// Speeds = {fr, br, fl, bl} operations for each wheel speed.
 			// Speeds are then normalized to make sure the robot drives
@@ -145,42 +229,30 @@ public class MecanumDrive {
 			double throttleMultiplier = controller.getBumper(Hand.kLeft) ? 0.5 : 1.0;
 
 			// Set finalized speeds
-			mFrontRight.set(speeds[0] * throttleMultiplier);
-			mBackRight.set(speeds[1] * throttleMultiplier);
-			mFrontLeft.set(speeds[2] * throttleMultiplier);
-			mBackLeft.set(speeds[3] * throttleMultiplier);
-
-			// Automovement threads
-			// Automovement is a public variable used in place of thread
-			// interrupts. These line up perfectly for peg placement.
+			setWheels(Owner.eDriver, speeds[0] * throttleMultiplier, speeds[1] * throttleMultiplier,
+					speeds[2] * throttleMultiplier, speeds[3] * throttleMultiplier);
+
+			// Automovement rotations
+			// These take the drivebase from the driver until they finish and
+			// line up perfectly for peg placement.
 			if (controller.getXButton()) {
-				synchronized (this) {
-					autoMovement = true;
-					rotationThread = new PIDController(TUNED_KP, TUNED_KI, TUNED_KD, TUNED_KF, mGyro, 60,
-							new SpeedController[] { mFrontRight, mBackRight, mFrontLeft, mBackLeft },
-							new double[] { 1, 1, -1, -1 });
-					rotationThread.start();
-				}
+				autoRotate(60);
 			} else if (controller.getBButton()) {
-				synchronized (this) {
-					autoMovement = true;
-					rotationThread = new PIDController(TUNED_KP, TUNED_KI, TUNED_KD, TUNED_KF, mGyro, -60,
-							new SpeedController[] { mFrontRight, mBackRight, mFrontLeft, mBackLeft },
-							new double[] { 1, 1, -1, -1 });
-					rotationThread.start();
-				}
+				autoRotate(-60);
 			} else if (controller.getYButton()) {
-				synchronized (this) {
-					autoMovement = true;
-					rotationThread = new PIDController(TUNED_KP, TUNED_KI, TUNED_KD, TUNED_KF, mGyro, 0,
-							new SpeedController[] { mFrontRight, mBackRight, mFrontLeft, mBackLeft },
-							new double[] { 1, 1, -1, -1 });
-					rotationThread.start();
+				autoRotate(0);
+			}
+		} else {
+			// Heading is relatched after the drivebase is returned
+			headingLatched = false;
+			if (controller.getAButton()) {
+				// Cancels any running rotation or macro motion.
+				cancelRotation();
+				MotionHandle motion = currentMotion;
+				if (motion != null) {
+					motion.cancel();
 				}
 			}
-		} else if (controller.getAButton()) {
-			// Cancels and effectively kills any running rotation threads.
-			autoMovement = false;
 		}
 	}
 
@@ -195,17 +267,13 @@ public class MecanumDrive {
 	 *            array of values to normalize from [-1,1] scale
 	 */
 	private void normalize(double[] array) {
-		boolean normFlag = false;
-		double maxValue = array[0];
+		double maxValue = 0;
 
-		for (double value : array) {
-			if (Math.abs(value) > maxValue) {
-				maxValue = Math.abs(value);
-				normFlag = maxValue > 1;
-			}
+		for (int i = 0; i < array.length; i++) {
+			maxValue = Math.max(maxValue, Math.abs(array[i]));
 		}
 
-		if (normFlag) {
+		if (maxValue > 1) {
 			for (int i = 0; i < array.length; i++) {
 				array[i] /= maxValue;
 			}
@@ -213,7 +281,8 @@ public class MecanumDrive {
 	}
 
 	/**
-	 * Method to move linearly for a certain period of time.
+	 * Method to move linearly for a certain period of time. Blocks until the
+	 * move ends.
 	 * 
 	 * @param speed
 	 *            Speed to set motors at to move -- positive is forward, negative is
@@ -222,28 +291,82 @@ public class MecanumDrive {
 	 *            Time period to move for (in ms).
 	 */
 	public void forward(double speed, int time) {
-		double r;
-		int t = 0;
-		while (t < time) {
-			r = mGyro.getRate() * kd;
-			double[] speeds = { speed - r * ROTATION_CONSTANT, speed - r * ROTATION_CONSTANT,
-					speed + r * ROTATION_CONSTANT, speed + r * ROTATION_CONSTANT };
-			normalize(speeds);
-			mFrontRight.set(speeds[0]);
-			mBackRight.set(speeds[1]);
-			mFrontLeft.set(speeds[2]);
-			mBackLeft.set(speeds[3]);
-			Timer.delay(0.025);
-			t += 25;
-		}
-		mFrontRight.set(0);
-		mBackRight.set(0);
-		mFrontLeft.set(0);
-		mBackLeft.set(0);
+		forwardAsync(speed, time).await(0);
+	}
+
+	/**
+	 * Method to move linearly for a certain period of time without blocking.
+	 * 
+	 * @param speed
+	 *            Speed to set motors at to move -- positive is forward, negative is
+	 *            backward
+	 * @param time
+	 *            Time period to move for (in ms).
+	 * @return Handle to the move
+	 */
+	public MotionHandle forwardAsync(final double speed, final long time) {
+		return submit(new Motion() {
+			public void run(MotionHandle handle) {
+				double[] speeds = forwardSpeeds;
+				double heading = mGyro.getYaw();
+				long end = System.nanoTime() + time * 1000000L;
+				motionLoop.start();
+				while (System.nanoTime() < end && !handle.shouldStop()) {
+					double r = holdHeading(mGyro.getYaw(), heading);
+					speeds[0] = speed - r * ROTATION_CONSTANT;
+					speeds[1] = speed - r * ROTATION_CONSTANT;
+					speeds[2] = speed + r * ROTATION_CONSTANT;
+					speeds[3] = speed + r * ROTATION_CONSTANT;
+					normalize(speeds);
+					setWheels(motionOwner, speeds[0], speeds[1], speeds[2], speeds[3]);
+					motionLoop.waitForNextCycle();
+				}
+			}
+		}, 0);
 	}
 
 	/**
-	 * Method to strafe for a certain period of time.
+	 * Method to move linearly until the drivebase runs into something, holding
+	 * heading, without blocking.
+	 * 
+	 * @param speed
+	 *            Speed to set motors at to move -- positive is forward, negative is
+	 *            backward
+	 * @param timeout
+	 *            Longest time to move for without contact (in ms)
+	 * @return Handle to the move, which completes on contact and times out
+	 *         otherwise
+	 */
+	public MotionHandle forwardUntilContactAsync(final double speed, long timeout) {
+		return submit(new Motion() {
+			public void run(MotionHandle handle) {
+				double[] speeds = forwardSpeeds;
+				double heading = mGyro.getYaw();
+				MotionHandle contact = collisionDetector.arm(0, Math.signum(speed));
+				long period = (long) (motionLoop.getPeriod() * 1000);
+				try {
+					while (!contact.isDone() && !handle.shouldStop()) {
+						double r = holdHeading(mGyro.getYaw(), heading);
+						speeds[0] = speed - r * ROTATION_CONSTANT;
+						speeds[1] = speed - r * ROTATION_CONSTANT;
+						speeds[2] = speed + r * ROTATION_CONSTANT;
+						speeds[3] = speed + r * ROTATION_CONSTANT;
+						normalize(speeds);
+						setWheels(motionOwner, speeds[0], speeds[1], speeds[2], speeds[3]);
+						// Waits on contact rather than the loop, so the wheels
+						// stop as soon as contact is detected
+						contact.await(period);
+					}
+				} finally {
+					collisionDetector.disarm();
+				}
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Method to strafe for a certain period of time. Blocks until the move
+	 * ends.
 	 * 
 	 * @param speed
 	 *            Speed to set motors at to strafe -- positive is to the right,
@@ -252,19 +375,26 @@ public class MecanumDrive {
 	 *            Time period to move for (in ms).
 	 */
 	public void strafe(double speed, long time) {
-		mFrontRight.set(-speed);
-		mFrontLeft.set(speed);
-		mBackRight.set(speed);
-		mBackLeft.set(-speed);
-		Timer.delay(time / 1000);
-		mFrontRight.set(0);
-		mFrontLeft.set(0);
-		mBackRight.set(0);
-		mBackLeft.set(0);
+		strafeAsync(speed, time).await(0);
+	}
+
+	/**
+	 * Method to strafe for a certain period of time without blocking.
+	 * 
+	 * @param speed
+	 *            Speed to set motors at to strafe -- positive is to the right,
+	 *            negative to the left.
+	 * @param time
+	 *            Time period to move for (in ms).
+	 * @return Handle to the move
+	 */
+	public MotionHandle strafeAsync(double speed, long time) {
+		return timedMotion(-speed, speed, speed, -speed, time);
 	}
 
 	/**
-	 * Method to rotate for a certain period of time.
+	 * Method to rotate for a certain period of time. Blocks until the move
+	 * ends.
 	 * 
 	 * @param speed
 	 *            Speed to set motors at to rotate -- positive is clockwise,
@@ -273,33 +403,521 @@ public class MecanumDrive {
 	 *            Time period to move for (in ms).
 	 */
 	public void rotate(double speed, long time) {
-		mFrontRight.set(-speed);
-		mFrontLeft.set(speed);
-		mBackRight.set(-speed);
-		mBackLeft.set(speed);
-		Timer.delay(time / 1000);
-		mFrontRight.set(0);
-		mFrontLeft.set(0);
-		mBackRight.set(0);
-		mBackLeft.set(0);
+		rotateAsync(speed, time).await(0);
+	}
+
+	/**
+	 * Method to rotate for a certain period of time without blocking.
+	 * 
+	 * @param speed
+	 *            Speed to set motors at to rotate -- positive is clockwise,
+	 *            negative to the counterclockwise.
+	 * @param time
+	 *            Time period to move for (in ms).
+	 * @return Handle to the move
+	 */
+	public MotionHandle rotateAsync(double speed, long time) {
+		return timedMotion(-speed, -speed, speed, speed, time);
+	}
+
+	/**
+	 * Method to move linearly a certain distance along a trapezoidal profile.
+	 * Blocks until the move ends.
+	 * 
+	 * @param distance
+	 *            Distance to move (in inches) -- positive is forward, negative is
+	 *            backward
+	 * @param maxVelocity
+	 *            Maximum velocity (in inches per second)
+	 * @param maxAcceleration
+	 *            Maximum acceleration (in inches per second squared)
+	 */
+	public void forwardDistance(double distance, double maxVelocity, double maxAcceleration) {
+		forwardDistanceAsync(distance, maxVelocity, maxAcceleration, 0).await(0);
+	}
+
+	/**
+	 * Method to move linearly a certain distance along a trapezoidal profile
+	 * without blocking.
+	 * 
+	 * @param distance
+	 *            Distance to move (in inches) -- positive is forward, negative is
+	 *            backward
+	 * @param maxVelocity
+	 *            Maximum velocity (in inches per second)
+	 * @param maxAcceleration
+	 *            Maximum acceleration (in inches per second squared)
+	 * @param timeout
+	 *            Time the move may run for (in ms), or 0 for no timeout
+	 * @return Handle to the move
+	 */
+	public MotionHandle forwardDistanceAsync(double distance, double maxVelocity, double maxAcceleration,
+			long timeout) {
+		return translate(0, 1, new TrapezoidProfile(distance, maxVelocity, maxAcceleration), timeout);
+	}
+
+	/**
+	 * Method to strafe a certain distance along a trapezoidal profile. Blocks
+	 * until the move ends.
+	 * 
+	 * @param distance
+	 *            Distance to strafe (in inches) -- positive is to the right,
+	 *            negative to the left
+	 * @param maxVelocity
+	 *            Maximum velocity (in inches per second)
+	 * @param maxAcceleration
+	 *            Maximum acceleration (in inches per second squared)
+	 */
+	public void strafeDistance(double distance, double maxVelocity, double maxAcceleration) {
+		strafeDistanceAsync(distance, maxVelocity, maxAcceleration, 0).await(0);
+	}
+
+	/**
+	 * Method to strafe a certain distance along a trapezoidal profile without
+	 * blocking.
+	 * 
+	 * @param distance
+	 *            Distance to strafe (in inches) -- positive is to the right,
+	 *            negative to the left
+	 * @param maxVelocity
+	 *            Maximum velocity (in inches per second)
+	 * @param maxAcceleration
+	 *            Maximum acceleration (in inches per second squared)
+	 * @param timeout
+	 *            Time the move may run for (in ms), or 0 for no timeout
+	 * @return Handle to the move
+	 */
+	public MotionHandle strafeDistanceAsync(double distance, double maxVelocity, double maxAcceleration,
+			long timeout) {
+		return translate(1, 0, new TrapezoidProfile(distance, maxVelocity, maxAcceleration), timeout);
+	}
+
+	/**
+	 * Method to rotate a certain angle along a trapezoidal profile. Blocks
+	 * until the move ends.
+	 * 
+	 * @param angle
+	 *            Angle to rotate (in degrees) -- positive is clockwise, negative
+	 *            counterclockwise
+	 * @param maxVelocity
+	 *            Maximum angular velocity (in degrees per second)
+	 * @param maxAcceleration
+	 *            Maximum angular acceleration (in degrees per second squared)
+	 */
+	public void rotateAngle(double angle, double maxVelocity, double maxAcceleration) {
+		rotateAngleAsync(angle, maxVelocity, maxAcceleration, 0).await(0);
+	}
+
+	/**
+	 * Method to rotate a certain angle along a trapezoidal profile without
+	 * blocking.
+	 * 
+	 * @param angle
+	 *            Angle to rotate (in degrees) -- positive is clockwise, negative
+	 *            counterclockwise
+	 * @param maxVelocity
+	 *            Maximum angular velocity (in degrees per second)
+	 * @param maxAcceleration
+	 *            Maximum angular acceleration (in degrees per second squared)
+	 * @param timeout
+	 *            Time the move may run for (in ms), or 0 for no timeout
+	 * @return Handle to the move
+	 */
+	public MotionHandle rotateAngleAsync(double angle, double maxVelocity, double maxAcceleration, long timeout) {
+		final TrapezoidProfile profile = new TrapezoidProfile(angle, maxVelocity, maxAcceleration);
+		return submit(new Motion() {
+			public void run(MotionHandle handle) {
+				double startHeading = mGyro.getYaw();
+				Feedforward feedforward = rotateFeedforward;
+				long startTime = System.nanoTime();
+				motionLoop.start();
+				double t = 0;
+				while (!profile.isFinished(t) && !handle.shouldStop()) {
+					double error = profile.getPosition(t) - rotationalError(mGyro.getYaw(), startHeading);
+					double r = feedforward.getOutput(profile.getVelocity(t), profile.getAcceleration(t))
+							/ ROTATION_CONSTANT + PROFILE_ROTATION_KP * error;
+					r = Math.max(-1, Math.min(1, r)) * ROTATION_CONSTANT;
+					setWheels(motionOwner, -r, -r, r, r);
+					motionLoop.waitForNextCycle();
+					t = (System.nanoTime() - startTime) / 1e9;
+				}
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Method to follow a planned trajectory from the robot's current position.
+	 * Blocks until the trajectory ends.
+	 *
+	 * @param trajectory
+	 *            Trajectory to follow, planned by {@link PathPlanner}
+	 */
+	public void followPath(Trajectory trajectory) {
+		followPathAsync(trajectory, 0).await(0);
+	}
+
+	/**
+	 * Method to follow a planned trajectory from the robot's current position
+	 * without blocking. Positions are relative to where the robot is when the
+	 * trajectory starts, headings are absolute.
+	 *
+	 * @param trajectory
+	 *            Trajectory to follow, planned by {@link PathPlanner}
+	 * @param timeout
+	 *            Time the move may run for (in ms), or 0 for no timeout
+	 * @return Handle to the move
+	 */
+	public MotionHandle followPathAsync(Trajectory trajectory, long timeout) {
+		final PathFollower follower = new PathFollower(trajectory, forwardFeedforward, strafeFeedforward,
+				rotateFeedforward);
+		return submit(new Motion() {
+			public void run(MotionHandle handle) {
+				double[] speeds = forwardSpeeds;
+				poseEstimator.getPose(profilePose);
+				follower.start(profilePose[0], profilePose[1]);
+				long startTime = System.nanoTime();
+				motionLoop.start();
+				double t = 0;
+				while (!follower.isFinished(t) && !handle.shouldStop()) {
+					poseEstimator.getPose(profilePose);
+					follower.calculate(t, profilePose[0], profilePose[1], profilePose[2], speeds);
+					setWheels(motionOwner, speeds[0], speeds[1], speeds[2], speeds[3]);
+					motionLoop.waitForNextCycle();
+					t = (System.nanoTime() - startTime) / 1e9;
+				}
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Sets constant wheel outputs for a period of time.
+	 */
+	private MotionHandle timedMotion(final double frontRight, final double backRight, final double frontLeft,
+			final double backLeft, final long time) {
+		return submit(new Motion() {
+			public void run(MotionHandle handle) {
+				long end = System.nanoTime() + time * 1000000L;
+				motionLoop.start();
+				while (System.nanoTime() < end && !handle.shouldStop()) {
+					setWheels(motionOwner, frontRight, backRight, frontLeft, backLeft);
+					motionLoop.waitForNextCycle();
+				}
+			}
+		}, 0);
 	}
 
 	/**
-	 * Method to create a PIDF thread for rotation.
+	 * Follows a profile along a robot relative direction while holding
+	 * heading.
+	 * 
+	 * @param dx
+	 *            Strafe component of unit direction
+	 * @param dy
+	 *            Forward component of unit direction
+	 * @param profile
+	 *            Profile of distance along direction (in inches)
+	 * @param timeout
+	 *            Time the move may run for (in ms), or 0 for no timeout
+	 * @return Handle to the move
+	 */
+	private MotionHandle translate(final double dx, final double dy, final TrapezoidProfile profile,
+			long timeout) {
+		return submit(new Motion() {
+			public void run(MotionHandle handle) {
+				double[] speeds = forwardSpeeds;
+				Feedforward feedforward = Math.abs(dx) > Math.abs(dy) ? strafeFeedforward : forwardFeedforward;
+				poseEstimator.getPose(profileStart);
+				double heading = mGyro.getYaw();
+				double sinH = FastMath.sinDegrees(profileStart[2]), cosH = FastMath.cosDegrees(profileStart[2]);
+				long startTime = System.nanoTime();
+				motionLoop.start();
+				double t = 0;
+				while (!profile.isFinished(t) && !handle.shouldStop()) {
+					// Progress along the move, measured in the robot frame at
+					// the start of the move
+					poseEstimator.getPose(profilePose);
+					double fieldX = profilePose[0] - profileStart[0], fieldY = profilePose[1] - profileStart[1];
+					double progress = (fieldX * cosH - fieldY * sinH) * dx + (fieldX * sinH + fieldY * cosH) * dy;
+
+					double u = feedforward.getOutput(profile.getVelocity(t), profile.getAcceleration(t))
+							+ PROFILE_KP * (profile.getPosition(t) - progress);
+					double x = u * dx, y = u * dy;
+					double r = holdHeading(mGyro.getYaw(), heading);
+					speeds[0] = -x + y - r * ROTATION_CONSTANT;
+					speeds[1] = x + y - r * ROTATION_CONSTANT;
+					speeds[2] = x + y + r * ROTATION_CONSTANT;
+					speeds[3] = -x + y + r * ROTATION_CONSTANT;
+					normalize(speeds);
+					setWheels(motionOwner, speeds[0], speeds[1], speeds[2], speeds[3]);
+					motionLoop.waitForNextCycle();
+					t = (System.nanoTime() - startTime) / 1e9;
+				}
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Sets feedforward used by profiled moves and path following, normally
+	 * loaded from characterized constants at startup.
+	 * 
+	 * @param mode
+	 *            Axis the feedforward applies to
+	 * @param feedforward
+	 *            Wheel voltage per inch per second for eLinearX and eLinearY,
+	 *            per degree per second for eRotate
+	 */
+	public void setFeedforward(PIDModes mode, Feedforward feedforward) {
+		if (mode == PIDModes.eRotate) {
+			rotateFeedforward = feedforward;
+		} else if (mode == PIDModes.eLinearX) {
+			strafeFeedforward = feedforward;
+		} else {
+			forwardFeedforward = feedforward;
+		}
+	}
+
+	/**
+	 * @param mode
+	 *            Axis the feedforward applies to
+	 * @return Feedforward in use for axis
+	 */
+	public Feedforward getFeedforward(PIDModes mode) {
+		if (mode == PIDModes.eRotate) {
+			return rotateFeedforward;
+		} else if (mode == PIDModes.eLinearX) {
+			return strafeFeedforward;
+		}
+		return forwardFeedforward;
+	}
+
+	/**
+	 * Queues a motion on the motion thread. The wheels are stopped when the
+	 * motion ends for any reason.
+	 * 
+	 * <p>
+	 * Motions are owned by autonomous while the robot is in autonomous mode
+	 * and by macros otherwise. A motion which cannot take the drivebase, or
+	 * which loses it to a higher priority owner, ends as cancelled.
+	 * </p>
+	 * 
+	 * @param motion
+	 *            Motion to run
+	 * @param timeout
+	 *            Time the motion may run for (in ms), or 0 for no timeout
+	 * @return Handle to the motion
+	 */
+	private MotionHandle submit(final Motion motion, long timeout) {
+		final MotionHandle handle = new MotionHandle(timeout);
+		motionExecutor.execute(new Runnable() {
+			public void run() {
+				Owner owner = DriverStation.getInstance().isAutonomous() ? Owner.eAutonomous : Owner.eMacro;
+				if (!handle.start()) {
+					return;
+				}
+				currentMotion = handle;
+				motionOwner = owner;
+				if (!arbiter.acquire(owner)) {
+					currentMotion = null;
+					handle.cancel();
+					return;
+				}
+				try {
+					motion.run(handle);
+				} finally {
+					setWheels(owner, 0, 0, 0, 0);
+					arbiter.release(owner);
+					currentMotion = null;
+					handle.finish();
+				}
+			}
+		});
+		return handle;
+	}
+
+	/**
+	 * Method to start a closed loop rotation on the rotation controller.
+	 * 
+	 * <p>
+	 * Replaces the setpoint of any rotation already in progress, which ends as
+	 * cancelled.
+	 * </p>
 	 * 
 	 * @param theta
 	 *            Absolute position to field to rotate to (in degrees)
+	 * @return Handle which completes when the rotation settles
+	 */
+	public MotionHandle autoRotate(double theta) {
+		return autoRotate(theta, 0);
+	}
+
+	/**
+	 * Method to start a closed loop rotation on the rotation controller.
+	 * 
+	 * <p>
+	 * Replaces the setpoint of any rotation already in progress, which ends as
+	 * cancelled.
+	 * </p>
+	 * 
+	 * @param theta
+	 *            Absolute position to field to rotate to (in degrees)
+	 * @param timeout
+	 *            Time the rotation may run for (in ms), or 0 for no timeout
+	 * @return Handle which completes when the rotation settles
+	 */
+	public MotionHandle autoRotate(double theta, long timeout) {
+		MotionHandle handle = new MotionHandle(timeout);
+		handle.start();
+		rotationController.setSetPoint(theta, handle);
+		return handle;
+	}
+
+	/**
+	 * Cancels any rotation in progress and returns control to the caller.
+	 */
+	public void cancelRotation() {
+		rotationController.cancel();
+	}
+
+	/**
+	 * @return true if a closed loop rotation is currently in progress, false
+	 *         otherwise.
+	 */
+	public boolean isRotating() {
+		return rotationController.isActive();
+	}
+
+	/**
+	 * @return Time taken by the last closed loop rotation to settle (in
+	 *         seconds), or -1 if it did not settle
+	 */
+	public double getLastRotationSettleTime() {
+		return rotationController.getLastSettleTime();
+	}
+
+	/**
+	 * Sets all four wheel outputs through the arbiter, if the writer owns the
+	 * drivebase.
+	 * 
+	 * @param owner
+	 *            owner writing the outputs
+	 * @param frontRight
+	 *            front right wheel output
+	 * @param backRight
+	 *            back right wheel output
+	 * @param frontLeft
+	 *            front left wheel output
+	 * @param backLeft
+	 *            back left wheel output
+	 * @return true if the outputs were written, false otherwise
+	 */
+	private boolean setWheels(Owner owner, double frontRight, double backRight, double frontLeft,
+			double backLeft) {
+		return arbiter.set(owner, frontRight, backRight, frontLeft, backLeft);
+	}
+
+	/**
+	 * Copies the last commanded wheel outputs.
+	 * 
+	 * @param outputs
+	 *            array of length 4 to fill as {fr, br, fl, bl}
 	 */
-	public void autoRotate(double theta) {
-		synchronized (this) {
-			autoMovement = true;
-			rotationThread = new PIDController(TUNED_KP, TUNED_KI, TUNED_KD, TUNED_KF, mGyro, theta,
-					new SpeedController[] { mFrontRight, mBackRight, mFrontLeft, mBackLeft },
-					new double[] { 1, 1, -1, -1 });
-			rotationThread.start();
+	public void getWheelOutputs(double[] outputs) {
+		arbiter.getOutputs(outputs);
+	}
+
+	/**
+	 * Starts the motion thread and loads the classes motions use, so the first
+	 * motion of a match does not pay for them. Does not move the robot.
+	 */
+	public void warmUp() {
+		try {
+			motionExecutor.submit(new Runnable() {
+				public void run() {
+					FastMath.sinDegrees(0);
+					new TrapezoidProfile(1, 1, 1).getPosition(0);
+					new MotionHandle(0).start();
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * @return Arbiter controlling ownership of the drivebase
+	 */
+	public DrivetrainArbiter getArbiter() {
+		return arbiter;
+	}
+
+	/**
+	 * @return Collision detector of this drivebase
+	 */
+	public CollisionDetector getCollisionDetector() {
+		return collisionDetector;
+	}
+
+	/**
+	 * @return Pose estimator tracking this drivebase
+	 */
+	public PoseEstimator getPoseEstimator() {
+		return poseEstimator;
+	}
+
+	/**
+	 * Computes rotation output to hold a heading with proportional feedback.
+	 * 
+	 * <p>
+	 * Also accumulates heading error statistics.
+	 * </p>
+	 * 
+	 * @param yaw
+	 *            Current yaw of the robot (in degrees)
+	 * @param heading
+	 *            Heading to hold (in degrees)
+	 * @return Rotation output, positive is clockwise
+	 */
+	private double holdHeading(double yaw, double heading) {
+		return headingController.calculate(yaw, heading);
+	}
+
+	/**
+	 * @return Root mean square heading error while holding heading since the
+	 *         last reset (in degrees)
+	 */
+	public double getHeadingErrorRMS() {
+		return headingController.getErrorRMS();
+	}
+
+	/**
+	 * Resets heading error statistics.
+	 */
+	public void resetHeadingErrorStatistics() {
+		headingController.resetStatistics();
+	}
+
+	/**
+	 * Method to find signed error in rotation in 2D plane
+	 * 
+	 * @param alpha
+	 *            First angle
+	 * @param beta
+	 *            Second angle
+	 * @return Absolute signed error in 2D plane
+	 */
+	private double rotationalError(double alpha, double beta) {
+		double ret = alpha - beta;
+		if (ret < -180) {
+			ret += 360;
+		}
+		if (ret > 180) {
+			ret -= 360;
+		}
+		return ret;
+	}
+
 	/**
 	 * Creates artificial absolute deadband on values.
 	 * 
@@ -317,112 +935,182 @@ public class MecanumDrive {
 	/**
 	 * PIDF Class for auto base rotation
 	 * 
-	 * Feedforward is provided for angular acceleration
+	 * <p>
+	 * A single controller thread lives for the lifetime of the drivebase and
+	 * sleeps until a setpoint is requested, so repeated requests never spawn
+	 * new threads.
+	 * </p>
+	 * 
+	 * <p>
+	 * The loop runs a {@link RotationController} at a fixed rate, with the
+	 * measured time between updates.
+	 * </p>
 	 * 
 	 * @author Dan Waxman
-	 * @version 0.1
+	 * @version 0.4
 	 * @since 01/26/17
 	 */
 	private class PIDController extends Thread {
-		private double kp, ki, kd, kf, setPoint, error, previousError, previousOmega, alpha, integral;
+		private final RotationController law;
+		private double setPoint;
 		private AHRS inputDevice;
-		private SpeedController[] motors;
-		private double[] multipliers;
-		private final double epsilon = 5;
+		private volatile boolean newRequest, active;
+		private MotionHandle requestHandle;
+		private volatile double lastSettleTime;
+		private final FixedRateLoop loop;
 
 		/**
-		 * Constructor for new PIDF thread
+		 * Constructor for PIDF controller thread
 		 * 
-		 * @param Kp
-		 *            Tuned proportional gain constant
-		 * @param Ki
-		 *            Tuned integral gain constant
-		 * @param Kd
-		 *            Tuned derivative gain constant
-		 * @param Kf
-		 *            Tuned feedforward gain constant
+		 * @param law
+		 *            Control law to run
 		 * @param gyro
 		 *            AHRS device for feedback
+		 */
+		public PIDController(RotationController law, AHRS gyro) {
+			super("RotationController");
+			setDaemon(true);
+			this.law = law;
+			this.inputDevice = gyro;
+			newRequest = false;
+			lastSettleTime = -1;
+			loop = new FixedRateLoop(RotationController.UPDATE_RATE);
+		}
+
+		/**
+		 * Requests a new rotation, replacing any rotation in progress.
+		 * 
 		 * @param setPoint
 		 *            Angle (in degrees) to rotate to
-		 * @param motors
-		 *            Set of SpeedController devices for output
-		 * @param multipliers
-		 *            Multipliers to apply to each motor
+		 * @param handle
+		 *            Handle to end when the rotation ends
 		 */
-		public PIDController(double Kp, double Ki, double Kd, double Kf, AHRS gyro, double setPoint,
-				SpeedController[] motors, double[] multipliers) {
-			this.kp = Kp;
-			this.ki = Ki;
-			this.kd = Kd;
-			this.kf = Kf;
+		public synchronized void setSetPoint(double setPoint, MotionHandle handle) {
+			if (newRequest) {
+				// Replaced before the controller picked it up
+				requestHandle.cancel();
+			}
 			this.setPoint = setPoint;
-			this.motors = motors;
-			this.multipliers = multipliers;
-			this.inputDevice = gyro;
+			requestHandle = handle;
+			newRequest = true;
+			active = true;
+			notifyAll();
+		}
+
+		/**
+		 * Cancels any rotation in progress.
+		 */
+		public synchronized void cancel() {
+			if (newRequest) {
+				requestHandle.cancel();
+			}
+			newRequest = false;
+			active = false;
+			notifyAll();
+		}
+
+		/**
+		 * @return true if a rotation is requested or in progress, false
+		 *         otherwise
+		 */
+		public boolean isActive() {
+			return active;
+		}
+
+		/**
+		 * @return Time taken by the last rotation to settle (in seconds), or -1
+		 *         if it was cancelled or replaced before settling
+		 */
+		public double getLastSettleTime() {
+			return lastSettleTime;
 		}
 
 		/**
 		 * Method for closed loop rotation
 		 */
 		public void run() {
-			error = rotationalError(inputDevice.getYaw(), setPoint);
-			previousError = error;
-			alpha = 0;
-			previousOmega = inputDevice.getRate();
-			while (Math.abs(error) > epsilon && autoMovement) {
+			while (true) {
+				double target;
+				MotionHandle handle;
 				synchronized (this) {
-					integral += error;
-					alpha = inputDevice.getRate() - previousOmega;
-					previousOmega = inputDevice.getRate();
-					double iTerm = Math.abs(previousError - error) < 2 ? ki * integral : 0;
-					double u = kp * error + iTerm + kd * (previousError - error) - kf * Math.abs(alpha);
-					double[] motorSpeeds = new double[motors.length];
-					for (int i = 0; i < motors.length; i++) {
-						motorSpeeds[i] = u * multipliers[i];
-					}
-					normalize(motorSpeeds);
-					for (int i = 0; i < motors.length; i++) {
-						motorSpeeds[i] *= 0.6;
-					}
-					for (int i = 0; i < motors.length; i++) {
-						motors[i].set(motorSpeeds[i]);
-					}
-					previousError = error;
-					error = rotationalError(inputDevice.getYaw(), setPoint);
-					if (Math.abs(error) > epsilon) {
+					while (!newRequest) {
 						try {
-							Thread.sleep(500);
+							wait();
 						} catch (InterruptedException e) {
 							e.printStackTrace();
 						}
 					}
+					newRequest = false;
+					target = setPoint;
+					handle = requestHandle;
+				}
+				rotateTo(target, handle);
+				synchronized (this) {
+					// A new request may have arrived while finishing this one.
+					if (!newRequest) {
+						active = false;
+						arbiter.release(Owner.eRotation);
+					}
 				}
+				// Only end the handle once the drivebase is released, as a
+				// motion queued on its completion takes the drivebase next
+				endRotation(target, handle);
 			}
-			// Release objects taking significant memory
-			motors = null;
-			inputDevice = null;
-			autoMovement = false;
 		}
 
 		/**
-		 * Method to find signed error in rotation in 2D plane
+		 * Runs closed loop rotation until settled on the setpoint, the
+		 * rotation is cancelled or times out, or a new setpoint is requested.
 		 * 
-		 * @param alpha
-		 *            First angle
-		 * @param beta
-		 *            Second angle
-		 * @return Absolute signed error in 2D plane
+		 * @param target
+		 *            Angle (in degrees) to rotate to
+		 * @param handle
+		 *            Handle to check for cancellation and timeout
 		 */
-		private double rotationalError(double alpha, double beta) {
-			double ret = alpha - beta;
-			if (ret < -180) {
-				ret += 360;
+		private void rotateTo(double target, MotionHandle handle) {
+			long startTime = System.nanoTime(), previousTime = startTime;
+			law.reset(rotationalError(inputDevice.getYaw(), target), inputDevice.getRate());
+			lastSettleTime = -1;
+			arbiter.acquire(Owner.eRotation);
+			loop.start();
+			while (active && !newRequest && !handle.shouldStop() && arbiter.owns(Owner.eRotation)) {
+				loop.waitForNextCycle();
+				long time = System.nanoTime();
+				double dt = (time - previousTime) / 1e9;
+				previousTime = time;
+
+				double omega = inputDevice.getRate();
+				double error = rotationalError(inputDevice.getYaw(), target);
+				if (law.isSettled(error, omega)) {
+					lastSettleTime = (time - startTime) / 1e9;
+					break;
+				}
+				double u = law.calculate(error, omega, dt);
+				setWheels(Owner.eRotation, u, u, -u, -u);
+			}
+			if (!newRequest) {
+				setWheels(Owner.eRotation, 0, 0, 0, 0);
 			}
-			if (ret > 180) {
-				ret -= 360;
+		}
+
+		/**
+		 * Ends the handle of a rotation which has stopped running.
+		 * 
+		 * @param target
+		 *            Angle (in degrees) rotated to
+		 * @param handle
+		 *            Handle to end
+		 */
+		private void endRotation(double target, MotionHandle handle) {
+			if (lastSettleTime >= 0) {
+				handle.finish();
+				System.out.println("Rotation to " + target + " settled in " + lastSettleTime * 1e3 + " ms");
+			} else if (handle.shouldStop()) {
+				// Timed out, or cancelled through its handle
+				handle.finish();
+			} else {
+				handle.cancel();
 			}
-			return ret;
 		}
 	}
 }
\ No newline at end of file
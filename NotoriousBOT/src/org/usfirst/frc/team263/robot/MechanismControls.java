@@ -18,7 +18,7 @@ public class MechanismControls {
 	private RopeClimber ropeClimber;
 	private BallShooter shooter;
 	private Servo servo;
-	private VictorSP hopperMotor;
+	private FeedController feedController;
 	private boolean emergencyModeToggled, gearMechanismToggled, emergencyMode, clientCameraToggled, cameraPosToggled, closedLoopControl;
 	private int counter;
 
@@ -42,7 +42,7 @@ public class MechanismControls {
 		this.gearMechanism = gearMechanism;
 		this.ropeClimber = ropeClimber;
 		this.servo = servo;
-		this.hopperMotor = hopperMotor;
+		feedController = new FeedController(shooter, hopperMotor);
 		emergencyModeToggled = false;
 		gearMechanismToggled = false;
 		emergencyMode = true;
@@ -68,12 +68,11 @@ public class MechanismControls {
 		
 		if (controller.getBButton()) {
 			shooter.setMotorPower();
-			shooter.setAgitator(controller.getBumper(Hand.kRight));
-			hopperMotor.set(controller.getTriggerAxis(Hand.kRight));
+			// Feed is requested by the driver and gated on flywheel speed
+			feedController.update(controller.getBumper(Hand.kRight), controller.getTriggerAxis(Hand.kRight));
 		} else {
 			shooter.setMotorRPM(0);
-			shooter.setAgitator(false);
-			hopperMotor.set(0);
+			feedController.disable();
 			shooter.disable();
 		}
 		
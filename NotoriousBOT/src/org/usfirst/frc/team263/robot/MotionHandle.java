@@ -0,0 +1,223 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Handle to an asynchronous motion command.
+ *
+ * <p>
+ * A handle starts pending, becomes running once its motion starts and ends in
+ * exactly one terminal state. Completion callbacks run once on whichever thread
+ * ends the motion, or immediately on the registering thread if the motion has
+ * already ended, so they should be short.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class MotionHandle {
+	public static enum MotionState {
+		ePending, eRunning, eCompleted, eCancelled, eTimedOut;
+	}
+
+	private final long timeout;
+	private final ArrayList<Runnable> callbacks = new ArrayList<Runnable>();
+	private volatile MotionState state;
+	private volatile long deadline;
+	private volatile MotionHandle delegate;
+	private long startTime, endTime;
+
+	/**
+	 * Instantiates a pending handle.
+	 *
+	 * @param timeout
+	 *            Time the motion may run for once started (in ms), or 0 for no
+	 *            timeout
+	 */
+	public MotionHandle(long timeout) {
+		this.timeout = timeout;
+		state = MotionState.ePending;
+	}
+
+	/**
+	 * @return Current state of motion
+	 */
+	public MotionState getState() {
+		return state;
+	}
+
+	/**
+	 * @return true if the motion has ended for any reason, false otherwise
+	 */
+	public boolean isDone() {
+		MotionState s = state;
+		return s != MotionState.ePending && s != MotionState.eRunning;
+	}
+
+	/**
+	 * @return true if the motion ran to completion, false otherwise
+	 */
+	public boolean isCompleted() {
+		return state == MotionState.eCompleted;
+	}
+
+	/**
+	 * Checked by motions every cycle.
+	 *
+	 * @return true if the motion should stop because it was cancelled or ran
+	 *         past its timeout, false otherwise
+	 */
+	public boolean shouldStop() {
+		return isDone() || (deadline != 0 && System.nanoTime() > deadline);
+	}
+
+	/**
+	 * @return Time the motion ran for (in seconds), or time it has run so far
+	 *         if it has not ended
+	 */
+	public synchronized double getElapsedTime() {
+		if (state == MotionState.ePending) {
+			return 0;
+		}
+		return ((isDone() ? endTime : System.nanoTime()) - startTime) / 1e9;
+	}
+
+	/**
+	 * Cancels the motion. Has no effect if it has already ended.
+	 */
+	public void cancel() {
+		MotionHandle d = delegate;
+		if (d != null) {
+			d.cancel();
+		}
+		end(MotionState.eCancelled);
+	}
+
+	/**
+	 * Blocks until the motion ends or the wait times out.
+	 *
+	 * @param timeout
+	 *            Maximum time to wait (in ms), or 0 to wait indefinitely
+	 * @return State of the motion when the wait ended
+	 */
+	public synchronized MotionState await(long timeout) {
+		long waitDeadline = System.currentTimeMillis() + timeout;
+		while (!isDone()) {
+			long remaining = timeout == 0 ? 0 : waitDeadline - System.currentTimeMillis();
+			if (timeout != 0 && remaining <= 0) {
+				break;
+			}
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Registers a callback to run when the motion ends.
+	 *
+	 * @param callback
+	 *            Callback to run
+	 * @return This handle, for chaining
+	 */
+	public MotionHandle onComplete(Runnable callback) {
+		synchronized (this) {
+			if (!isDone()) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		callback.run();
+		return this;
+	}
+
+	/**
+	 * Chains another motion to start once this one completes.
+	 *
+	 * <p>
+	 * If this motion is cancelled or times out, the next motion is never
+	 * started and the returned handle ends in the same state. Cancelling the
+	 * returned handle cancels whichever motion in the chain is running.
+	 * </p>
+	 *
+	 * @param next
+	 *            Starts the next motion and returns its handle
+	 * @return Handle to the whole chain
+	 */
+	public MotionHandle then(final Supplier<MotionHandle> next) {
+		final MotionHandle chain = new MotionHandle(0);
+		chain.delegate = this;
+		chain.start();
+		onComplete(new Runnable() {
+			public void run() {
+				if (chain.isDone()) {
+					return;
+				} else if (!isCompleted()) {
+					chain.end(state);
+					return;
+				}
+				final MotionHandle nextHandle = next.get();
+				chain.delegate = nextHandle;
+				nextHandle.onComplete(new Runnable() {
+					public void run() {
+						chain.end(nextHandle.getState());
+					}
+				});
+			}
+		});
+		return chain;
+	}
+
+	/**
+	 * Marks the motion as running and starts its timeout.
+	 *
+	 * @return false if the motion was cancelled before it started, true
+	 *         otherwise
+	 */
+	synchronized boolean start() {
+		if (state != MotionState.ePending) {
+			return false;
+		}
+		startTime = System.nanoTime();
+		deadline = timeout == 0 ? 0 : startTime + timeout * 1000000L;
+		state = MotionState.eRunning;
+		return true;
+	}
+
+	/**
+	 * Ends a running motion, as timed out if it ran past its timeout and as
+	 * completed otherwise.
+	 */
+	void finish() {
+		end(deadline != 0 && System.nanoTime() > deadline ? MotionState.eTimedOut : MotionState.eCompleted);
+	}
+
+	/**
+	 * Moves the motion to a terminal state and runs callbacks, if it has not
+	 * already ended.
+	 */
+	void end(MotionState terminal) {
+		Runnable[] toRun;
+		synchronized (this) {
+			if (isDone()) {
+				return;
+			}
+			endTime = System.nanoTime();
+			if (state == MotionState.ePending) {
+				startTime = endTime;
+			}
+			state = terminal;
+			notifyAll();
+			toRun = callbacks.toArray(new Runnable[callbacks.size()]);
+			callbacks.clear();
+		}
+		for (Runnable callback : toRun) {
+			callback.run();
+		}
+	}
+}
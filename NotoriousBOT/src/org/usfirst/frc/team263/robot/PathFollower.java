@@ -0,0 +1,143 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Closed loop control law for following a {@link Trajectory} with a mecanum
+ * drivebase.
+ *
+ * <p>
+ * Wheel outputs are the trajectory's velocities rotated into the robot frame
+ * by the measured heading and passed through the drivebase feedforward, plus
+ * proportional corrections of position and heading error. The trajectory is followed relative
+ * to where the robot is when following starts, with headings absolute. Holds
+ * no hardware so the same law drives the robot and the simulator.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class PathFollower {
+	/**
+	 * Uncharacterized feedforward for translation, matching the drivebase model
+	 * of {@link PoseEstimator} (in volts per inch per second)
+	 */
+	public static final Feedforward DEFAULT_TRANSLATION = new Feedforward(0,
+			BatteryMonitor.NOMINAL_VOLTAGE / PoseEstimator.MAX_WHEEL_SPEED, 0);
+	/**
+	 * Uncharacterized feedforward for rotation, matching the drivebase model of
+	 * {@link PoseEstimator} (in volts per degree per second)
+	 */
+	public static final Feedforward DEFAULT_ROTATION = new Feedforward(0, BatteryMonitor.NOMINAL_VOLTAGE
+			* Math.toRadians(PathPlanner.TRACK_RADIUS) / PoseEstimator.MAX_WHEEL_SPEED, 0);
+
+	private final double POSITION_KP = 0.02, HEADING_KP = 0.01;
+
+	private final Trajectory trajectory;
+	private final Feedforward forward, strafe, rotate;
+	private final double[] desired = new double[Trajectory.STATE_SIZE];
+	private double offsetX, offsetY;
+
+	/**
+	 * Instantiates follower with uncharacterized feedforward.
+	 *
+	 * @param trajectory
+	 *            Trajectory to follow
+	 */
+	public PathFollower(Trajectory trajectory) {
+		this(trajectory, DEFAULT_TRANSLATION, DEFAULT_TRANSLATION, DEFAULT_ROTATION);
+	}
+
+	/**
+	 * @param trajectory
+	 *            Trajectory to follow
+	 * @param forward
+	 *            Feedforward of wheel output to forward velocity
+	 * @param strafe
+	 *            Feedforward of wheel output to strafe velocity
+	 * @param rotate
+	 *            Feedforward of wheel output to angular velocity
+	 */
+	public PathFollower(Trajectory trajectory, Feedforward forward, Feedforward strafe, Feedforward rotate) {
+		this.trajectory = trajectory;
+		this.forward = forward;
+		this.strafe = strafe;
+		this.rotate = rotate;
+	}
+
+	/**
+	 * Anchors the start of the trajectory at the robot's current position.
+	 *
+	 * @param x
+	 *            Current field x position (in inches)
+	 * @param y
+	 *            Current field y position (in inches)
+	 */
+	public void start(double x, double y) {
+		trajectory.getState(0, desired);
+		offsetX = x - desired[Trajectory.X];
+		offsetY = y - desired[Trajectory.Y];
+	}
+
+	/**
+	 * @param t
+	 *            Time since start (in seconds)
+	 * @return true if the trajectory has ended by time t
+	 */
+	public boolean isFinished(double t) {
+		return t >= trajectory.getTotalTime();
+	}
+
+	/**
+	 * Calculates wheel outputs for one control cycle.
+	 *
+	 * @param t
+	 *            Time since start (in seconds)
+	 * @param x
+	 *            Current field x position (in inches)
+	 * @param y
+	 *            Current field y position (in inches)
+	 * @param heading
+	 *            Current heading (in degrees)
+	 * @param outputs
+	 *            Array of length 4 to fill with wheel outputs as {fr, br, fl,
+	 *            bl}
+	 */
+	public void calculate(double t, double x, double y, double heading, double[] outputs) {
+		trajectory.sample(t, desired);
+		double velocityX = desired[Trajectory.VELOCITY_X], velocityY = desired[Trajectory.VELOCITY_Y];
+		double errorX = desired[Trajectory.X] + offsetX - x, errorY = desired[Trajectory.Y] + offsetY - y;
+
+		double headingError = (desired[Trajectory.HEADING] - heading) % 360;
+		if (headingError > 180) {
+			headingError -= 360;
+		} else if (headingError < -180) {
+			headingError += 360;
+		}
+		double w = rotate.getOutput(desired[Trajectory.ANGULAR_VELOCITY], 0) + HEADING_KP * headingError;
+
+		// Feedforward and correction rotated into the robot frame
+		double sinH = FastMath.sinDegrees(heading), cosH = FastMath.cosDegrees(heading);
+		double s = strafe.getOutput(velocityX * cosH - velocityY * sinH, 0)
+				+ POSITION_KP * (errorX * cosH - errorY * sinH);
+		double f = forward.getOutput(velocityX * sinH + velocityY * cosH, 0)
+				+ POSITION_KP * (errorX * sinH + errorY * cosH);
+		outputs[0] = -s + f - w;
+		outputs[1] = s + f - w;
+		outputs[2] = s + f + w;
+		outputs[3] = -s + f + w;
+
+		double max = 1;
+		for (double output : outputs) {
+			max = Math.max(max, Math.abs(output));
+		}
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] /= max;
+		}
+	}
+
+	/**
+	 * @return Trajectory being followed
+	 */
+	public Trajectory getTrajectory() {
+		return trajectory;
+	}
+}
@@ -0,0 +1,189 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Plans minimum time holonomic trajectories through waypoints.
+ *
+ * <p>
+ * Translation follows quintic Hermite splines through the waypoints, with
+ * Catmull-Rom tangents and zero second derivative at each waypoint, so the path
+ * is smooth without stopping between segments. Heading is planned separately,
+ * easing from each waypoint's heading to the next along the segment.
+ * </p>
+ * <p>
+ * The path is then time parameterized along its length: speed is limited by
+ * the maximum velocity, by the maximum acceleration around curves, and by the
+ * fastest wheel given the direction of travel relative to the robot and the
+ * rate of turning. A forward and a backward pass then limit acceleration and
+ * deceleration, which gives the minimum time to follow the path within those
+ * limits, starting and ending at rest.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class PathPlanner {
+	/**
+	 * Distance from center of robot to wheel contact (in inches)
+	 */
+	public static final double TRACK_RADIUS = 14;
+	/**
+	 * Fraction of wheel free speed the planner may use, leaving the rest for
+	 * feedback
+	 */
+	public static final double WHEEL_SPEED_MARGIN = 0.85;
+
+	/**
+	 * Version of the planning method, to change whenever a change to it plans
+	 * different trajectories from the same waypoints and limits
+	 */
+	public static final int VERSION = 1;
+
+	private static final int SAMPLES_PER_SEGMENT = 100;
+
+	private PathPlanner() {
+	}
+
+	/**
+	 * @return Version and every constant a planned trajectory depends on
+	 *         besides its arguments, so stored trajectories can be checked
+	 *         against the current planner
+	 */
+	public static double[] getConstants() {
+		return new double[] { VERSION, PoseEstimator.MAX_WHEEL_SPEED, TRACK_RADIUS, WHEEL_SPEED_MARGIN,
+				SAMPLES_PER_SEGMENT };
+	}
+
+	/**
+	 * Plans a trajectory through waypoints.
+	 *
+	 * @param waypoints
+	 *            Waypoints as {x, y, heading} in inches and degrees, at least
+	 *            two and no two consecutive ones at the same position
+	 * @param maxVelocity
+	 *            Maximum speed along path (in inches per second)
+	 * @param maxAcceleration
+	 *            Maximum acceleration along and across path (in inches per
+	 *            second squared)
+	 * @return Minimum time trajectory starting and ending at rest
+	 */
+	public static Trajectory plan(double[][] waypoints, double maxVelocity, double maxAcceleration) {
+		int n = waypoints.length;
+		if (n < 2) {
+			throw new IllegalArgumentException("Path needs at least two waypoints");
+		} else if (maxVelocity <= 0 || maxAcceleration <= 0) {
+			throw new IllegalArgumentException("Path limits must be positive");
+		}
+		for (int i = 1; i < n; i++) {
+			if (waypoints[i][0] == waypoints[i - 1][0] && waypoints[i][1] == waypoints[i - 1][1]) {
+				throw new IllegalArgumentException("Consecutive waypoints must differ in position");
+			}
+		}
+
+		// Catmull-Rom tangents, one sided at the ends
+		double[][] tangents = new double[n][2];
+		for (int i = 0; i < n; i++) {
+			double[] before = waypoints[Math.max(0, i - 1)], after = waypoints[Math.min(n - 1, i + 1)];
+			double scale = (i == 0 || i == n - 1) ? 1 : 0.5;
+			tangents[i][0] = (after[0] - before[0]) * scale;
+			tangents[i][1] = (after[1] - before[1]) * scale;
+		}
+
+		// Unwrap headings so each segment turns the short way
+		double[] headings = new double[n];
+		headings[0] = waypoints[0][2];
+		for (int i = 1; i < n; i++) {
+			double change = (waypoints[i][2] - waypoints[i - 1][2]) % 360;
+			if (change > 180) {
+				change -= 360;
+			} else if (change < -180) {
+				change += 360;
+			}
+			headings[i] = headings[i - 1] + change;
+		}
+
+		// Sample positions and headings along each segment
+		int size = (n - 1) * SAMPLES_PER_SEGMENT + 1;
+		double[] x = new double[size], y = new double[size], heading = new double[size];
+		for (int segment = 0; segment < n - 1; segment++) {
+			double[] p0 = waypoints[segment], p1 = waypoints[segment + 1];
+			double[] t0 = tangents[segment], t1 = tangents[segment + 1];
+			for (int j = segment == 0 ? 0 : 1; j <= SAMPLES_PER_SEGMENT; j++) {
+				double u = (double) j / SAMPLES_PER_SEGMENT;
+				int i = segment * SAMPLES_PER_SEGMENT + j;
+				// Quintic Hermite basis with zero second derivative at ends
+				double u2 = u * u, u3 = u2 * u, u4 = u3 * u, u5 = u4 * u;
+				double h0 = 1 - 10 * u3 + 15 * u4 - 6 * u5, h1 = u - 6 * u3 + 8 * u4 - 3 * u5;
+				double h4 = -4 * u3 + 7 * u4 - 3 * u5, h5 = 10 * u3 - 15 * u4 + 6 * u5;
+				x[i] = h0 * p0[0] + h1 * t0[0] + h4 * t1[0] + h5 * p1[0];
+				y[i] = h0 * p0[1] + h1 * t0[1] + h4 * t1[1] + h5 * p1[1];
+				heading[i] = headings[segment] + (headings[segment + 1] - headings[segment]) * h5;
+			}
+		}
+
+		// Speed limits at each sample from velocity, curvature and wheel speed
+		double[] distance = new double[size], limit = new double[size];
+		for (int i = 1; i < size; i++) {
+			distance[i] = Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+		}
+		double maxWheelSpeed = PoseEstimator.MAX_WHEEL_SPEED * WHEEL_SPEED_MARGIN;
+		for (int i = 0; i < size; i++) {
+			int a = Math.max(0, i - 1), b = Math.min(size - 1, i + 1);
+			double ds = Math.max(1e-9, Math.hypot(x[b] - x[a], y[b] - y[a]));
+			double v = maxVelocity;
+
+			double curvature = curvature(x[a], y[a], x[i], y[i], x[b], y[b]);
+			if (curvature > 1e-9) {
+				v = Math.min(v, Math.sqrt(maxAcceleration / curvature));
+			}
+
+			// Fastest wheel is |forward| + |strafe| + turning component
+			double direction = FastMath.atan2Degrees(x[b] - x[a], y[b] - y[a]);
+			double relative = direction - heading[i];
+			double turnRate = Math.toRadians(Math.abs(heading[b] - heading[a])) / ds;
+			double wheelFactor = Math.abs(FastMath.cosDegrees(relative)) + Math.abs(FastMath.sinDegrees(relative))
+					+ turnRate * TRACK_RADIUS;
+			limit[i] = Math.min(v, maxWheelSpeed / wheelFactor);
+		}
+
+		// Acceleration and deceleration passes, starting and ending at rest
+		double[] velocity = new double[size];
+		velocity[0] = 0;
+		for (int i = 1; i < size; i++) {
+			velocity[i] = Math.min(limit[i], Math.sqrt(velocity[i - 1] * velocity[i - 1]
+					+ 2 * maxAcceleration * distance[i]));
+		}
+		velocity[size - 1] = 0;
+		for (int i = size - 2; i >= 0; i--) {
+			velocity[i] = Math.min(velocity[i], Math.sqrt(velocity[i + 1] * velocity[i + 1]
+					+ 2 * maxAcceleration * distance[i + 1]));
+		}
+
+		// Integrate time and build field frame states
+		double[] times = new double[size];
+		double[][] states = new double[size][Trajectory.STATE_SIZE];
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				times[i] = times[i - 1] + 2 * distance[i] / Math.max(1e-9, velocity[i - 1] + velocity[i]);
+			}
+			int a = Math.max(0, i - 1), b = Math.min(size - 1, i + 1);
+			double length = Math.hypot(x[b] - x[a], y[b] - y[a]);
+			double[] state = states[i];
+			state[Trajectory.X] = x[i];
+			state[Trajectory.Y] = y[i];
+			state[Trajectory.HEADING] = heading[i];
+			state[Trajectory.VELOCITY_X] = velocity[i] * (x[b] - x[a]) / length;
+			state[Trajectory.VELOCITY_Y] = velocity[i] * (y[b] - y[a]) / length;
+			state[Trajectory.ANGULAR_VELOCITY] = velocity[i] * (heading[b] - heading[a]) / length;
+		}
+		return new Trajectory(times, states);
+	}
+
+	/**
+	 * @return Curvature of circle through three points, 0 if they are in line
+	 */
+	private static double curvature(double x0, double y0, double x1, double y1, double x2, double y2) {
+		double a = Math.hypot(x1 - x0, y1 - y0), b = Math.hypot(x2 - x1, y2 - y1), c = Math.hypot(x2 - x0, y2 - y0);
+		double cross = Math.abs((x1 - x0) * (y2 - y0) - (y1 - y0) * (x2 - x0));
+		return a * b * c == 0 ? 0 : 2 * cross / (a * b * c);
+	}
+}
@@ -0,0 +1,226 @@
+package org.usfirst.frc.team263.robot;
+
+import com.kauailabs.navx.frc.AHRS;
+
+import edu.wpi.first.wpilibj.Encoder;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
+
+/**
+ * Field position estimator for a mecanum drivebase.
+ *
+ * <p>
+ * Integrates mecanum forward kinematics from wheel velocities at a fixed rate.
+ * Wheel velocities are read from encoders when available, otherwise they are
+ * modeled from the commanded wheel outputs with a first order motor lag.
+ * Heading is taken from the navX yaw rather than from wheel rotation, as
+ * mecanum wheels slip far too much to integrate heading.
+ * </p>
+ * <p>
+ * Field coordinates are in inches. X is to the right and Y is forward
+ * relative to the robot when yaw was zeroed. Heading is in degrees, positive
+ * clockwise, matching navX yaw.
+ * </p>
+ * <p>
+ * The pose is published with a sequence lock, so any thread can read a
+ * consistent pose without blocking the estimator.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class PoseEstimator extends Thread {
+	private final MecanumDrive drive;
+	private final AHRS gyro;
+	private final Encoder[] encoders;
+	private final FixedRateLoop loop;
+	private final double[] outputs = new double[4], wheelSpeeds = new double[4];
+	private volatile long sequence;
+	private volatile double x, y, heading, velocityX, velocityY;
+	private final double UPDATE_RATE = 100, PUBLISH_RATE = 10;
+	/**
+	 * Free speed of a wheel at full output (in inches per second)
+	 */
+	public static final double MAX_WHEEL_SPEED = 150;
+	/**
+	 * Time constant of a wheel's response to a change in output (in seconds)
+	 */
+	public static final double WHEEL_TIME_CONSTANT = 0.15;
+
+	/**
+	 * Instantiates pose estimator driven by commanded wheel outputs.
+	 *
+	 * @param drive
+	 *            MecanumDrive to read wheel outputs from
+	 * @param gyro
+	 *            AHRS device to read yaw from
+	 */
+	public PoseEstimator(MecanumDrive drive, AHRS gyro) {
+		this(drive, gyro, null);
+	}
+
+	/**
+	 * Instantiates pose estimator.
+	 *
+	 * @param drive
+	 *            MecanumDrive to read wheel outputs from
+	 * @param gyro
+	 *            AHRS device to read yaw from
+	 * @param encoders
+	 *            Wheel encoders as {fr, br, fl, bl} scaled to inches, or null
+	 *            to model wheel speeds from commanded outputs
+	 */
+	public PoseEstimator(MecanumDrive drive, AHRS gyro, Encoder[] encoders) {
+		super("PoseEstimator");
+		setDaemon(true);
+		this.drive = drive;
+		this.gyro = gyro;
+		this.encoders = encoders;
+		loop = new FixedRateLoop(UPDATE_RATE);
+	}
+
+	/**
+	 * Resets field position, keeping heading from the gyroscope.
+	 *
+	 * @param x
+	 *            New X position (in inches)
+	 * @param y
+	 *            New Y position (in inches)
+	 */
+	public synchronized void reset(double x, double y) {
+		write(x, y, heading, 0, 0);
+	}
+
+	/**
+	 * Copies a consistent snapshot of the pose without blocking.
+	 *
+	 * @param pose
+	 *            array of length 3 to fill as {x, y, heading}
+	 */
+	public void getPose(double[] pose) {
+		long seq;
+		do {
+			seq = sequence;
+			pose[0] = x;
+			pose[1] = y;
+			pose[2] = heading;
+		} while ((seq & 1) != 0 || seq != sequence);
+	}
+
+	/**
+	 * @return Field X position (in inches)
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * @return Field Y position (in inches)
+	 */
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * @return Heading (in degrees)
+	 */
+	public double getHeading() {
+		return heading;
+	}
+
+	/**
+	 * @return Field X velocity (in inches per second)
+	 */
+	public double getVelocityX() {
+		return velocityX;
+	}
+
+	/**
+	 * @return Field Y velocity (in inches per second)
+	 */
+	public double getVelocityY() {
+		return velocityY;
+	}
+
+	/**
+	 * Method to continuously update pose.
+	 */
+	public void run() {
+		NetworkTable table = NetworkTable.getTable("poseData");
+		int publishDivider = (int) (UPDATE_RATE / PUBLISH_RATE), cycle = 0;
+		double previousHeading = gyro.getYaw();
+		heading = previousHeading;
+		long previousTime = System.nanoTime();
+		loop.start();
+		while (true) {
+			loop.waitForNextCycle();
+			long time = System.nanoTime();
+			double dt = (time - previousTime) / 1e9;
+			previousTime = time;
+			update(dt, previousHeading, gyro.getYaw());
+			previousHeading = heading;
+
+			if (++cycle >= publishDivider) {
+				cycle = 0;
+				table.putNumber("x", x);
+				table.putNumber("y", y);
+				table.putNumber("heading", heading);
+			}
+		}
+	}
+
+	/**
+	 * Integrates one step of odometry.
+	 *
+	 * @param dt
+	 *            Time since last update (in seconds)
+	 * @param previousYaw
+	 *            Yaw at the start of the step (in degrees)
+	 * @param yaw
+	 *            Yaw at the end of the step (in degrees)
+	 */
+	private synchronized void update(double dt, double previousYaw, double yaw) {
+		if (encoders != null) {
+			for (int i = 0; i < wheelSpeeds.length; i++) {
+				wheelSpeeds[i] = encoders[i].getRate();
+			}
+		} else {
+			drive.getWheelOutputs(outputs);
+			double k = dt / (WHEEL_TIME_CONSTANT + dt);
+			for (int i = 0; i < wheelSpeeds.length; i++) {
+				wheelSpeeds[i] += (outputs[i] * MAX_WHEEL_SPEED - wheelSpeeds[i]) * k;
+			}
+		}
+
+		// Inverse of the wheel mixing in MecanumDrive.drive for {fr, br, fl, bl}
+		double forward = (wheelSpeeds[0] + wheelSpeeds[1] + wheelSpeeds[2] + wheelSpeeds[3]) / 4;
+		double strafe = (-wheelSpeeds[0] + wheelSpeeds[1] + wheelSpeeds[2] - wheelSpeeds[3]) / 4;
+
+		// Rotate into field frame using the heading halfway through the step
+		double delta = yaw - previousYaw;
+		if (delta > 180) {
+			delta -= 360;
+		} else if (delta < -180) {
+			delta += 360;
+		}
+		double theta = previousYaw + delta / 2;
+		double sinT = FastMath.sinDegrees(theta), cosT = FastMath.cosDegrees(theta);
+		double vx = strafe * cosT + forward * sinT;
+		double vy = -strafe * sinT + forward * cosT;
+
+		write(x + vx * dt, y + vy * dt, yaw, vx, vy);
+	}
+
+	/**
+	 * Publishes a new pose under the sequence lock. Only called while holding
+	 * this object's monitor, so there is a single writer at a time.
+	 */
+	private void write(double newX, double newY, double newHeading, double newVelocityX, double newVelocityY) {
+		sequence++;
+		x = newX;
+		y = newY;
+		heading = newHeading;
+		velocityX = newVelocityX;
+		velocityY = newVelocityY;
+		sequence++;
+	}
+}
@@ -0,0 +1,66 @@
+package org.usfirst.frc.team263.robot;
+
+import edu.wpi.first.wpilibj.XboxController;
+
+/**
+ * Xbox controller whose inputs come from a recording instead of the driver
+ * station, so replayed inputs run through exactly the same code as live ones.
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class ReplayController extends XboxController {
+	private final double[] axes = new double[InputRecorder.AXES];
+	private int buttons, pov;
+
+	/**
+	 * @param port
+	 *            Port of the controller being replayed
+	 */
+	public ReplayController(int port) {
+		super(port);
+		neutral();
+	}
+
+	/**
+	 * Releases all inputs.
+	 */
+	public void neutral() {
+		for (int i = 0; i < axes.length; i++) {
+			axes[i] = 0;
+		}
+		buttons = 0;
+		pov = -1;
+	}
+
+	/**
+	 * Sets inputs from one recorded frame.
+	 *
+	 * @param recordedAxes
+	 *            Axis values, at least {@link InputRecorder#AXES} long
+	 * @param recordedButtons
+	 *            Bitmask of pressed buttons, bit 0 being button 1
+	 * @param recordedPOV
+	 *            POV angle, or -1 if not pressed
+	 */
+	void set(double[] recordedAxes, int recordedButtons, int recordedPOV) {
+		System.arraycopy(recordedAxes, 0, axes, 0, axes.length);
+		buttons = recordedButtons;
+		pov = recordedPOV;
+	}
+
+	@Override
+	public double getRawAxis(int axis) {
+		return axis >= 0 && axis < axes.length ? axes[axis] : 0;
+	}
+
+	@Override
+	public boolean getRawButton(int button) {
+		return button >= 1 && button <= InputRecorder.BUTTONS && (buttons & (1 << (button - 1))) != 0;
+	}
+
+	@Override
+	public int getPOV(int index) {
+		return index == 0 ? pov : -1;
+	}
+}
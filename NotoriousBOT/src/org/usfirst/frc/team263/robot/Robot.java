@@ -1,5 +1,8 @@
 package org.usfirst.frc.team263.robot;
 
+import java.io.IOException;
+import java.util.concurrent.Future;
+
 import com.ctre.CANTalon;
 import com.kauailabs.navx.frc.AHRS;
 
@@ -11,11 +14,12 @@ import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Encoder;
 import edu.wpi.first.wpilibj.GenericHID.Hand;
 import edu.wpi.first.wpilibj.SampleRobot;
-import edu.wpi.first.wpilibj.SerialPort;
+import edu.wpi.first.wpilibj.SPI;
 import edu.wpi.first.wpilibj.Servo;
 import edu.wpi.first.wpilibj.Solenoid;
 import edu.wpi.first.wpilibj.VictorSP;
 import edu.wpi.first.wpilibj.XboxController;
+import edu.wpi.first.wpilibj.networktables.NetworkTable;
 
 public class Robot extends SampleRobot {
 	AHRS gyro;
@@ -32,13 +36,26 @@ public class Robot extends SampleRobot {
 	GearMechanism gearMechanism;
 	DigitalInput leftClimberLS, rightClimberLS, climberSprocketLS, bottomGearLS, topGearLS, cameraJumper;
 	Encoder shooterEncoder;
+	FlywheelSpeedEstimator flywheelSpeed;
 	Macros macros;
 	Autonomous autonomous;
+	AutoRoutine selectedRoutine;
+	InputReplay selectedReplay;
+	String selectedMode;
+	InputRecorder recorder;
+	BatteryMonitor battery;
+	Characterization characterization;
 	Servo servo;
 	VisionProcessing visionProcessing;
 	boolean fieldOriented, previouslyPressed;
-	final double DRIFT_CONSTANT = 0.0;
 	final int CAMERA_X = 360, CAMERA_Y = 240;
+	final double CONTROL_LOOP_HZ = 100, DISABLED_LOOP_HZ = 10;
+	final byte NAVX_UPDATE_RATE = (byte) 200;
+	// Close the flywheel loop on its Talon rather than the roboRIO, which
+	// needs the shooter encoder wired to the Talon's data port
+	final boolean SHOOTER_TALON_LOOP = false;
+	final int FLYWHEEL_SPEED_WINDOW = 8;
+	final String REPLAY_PREFIX = "Replay:", REPLAY_DIRECTORY = "/home/lvuser/replays/";
 
 	@Override
 	public void robotInit() {
@@ -49,6 +66,7 @@ public class Robot extends SampleRobot {
 			CameraServer.getInstance().startAutomaticCapture();
 		}
 		LEDStrip.sendColor(LEDStrip.LEDMode.eRainbow);
+		autonomous.loadRoutines();
 
 	}
 
@@ -76,7 +94,10 @@ public class Robot extends SampleRobot {
 		cameraJumper = new DigitalInput(7);
 		shooterEncoder = new Encoder(5, 6, false, Encoder.EncodingType.k2X);
 		shooterEncoder.setReverseDirection(true);
-		shooterEncoder.setSamplesToAverage(10);
+		// Rate is filtered by the speed estimator rather than averaged over
+		// edges, which lags
+		shooterEncoder.setSamplesToAverage(1);
+		shooterEncoder.setMinRate(0);
 		
 		//Initialize pnuematic components
 		//gearPiston = new Solenoid(0);
@@ -92,7 +113,9 @@ public class Robot extends SampleRobot {
 		ropeClimberMotor.enableBrakeMode(true);
 
 		// Initialize navX MXP to be primary gyroscope
-		gyro = new AHRS(SerialPort.Port.kMXP);
+		// SPI at the full 200 Hz update rate so collision detection sees
+		// every acceleration sample
+		gyro = new AHRS(SPI.Port.kMXP, NAVX_UPDATE_RATE);
 
 		// Initialize controllers to correct ports
 		pDriver = new XboxController(0);
@@ -100,16 +123,33 @@ public class Robot extends SampleRobot {
 
 		servo = new Servo(9);
 
+		// Compensate open loop outputs for battery sag
+		battery = new BatteryMonitor();
+		battery.start();
+
 		// Initialize all necessary systems and mechanisms
-		drive = new MecanumDrive(frontRight, backRight, frontLeft, backLeft, gyro, DRIFT_CONSTANT);
-		shooter = new BallShooter(ballShooterMotor, agitator, shooterEncoder, sDriver);
-		ropeClimber = new RopeClimber(ropeClimberMotor, leftClimberLS, rightClimberLS);
+		drive = new MecanumDrive(battery.compensate(frontRight, "frontRight"),
+				battery.compensate(backRight, "backRight"), battery.compensate(frontLeft, "frontLeft"),
+				battery.compensate(backLeft, "backLeft"), gyro, HeadingController.TUNED_KP);
+		flywheelSpeed = new FlywheelSpeedEstimator(shooterEncoder, FlywheelSpeedEstimator.Filter.eAlphaBeta,
+				FLYWHEEL_SPEED_WINDOW);
+		if (!SHOOTER_TALON_LOOP) {
+			flywheelSpeed.start();
+		}
+		FlywheelBackend flywheel = SHOOTER_TALON_LOOP ? new TalonFlywheel(ballShooterMotor, true)
+				: new SoftwareFlywheel(battery.compensate(ballShooterMotor, "shooter"), flywheelSpeed);
+		shooter = new BallShooter(flywheel, battery.compensate(agitator, "agitator"), sDriver);
+		ropeClimber = new RopeClimber(battery.compensate(ropeClimberMotor, "climber"), leftClimberLS,
+				rightClimberLS);
 		gearMechanism = new GearMechanism(gearMechanismMotor, bottomGearLS, topGearLS, gearPiston);
 		macros = new Macros(gyro, CAMERA_X, CAMERA_Y, drive, shooter, gearMechanism,
 				new XboxController[] { pDriver, sDriver });
 		mech = new MechanismControls(shooter, gearMechanism, ropeClimber, macros, servo, hopperMotor);
 		autonomous = new Autonomous(drive, gearMechanism, shooter, ropeClimber, climberSprocketLS);
 		visionProcessing = new VisionProcessing(CAMERA_X, CAMERA_Y);
+		recorder = new InputRecorder(new XboxController[] { pDriver, sDriver });
+		characterization = new Characterization(drive, shooter, gyro);
+		Characterization.loadConstants(drive, shooter);
 
 		//compressor.setClosedLoopControl(true);
 		
@@ -120,68 +160,198 @@ public class Robot extends SampleRobot {
 
 	@Override
 	public void operatorControl() {
-		while (isOperatorControl() && isEnabled()) {
-			// Determine if driver requests field-oriented driving or robot
-			// respective driving.
-			if (!previouslyPressed && pDriver.getStickButton(Hand.kLeft)) {
-				fieldOriented = !fieldOriented;
-			}
-			previouslyPressed = pDriver.getStickButton(Hand.kLeft);
+		FixedRateLoop loop = new FixedRateLoop(CONTROL_LOOP_HZ);
+		drive.resetHeadingErrorStatistics();
 
-			// Drive robot's drivebase and mechanisms.
-			drive.drive(pDriver, fieldOriented);
-			mech.drive(sDriver);
+		// Record driver inputs if a recording name has been set
+		String recording = NetworkTable.getTable("autoData").getString("record", "");
+		if (!recording.isEmpty()) {
+			recorder.start(REPLAY_DIRECTORY + recording + ".bin", CONTROL_LOOP_HZ, fieldOriented);
+		}
+
+		while (isOperatorControl() && isEnabled()) {
+			recorder.record();
+			driveCycle(pDriver, sDriver);
 
 			// LEDStrip feedback logic
 			if (gearMechanism.getState().equals(gearMechanism.getUp())) {
 
 			}
+
+			loop.waitForNextCycle();
 		}
+		loop.report("teleop");
+		if (recorder.isRecording()) {
+			recorder.stop();
+			// Reload the selected mode in case it replays this recording
+			selectedMode = null;
+		}
+		System.out.println("Heading hold RMS error: " + drive.getHeadingErrorRMS() + " degrees");
 		// NetworkTable.getTable("cameraData").putBoolean("end", false);
 	}
 
 	@Override
 	public void autonomous() {
+		long enableTime = System.nanoTime();
+		drive.getArbiter().markEnable();
 		gyro.zeroYaw();
+		drive.getPoseEstimator().reset(0, 0);
 		if (isAutonomous() && isEnabled()) {
+			if (selectedReplay != null) {
+				replay(selectedReplay, enableTime);
+				return;
+			}
+
+			// Normally resolved and warmed up while disabled
+			AutoRoutine routine = selectedRoutine;
+			if (routine == null) {
+				selectedMode = CameraCoprocessor.getAutoMode();
+				routine = autonomous.getRoutine(selectedMode);
+			}
+			if (routine == null) {
+				System.out.println("Error - Recieved Unknown Command: " + selectedMode);
+				return;
+			}
+
+			// Routine runs on its own thread so it can be stopped as soon as
+			// autonomous ends
+			Future<?> result = autonomous.start(routine);
 			if (DriverStation.getInstance().getAlliance().equals(DriverStation.Alliance.Red)) {
 				LEDStrip.sendColor(LEDStrip.LEDMode.eRed);
 			} else {
 				LEDStrip.sendColor(LEDStrip.LEDMode.eBlue);
 			}
 
-			String autoMode = CameraCoprocessor.getAutoMode();
-			if (autoMode.equals("Middle With Shot")) {
-				autonomous.middleGearShoot();
-			} else if (autoMode.equals("Left Gear Forward")) {
-				autonomous.leftGear();
-			} else if (autoMode.equals("Right Gear Forward")) {
-				autonomous.rightGear();
-			} else if (autoMode.equals("Middle Gear No Shot")) {
-				autonomous.middleGear();
-			} else if (autoMode.equals("Left Gear Still")) {
-				autonomous.leftGearStill();
-			} else if (autoMode.equals("Right Gear Still")) {
-				autonomous.rightGearStill();
-			} else if (autoMode.equals("Straight")) {
-				autonomous.straight();
-			} else if (autoMode.equals("Nothing")) {
-				
-			} else {
-				System.out.println("Error - Recieved Unknown Command: " + autoMode);
+			FixedRateLoop loop = new FixedRateLoop(CONTROL_LOOP_HZ);
+			while (isAutonomous() && isEnabled()) {
+				// Gear mechanism only moves, stops at its limit switches and
+				// signals routines waiting on it while it is being run, so it
+				// runs for all of autonomous, as a routine may end by toggling
+				// it
+				gearMechanism.run();
+				loop.waitForNextCycle();
 			}
+			if (!result.isDone()) {
+				routine.abort();
+			}
+
+			double dispatchLatency = (routine.getStartTime() - enableTime) / 1e6;
+			double driveLatency = drive.getArbiter().getEnableLatency() * 1000;
+			System.out.println("Autonomous started " + dispatchLatency + " ms after enable, first drive output after "
+					+ driveLatency + " ms");
+			NetworkTable table = NetworkTable.getTable("autoData");
+			table.putNumber("dispatchLatency", dispatchLatency);
+			table.putNumber("driveLatency", driveLatency);
 		}
+	}
+
+	/**
+	 * Runs drivebase and mechanisms for one control loop cycle.
+	 * 
+	 * @param primary
+	 *            Controller driving drivebase
+	 * @param secondary
+	 *            Controller driving mechanisms
+	 */
+	private void driveCycle(XboxController primary, XboxController secondary) {
+		// Determine if driver requests field-oriented driving or robot
+		// respective driving.
+		if (!previouslyPressed && primary.getStickButton(Hand.kLeft)) {
+			fieldOriented = !fieldOriented;
+		}
+		previouslyPressed = primary.getStickButton(Hand.kLeft);
 
+		// Drive robot's drivebase and mechanisms.
+		drive.drive(primary, fieldOriented);
+		mech.drive(secondary);
 	}
+
+	/**
+	 * Replays recorded driver inputs through the teleop code for the rest of
+	 * autonomous or until the recording ends.
+	 * 
+	 * @param replay
+	 *            Recording to replay
+	 * @param enableTime
+	 *            Time autonomous was enabled, from <code>System.nanoTime()</code>
+	 */
+	private void replay(InputReplay replay, long enableTime) {
+		boolean liveFieldOriented = fieldOriented;
+		fieldOriented = replay.isFieldOriented();
+		previouslyPressed = false;
+		replay.rewind();
+		shooter.setController(replay.getController(1));
+
+		FixedRateLoop loop = new FixedRateLoop(replay.getRate());
+		long startTime = System.nanoTime();
+		int frames = 0;
+		while (isAutonomous() && isEnabled() && replay.advance()) {
+			driveCycle(replay.getController(0), replay.getController(1));
+			frames++;
+			loop.waitForNextCycle();
+		}
+
+		// Release every input for one cycle so nothing keeps running
+		replay.neutral();
+		driveCycle(replay.getController(0), replay.getController(1));
+		shooter.setController(sDriver);
+		fieldOriented = liveFieldOriented;
+		previouslyPressed = false;
+
+		System.out.println("Replayed " + frames + " of " + replay.getFrameCount() + " frames of "
+				+ replay.getName() + ", started " + (startTime - enableTime) / 1e6 + " ms after enable");
+		loop.report("replay");
+	}
+
 	@Override
 	public void test() {
+		// Characterize the mechanism named on the dashboard, if any
+		String test = NetworkTable.getTable("characterizationData").getString("test", "");
+		if (!test.isEmpty()) {
+			try {
+				characterization.run(Characterization.Mechanism.valueOf(test), this);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Error - Unknown characterization test " + test);
+			}
+		}
+
+		FixedRateLoop loop = new FixedRateLoop(CONTROL_LOOP_HZ);
 		while(isEnabled() && isTest()) {
+			loop.waitForNextCycle();
 		}
+		loop.report("test");
 	}
 	
 	@Override
 	public void disabled() {
 		super.disabled();
+		// Resolve the selected mode ahead of time, so enabling autonomous only
+		// has to start an already warmed up routine
+		FixedRateLoop loop = new FixedRateLoop(DISABLED_LOOP_HZ);
+		while (isDisabled()) {
+			String mode = CameraCoprocessor.getAutoMode();
+			if (!mode.equals(selectedMode)) {
+				selectedMode = mode;
+				selectedRoutine = null;
+				selectedReplay = null;
+				if (mode.startsWith(REPLAY_PREFIX)) {
+					String name = mode.substring(REPLAY_PREFIX.length()).trim();
+					try {
+						selectedReplay = new InputReplay(name, REPLAY_DIRECTORY + name + ".bin", new int[] { 0, 1 });
+						drive.warmUp();
+						System.out.println("Loaded replay " + name + " of " + selectedReplay.getFrameCount()
+								+ " frames");
+					} catch (IOException e) {
+						System.out.println("Error - Could not load replay " + name + ": " + e.getMessage());
+					}
+				} else if ((selectedRoutine = autonomous.getRoutine(mode)) == null) {
+					System.out.println("Error - Recieved Unknown Command: " + mode);
+				} else {
+					autonomous.warmUp(selectedRoutine);
+				}
+			}
+			loop.waitForNextCycle();
+		}
 		// NetworkTable.getTable("cameraData").putBoolean("end", true);
 	}
 }
\ No newline at end of file
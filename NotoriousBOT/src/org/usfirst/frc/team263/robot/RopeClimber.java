@@ -50,9 +50,19 @@ public class RopeClimber {
 		maxSpeed = speed;
 	}
 	
+	/**
+	 * Directly sets climber motor output, bypassing enable state.
+	 * 
+	 * @param speed
+	 *            Motor output
+	 */
+	public void setMotor(double speed) {
+		motor.set(speed);
+	}
+	
 	public void pulse(double speed, long time) {
 		motor.set(speed);
-		Timer.delay(time/1000);
+		Timer.delay(time / 1000.0);
 		motor.set(0);
 	}
 	
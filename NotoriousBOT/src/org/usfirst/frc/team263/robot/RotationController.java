@@ -0,0 +1,140 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * PIDF control law for closed loop rotation to a heading.
+ *
+ * <p>
+ * Gains are per second: the integral is in degree-seconds, the derivative in
+ * degrees per second and the feedforward in degrees per second squared, so
+ * the law behaves the same at any update rate. Derivative and acceleration
+ * terms are computed from the time between updates, and angular acceleration
+ * is low pass filtered, as differentiating the gyro rate is otherwise mostly
+ * noise. The acceleration term damps like the derivative term does. It was
+ * once <code>-kF * |alpha|</code>, which pushed the output the same way
+ * whichever way the robot accelerated, and {@link RotationSimulator} shows
+ * no gain from it, so it is tuned off. The integral is clamped and only
+ * accumulates while the output is unsaturated. A rotation is settled once it
+ * is within {@link #SETTLED_ERROR} of its setpoint and turning slower than
+ * {@link #SETTLED_RATE}, so overshooting through the band doesn't count.
+ * </p>
+ * <p>
+ * Holds no hardware, so the same law drives the robot's rotation controller,
+ * {@link RotationSimulator} and {@link AutoSimulator}.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class RotationController {
+	/**
+	 * Proportional (output per degree), integral (output per degree-second),
+	 * derivative (output per degree per second) and feedforward (output per
+	 * degree per second squared) gains, tuned with {@link RotationSimulator}
+	 * to settle 60 degree turns in about 400 ms. The output saturates beyond
+	 * about 7 degrees, and the derivative brakes the turn into the band.
+	 */
+	public static final double TUNED_KP = 0.09, TUNED_KI = 0.005, TUNED_KD = 0.006, TUNED_KF = 0;
+	/**
+	 * Rate the law is updated at on the robot (in Hz)
+	 */
+	public static final double UPDATE_RATE = 200;
+	/**
+	 * Largest wheel output of a rotation
+	 */
+	public static final double MAX_OUTPUT = 0.6;
+	/**
+	 * Largest error (in degrees) and rate (in degrees per second) of a settled
+	 * rotation
+	 */
+	public static final double SETTLED_ERROR = 5, SETTLED_RATE = 10;
+
+	// Time constant of the angular acceleration filter (in seconds)
+	private final double ALPHA_FILTER_TIME_CONSTANT = 0.02;
+	// Largest integral term, as a fraction of full output
+	private final double MAX_INTEGRAL_OUTPUT = 0.5;
+
+	private final double kp, ki, kd, kf;
+	private double previousError, previousOmega, alpha, integral;
+
+	/**
+	 * Instantiates the law with the tuned gains.
+	 */
+	public RotationController() {
+		this(TUNED_KP, TUNED_KI, TUNED_KD, TUNED_KF);
+	}
+
+	/**
+	 * @param kp
+	 *            Proportional gain (output per degree)
+	 * @param ki
+	 *            Integral gain (output per degree-second)
+	 * @param kd
+	 *            Derivative gain (output per degree per second)
+	 * @param kf
+	 *            Angular acceleration gain (output per degree per second
+	 *            squared)
+	 */
+	public RotationController(double kp, double ki, double kd, double kf) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+		this.kf = kf;
+	}
+
+	/**
+	 * Clears state for a new rotation.
+	 *
+	 * @param error
+	 *            Yaw less setpoint (in degrees)
+	 * @param omega
+	 *            Yaw rate (in degrees per second)
+	 */
+	public void reset(double error, double omega) {
+		previousError = error;
+		previousOmega = omega;
+		alpha = 0;
+		integral = 0;
+	}
+
+	/**
+	 * @param error
+	 *            Yaw less setpoint (in degrees)
+	 * @param omega
+	 *            Yaw rate (in degrees per second)
+	 * @return true if a rotation with this error and rate is settled, false
+	 *         otherwise
+	 */
+	public boolean isSettled(double error, double omega) {
+		return Math.abs(error) < SETTLED_ERROR && Math.abs(omega) < SETTLED_RATE;
+	}
+
+	/**
+	 * Updates the law.
+	 *
+	 * @param error
+	 *            Yaw less setpoint (in degrees)
+	 * @param omega
+	 *            Yaw rate (in degrees per second)
+	 * @param dt
+	 *            Time since the last update (in seconds)
+	 * @return Output of the right wheels, within {@link #MAX_OUTPUT}, the left
+	 *         wheels taking its negative
+	 */
+	public double calculate(double error, double omega, double dt) {
+		double rawAlpha = (omega - previousOmega) / dt;
+		alpha += (rawAlpha - alpha) * dt / (ALPHA_FILTER_TIME_CONSTANT + dt);
+		previousOmega = omega;
+
+		double derivative = (error - previousError) / dt;
+		previousError = error;
+		double u = kp * error + ki * integral + kd * derivative + kf * alpha;
+
+		// Anti-windup: only integrate while unsaturated, or when the error
+		// would pull the integral back towards zero.
+		if (Math.abs(u) < 1 || Math.signum(error) != Math.signum(integral)) {
+			double limit = ki > 0 ? MAX_INTEGRAL_OUTPUT / ki : 0;
+			integral = Math.max(-limit, Math.min(limit, integral + error * dt));
+		}
+		return Math.max(-1, Math.min(1, u)) * MAX_OUTPUT;
+	}
+}
@@ -0,0 +1,179 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Compares closed loop rotation controllers on a model of the drivebase, in
+ * simulated time as fast as the processor allows, so rotation gains can be
+ * tuned on a desktop.
+ *
+ * <p>
+ * Wheels follow their commanded outputs with the first order lag of
+ * {@link PoseEstimator}, less an assumed static friction, and the robot turns
+ * about {@link PathPlanner#TRACK_RADIUS}. The controllers read yaw and rate
+ * 20 ms late, four navX updates at the rate the robot configures, as a
+ * margin for filtering and bus delay. The current controller is
+ * {@link RotationController} updated at its rate. The legacy controller is
+ * the discrete loop it replaced, which updated every 500 ms with gains per
+ * update and ended as soon as an update saw the error within 5 degrees,
+ * however fast the robot was still turning. Its acceleration term,
+ * <code>-kF * |alpha|</code>, pushes the output the same way whichever way the
+ * robot accelerates, so the legacy loop is also run without it to compare the
+ * update rates alone. Every loop stops the wheels when it ends, after which
+ * the robot coasts to rest.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class RotationSimulator {
+	public static enum Loop {
+		eLegacy, eLegacyNoFeedforward, eCurrent;
+	}
+
+	/**
+	 * Step of simulated time (in seconds)
+	 */
+	public static final double DT = 0.001;
+	/**
+	 * Longest simulated rotation (in seconds)
+	 */
+	public static final double MAX_TIME = 5;
+
+	// Wheel output which only overcomes static friction, assumed
+	private final double STATIC_OUTPUT = 0.08;
+	// Legacy loop's gains per update, update period (in seconds) and output
+	private final double LEGACY_KP = 0.0033, LEGACY_KI = 0.004, LEGACY_KD = -0.0025, LEGACY_KF = 0.045,
+			LEGACY_PERIOD = 0.5, LEGACY_MAX_OUTPUT = 0.6, LEGACY_EPSILON = 5;
+	// Time the wheels are left stopped after a rotation ends, and age of navX
+	// readings (in seconds)
+	private final double COAST_TIME = 1, GYRO_LATENCY = 0.02;
+
+	private final double[] yawHistory = new double[(int) Math.round(GYRO_LATENCY / DT)],
+			rateHistory = new double[yawHistory.length];
+	private double yaw, yawRate, wheelSpeed, output;
+	private int historyIndex;
+
+	/**
+	 * Runs one rotation from rest.
+	 *
+	 * @param loop
+	 *            Loop to run
+	 * @param controller
+	 *            Current controller to run, unused for the legacy loops
+	 * @param from
+	 *            Starting yaw (in degrees)
+	 * @param to
+	 *            Yaw to rotate to (in degrees)
+	 * @return {time the controller ended, peak overshoot, error at rest
+	 *         after coasting}, in seconds and degrees, the time being
+	 *         {@link #MAX_TIME} if it never ended
+	 */
+	public double[] run(Loop loop, RotationController controller, double from, double to) {
+		boolean legacy = loop != Loop.eCurrent;
+		double legacyKF = loop == Loop.eLegacy ? LEGACY_KF : 0;
+		yaw = from;
+		yawRate = wheelSpeed = output = 0;
+		for (int i = 0; i < yawHistory.length; i++) {
+			yawHistory[i] = yaw;
+			rateHistory[i] = 0;
+		}
+		double error = wrap(yaw - to), direction = -Math.signum(error), peak = 0, time = 0, nextUpdate = 0,
+				endTime = MAX_TIME;
+		double legacyIntegral = 0, legacyPreviousError = error, legacyPreviousOmega = 0;
+		double period = legacy ? LEGACY_PERIOD : 1 / RotationController.UPDATE_RATE;
+		if (!legacy) {
+			controller.reset(error, yawRate);
+		}
+		for (; time < MAX_TIME; time += DT) {
+			if (time >= nextUpdate) {
+				nextUpdate += period;
+				// Oldest reading in the history, a navX update old
+				double measuredYaw = yawHistory[historyIndex], measuredRate = rateHistory[historyIndex];
+				error = wrap(measuredYaw - to);
+				if (legacy) {
+					if (time > 0 && Math.abs(error) <= LEGACY_EPSILON) {
+						endTime = time;
+						break;
+					}
+					legacyIntegral += error;
+					double alpha = measuredRate - legacyPreviousOmega;
+					legacyPreviousOmega = measuredRate;
+					double iTerm = Math.abs(legacyPreviousError - error) < 2 ? LEGACY_KI * legacyIntegral : 0;
+					double u = LEGACY_KP * error + iTerm + LEGACY_KD * (legacyPreviousError - error)
+							- legacyKF * Math.abs(alpha);
+					legacyPreviousError = error;
+					output = Math.max(-1, Math.min(1, u)) * LEGACY_MAX_OUTPUT;
+				} else {
+					if (controller.isSettled(error, measuredRate)) {
+						endTime = time;
+						break;
+					}
+					output = controller.calculate(error, measuredRate, period);
+				}
+			}
+			integrate();
+			peak = Math.max(peak, direction * wrap(yaw - to));
+		}
+
+		// Wheels stop when the controller ends
+		output = 0;
+		for (double coast = 0; coast < COAST_TIME; coast += DT) {
+			integrate();
+			peak = Math.max(peak, direction * wrap(yaw - to));
+		}
+		return new double[] { endTime, peak, Math.abs(wrap(yaw - to)) };
+	}
+
+	/**
+	 * Integrates one step of the drivebase turning in place, right wheels at
+	 * the output and left wheels at its negative.
+	 */
+	private void integrate() {
+		double drive = Math.max(0, Math.abs(output) - STATIC_OUTPUT) / (1 - STATIC_OUTPUT) * Math.signum(output);
+		wheelSpeed += (drive * PoseEstimator.MAX_WHEEL_SPEED - wheelSpeed) * DT
+				/ (PoseEstimator.WHEEL_TIME_CONSTANT + DT);
+		yawRate = Math.toDegrees(-wheelSpeed / PathPlanner.TRACK_RADIUS);
+		yaw = wrap(yaw + yawRate * DT);
+		yawHistory[historyIndex] = yaw;
+		rateHistory[historyIndex] = yawRate;
+		historyIndex = (historyIndex + 1) % yawHistory.length;
+	}
+
+	private static double wrap(double angle) {
+		angle %= 360;
+		if (angle > 180) {
+			angle -= 360;
+		} else if (angle <= -180) {
+			angle += 360;
+		}
+		return angle;
+	}
+
+	/**
+	 * Compares the legacy and current controllers over the rotations
+	 * autonomous routines make.
+	 *
+	 * <pre>
+	 * RotationSimulator [kP kI kD kF]
+	 * </pre>
+	 *
+	 * @param args
+	 *            Optionally gains to run the current controller with instead
+	 *            of the tuned gains
+	 */
+	public static void main(String[] args) {
+		RotationController controller = args.length >= 4
+				? new RotationController(Double.parseDouble(args[0]), Double.parseDouble(args[1]),
+						Double.parseDouble(args[2]), Double.parseDouble(args[3]))
+				: new RotationController();
+		RotationSimulator simulator = new RotationSimulator();
+		System.out.println("loop                  rotation     ended  overshoot  error at rest");
+		double[][] rotations = { { 0, 60 }, { 0, -60 }, { 60, 0 }, { 0, 15 }, { 0, 90 } };
+		for (double[] rotation : rotations) {
+			for (Loop loop : Loop.values()) {
+				double[] result = simulator.run(loop, controller, rotation[0], rotation[1]);
+				System.out.println(String.format("%-20s  %4.0f to %3.0f  %6.3fs  %7.1f deg  %9.1f deg", loop,
+						rotation[0], rotation[1], result[0], result[1], result[2]));
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Built in autonomous routines and the actions routines may use.
+ *
+ * <p>
+ * Holds no hardware and uses no WPILib classes, so routines can be parsed,
+ * validated, planned and simulated off the robot by {@link AutoTuner} and
+ * {@link TrajectoryFile} as well as run by {@link Autonomous}.
+ * </p>
+ *
+ * <p>
+ * Actions available to routines, with times in ms unless noted:
+ * </p>
+ * <ul>
+ * <li><code>forward(speed, time)</code> drives forward holding heading</li>
+ * <li><code>contact(speed, timeout)</code> drives forward holding heading until
+ * the robot runs into something</li>
+ * <li><code>strafe(speed, time)</code> strafes, positive to the right</li>
+ * <li><code>rotate(angle, timeout)</code> rotates to a field angle in degrees
+ * until settled</li>
+ * <li><code>wait(seconds)</code> waits</li>
+ * <li><code>gear()</code> toggles the gear mechanism</li>
+ * <li><code>gearUp(timeout)</code> waits for the gear mechanism to reach the
+ * top</li>
+ * <li><code>sprocket(timeout)</code> waits for the climber sprocket limit
+ * switch to close</li>
+ * <li><code>climb(speed, time)</code> pulses the rope climber</li>
+ * <li><code>shooter(power)</code> sets shooter power</li>
+ * <li><code>agitate()</code> starts the hopper agitator</li>
+ * <li><code>path(maxVelocity, maxAcceleration, x, y, heading, ...)</code>
+ * follows a minimum time path through two or more waypoints, in inches and
+ * degrees relative to where the path starts, with limits in inches per second
+ * and inches per second squared</li>
+ * </ul>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class RoutineLibrary {
+	/**
+	 * Built in routine description
+	 */
+	public static final String ROUTINES = ""
+			+ "Nothing: seq();\n"
+			+ "Baseline: par(climb(0.3, 2150), forward(0.3, 2460));\n"
+			+ "Straight: par(climb(0.3, 2150), seq(forward(0.2, 4500), forward(-0.2, 200)));\n"
+			+ "Left Gear Forward: par(climb(0.3, 2150), seq(\n"
+			+ "    forward(0.3, 2310), wait(1.5), rotate(60, 800),\n"
+			+ "    contact(0.25, 1200), forward(-0.25, 120), gear(), wait(1.5),\n"
+			+ "    forward(-0.3, 1380), gear(), rotate(0, 800), forward(0.6, 1620)));\n"
+			+ "Right Gear Forward: par(climb(0.3, 2150), seq(\n"
+			+ "    forward(0.23, 2820), wait(1.5), rotate(-60, 800),\n"
+			+ "    contact(0.25, 1530), forward(-0.25, 120), gear(), wait(1.5),\n"
+			+ "    forward(-0.3, 1500), gear(), rotate(0, 800), forward(0.6, 1620)));\n"
+			+ "Right Gear 1: par(climb(0.3, 2150), seq(\n"
+			+ "    forward(0.3, 2112), wait(1.5), rotate(-60, 800),\n"
+			+ "    contact(0.25, 1530), forward(-0.25, 120), gear(), wait(1.5),\n"
+			+ "    forward(-0.3, 1500), gear(), rotate(0, 800), forward(0.6, 1620)));\n"
+			+ "Right Gear T: par(climb(0.3, 2150), seq(\n"
+			+ "    forward(0.3, 2430), wait(1.5), rotate(-61, 800),\n"
+			+ "    contact(0.25, 1530), forward(-0.25, 120), gear(), wait(1.5),\n"
+			+ "    forward(-0.3, 1500), gear(), rotate(0, 800), forward(0.6, 1620)));\n"
+			+ "Left Gear Still: par(climb(0.3, 2150), seq(\n"
+			+ "    forward(0.3, 2100), wait(1.5), rotate(60, 800),\n"
+			+ "    contact(0.25, 1500), forward(-0.25, 60), gear(), wait(0.5),\n"
+			+ "    forward(-0.3, 1380), gear()));\n"
+			+ "Right Gear Still: par(climb(0.3, 2150), seq(\n"
+			+ "    forward(0.3, 2100), wait(1.5), rotate(-60, 800),\n"
+			+ "    contact(0.25, 1500), forward(-0.25, 120), gear(), wait(0.5),\n"
+			+ "    forward(-0.3, 1380), gear()));\n"
+			+ "Left Gear Path: par(climb(0.3, 2150), seq(\n"
+			+ "    path(100, 80, 0, 0, 0, 0, 80, 30, 20, 114, 60, 34, 122, 60),\n"
+			+ "    forward(-0.25, 120), gear(), wait(1.5),\n"
+			+ "    forward(-0.3, 1380), gear(), rotate(0, 800), forward(0.6, 1620)));\n"
+			+ "Right Gear Path: par(climb(0.3, 2150), seq(\n"
+			+ "    path(100, 80, 0, 0, 0, 0, 80, -30, -20, 114, -60, -34, 122, -60),\n"
+			+ "    forward(-0.25, 120), gear(), wait(1.5),\n"
+			+ "    forward(-0.3, 1500), gear(), rotate(0, 800), forward(0.6, 1620)));\n"
+			+ "Middle Gear No Shot: par(climb(0.3, 2150), seq(\n"
+			+ "    contact(0.2, 4080), forward(-0.2, 200), gear(), gearUp(1500),\n"
+			+ "    forward(-0.3, 1740), gear()));\n"
+			+ "Middle With Shot: par(climb(0.3, 2150), seq(\n"
+			+ "    contact(0.2, 4080), forward(-0.2, 120), gear(), gearUp(1500),\n"
+			+ "    forward(-0.3, 1740), gear(), strafe(-0.3, 700),\n"
+			+ "    shooter(0.98), wait(2.2), agitate()));\n";
+
+	private RoutineLibrary() {
+	}
+
+	/**
+	 * Creates a parser accepting every action available to routines. Contains
+	 * no hardware, so it can validate routines off the robot.
+	 *
+	 * @return Parser for routine descriptions
+	 */
+	public static RoutineParser createParser() {
+		RoutineParser.ArgumentValidator speedAndTime = new RoutineParser.ArgumentValidator() {
+			public String validate(RoutineStep step) {
+				if (Math.abs(step.getArg(0)) > 1) {
+					return "speed must be within [-1, 1]";
+				}
+				return step.getArg(1) > 0 ? null : "time must be positive";
+			}
+		};
+		RoutineParser.ArgumentValidator positiveTime = new RoutineParser.ArgumentValidator() {
+			public String validate(RoutineStep step) {
+				return step.getArg(step.getArgCount() - 1) > 0 ? null : "time must be positive";
+			}
+		};
+		RoutineParser.ArgumentValidator power = new RoutineParser.ArgumentValidator() {
+			public String validate(RoutineStep step) {
+				return Math.abs(step.getArg(0)) <= 1 ? null : "power must be within [-1, 1]";
+			}
+		};
+
+		RoutineParser.ArgumentValidator path = new RoutineParser.ArgumentValidator() {
+			public String validate(RoutineStep step) {
+				int count = step.getArgCount();
+				if (count < 8 || (count - 2) % 3 != 0) {
+					return "path takes limits and at least two waypoints of x, y, heading";
+				} else if (step.getArg(0) <= 0 || step.getArg(1) <= 0) {
+					return "path limits must be positive";
+				}
+				for (int i = 5; i < count; i += 3) {
+					if (step.getArg(i) == step.getArg(i - 3) && step.getArg(i + 1) == step.getArg(i - 2)) {
+						return "consecutive waypoints must differ in position";
+					}
+				}
+				return null;
+			}
+		};
+
+		RoutineParser p = new RoutineParser();
+		p.addAction("forward", 2, speedAndTime);
+		p.addAction("contact", 2, speedAndTime);
+		p.addAction("strafe", 2, speedAndTime);
+		p.addAction("climb", 2, speedAndTime);
+		p.addAction("rotate", 2, positiveTime);
+		p.addAction("wait", 1, positiveTime);
+		p.addAction("gearUp", 1, positiveTime);
+		p.addAction("sprocket", 1, positiveTime);
+		p.addAction("gear", 0, null);
+		p.addAction("agitate", 0, null);
+		p.addAction("shooter", 1, power);
+		p.addAction("path", RoutineParser.VARIABLE_ARGUMENTS, path);
+		return p;
+	}
+
+	/**
+	 * Plans the trajectory of a path step.
+	 *
+	 * @param step
+	 *            Validated step of
+	 *            <code>path(maxVelocity, maxAcceleration, x, y, heading, ...)</code>
+	 * @return Planned trajectory
+	 */
+	public static Trajectory planPath(RoutineStep step) {
+		double[][] waypoints = new double[(step.getArgCount() - 2) / 3][];
+		for (int i = 0; i < waypoints.length; i++) {
+			waypoints[i] = new double[] { step.getArg(2 + 3 * i), step.getArg(3 + 3 * i), step.getArg(4 + 3 * i) };
+		}
+		return PathPlanner.plan(waypoints, step.getArg(0), step.getArg(1));
+	}
+}
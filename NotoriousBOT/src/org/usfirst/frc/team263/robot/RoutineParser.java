@@ -0,0 +1,254 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parser and validator for autonomous routine descriptions.
+ *
+ * <p>
+ * A description is a list of routines, each written as
+ * <code>Name: step;</code>. A step is an action or group name followed by a
+ * parenthesized, comma separated list of numbers and child steps. Whitespace
+ * is ignored and <code>#</code> starts a comment running to the end of the
+ * line. For example:
+ * </p>
+ *
+ * <pre>
+ * Straight: seq(forward(0.2, 4500), forward(-0.2, 200));
+ * </pre>
+ *
+ * <p>
+ * Groups are <code>seq(steps...)</code>, <code>par(steps...)</code> and
+ * <code>timeout(ms, step)</code>. Actions and their argument counts are
+ * registered by the caller, so the parser has no knowledge of robot hardware.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class RoutineParser {
+	/**
+	 * Checks the arguments of one action after its argument count is verified.
+	 */
+	public interface ArgumentValidator {
+		/**
+		 * @param step
+		 *            Step to check
+		 * @return Description of problem with arguments, or null if they are
+		 *         valid
+		 */
+		String validate(RoutineStep step);
+	}
+
+	public static final String SEQUENTIAL = "seq", PARALLEL = "par", TIMEOUT = "timeout";
+	/**
+	 * Argument count of actions taking any number of arguments
+	 */
+	public static final int VARIABLE_ARGUMENTS = -1;
+
+	private final HashMap<String, Integer> argumentCounts = new HashMap<String, Integer>();
+	private final HashMap<String, ArgumentValidator> validators = new HashMap<String, ArgumentValidator>();
+	private String source;
+	private int position, line;
+
+	/**
+	 * Registers an action the parser should accept.
+	 *
+	 * @param name
+	 *            Name of action
+	 * @param argumentCount
+	 *            Number of numeric arguments the action takes, or
+	 *            {@link #VARIABLE_ARGUMENTS} to leave the count to the
+	 *            validator
+	 * @param validator
+	 *            Additional check of arguments, or null for none
+	 */
+	public void addAction(String name, int argumentCount, ArgumentValidator validator) {
+		argumentCounts.put(name, argumentCount);
+		if (validator != null) {
+			validators.put(name, validator);
+		}
+	}
+
+	/**
+	 * Parses and validates a description.
+	 *
+	 * @param description
+	 *            Text of routine description
+	 * @return Root step of each routine by name, in order of description
+	 * @throws IllegalArgumentException
+	 *             if description is malformed or any step is invalid
+	 */
+	public Map<String, RoutineStep> parse(String description) {
+		source = description;
+		position = 0;
+		line = 1;
+		LinkedHashMap<String, RoutineStep> routines = new LinkedHashMap<String, RoutineStep>();
+		skipWhitespace();
+		while (position < source.length()) {
+			int nameStart = position;
+			while (position < source.length() && source.charAt(position) != ':') {
+				if (source.charAt(position) == '\n' || source.charAt(position) == ';') {
+					throw error("Expected ':' after routine name");
+				}
+				position++;
+			}
+			String name = source.substring(nameStart, position).trim();
+			if (name.isEmpty()) {
+				throw error("Missing routine name");
+			}
+			if (routines.containsKey(name)) {
+				throw error("Duplicate routine " + name);
+			}
+			expect(':');
+			RoutineStep root = parseStep();
+			expect(';');
+			routines.put(name, root);
+		}
+		return routines;
+	}
+
+	/**
+	 * Validates a step tree, for trees not built by this parser.
+	 *
+	 * @param step
+	 *            Root step to validate
+	 * @throws IllegalArgumentException
+	 *             if any step is invalid
+	 */
+	public void validate(RoutineStep step) {
+		String problem = check(step);
+		if (problem != null) {
+			throw new IllegalArgumentException("Line " + step.getLine() + ": " + problem + " in " + step);
+		}
+		for (RoutineStep child : step.getChildren()) {
+			validate(child);
+		}
+	}
+
+	private RoutineStep parseStep() {
+		int stepLine = line;
+		int nameStart = position;
+		while (position < source.length() && Character.isLetterOrDigit(source.charAt(position))) {
+			position++;
+		}
+		String name = source.substring(nameStart, position);
+		if (name.isEmpty()) {
+			throw error("Expected step name");
+		}
+		skipWhitespace();
+		expect('(');
+
+		ArrayList<Double> args = new ArrayList<Double>();
+		ArrayList<RoutineStep> children = new ArrayList<RoutineStep>();
+		if (peek() != ')') {
+			do {
+				char c = peek();
+				if (Character.isLetter(c)) {
+					children.add(parseStep());
+				} else if (!children.isEmpty()) {
+					throw error("Numbers must come before child steps");
+				} else {
+					args.add(parseNumber());
+				}
+			} while (accept(','));
+		}
+		expect(')');
+
+		double[] argArray = new double[args.size()];
+		for (int i = 0; i < argArray.length; i++) {
+			argArray[i] = args.get(i);
+		}
+		RoutineStep step = new RoutineStep(name, argArray, children, stepLine);
+		String problem = check(step);
+		if (problem != null) {
+			throw new IllegalArgumentException("Line " + stepLine + ": " + problem + " in " + step);
+		}
+		return step;
+	}
+
+	private double parseNumber() {
+		int start = position;
+		while (position < source.length() && "+-.0123456789eE".indexOf(source.charAt(position)) >= 0) {
+			position++;
+		}
+		try {
+			double value = Double.parseDouble(source.substring(start, position));
+			skipWhitespace();
+			return value;
+		} catch (NumberFormatException e) {
+			position = start;
+			throw error("Expected number or step");
+		}
+	}
+
+	/**
+	 * Checks shape and arguments of a single step, not its children.
+	 */
+	private String check(RoutineStep step) {
+		String name = step.getName();
+		int children = step.getChildren().size();
+		if (name.equals(SEQUENTIAL) || name.equals(PARALLEL)) {
+			return step.getArgCount() == 0 ? null : name + " takes only steps";
+		} else if (name.equals(TIMEOUT)) {
+			if (step.getArgCount() != 1 || children != 1) {
+				return "timeout takes a time and one step";
+			}
+			return step.getArg(0) > 0 ? null : "timeout must be positive";
+		}
+		Integer count = argumentCounts.get(name);
+		if (count == null) {
+			return "Unknown action " + name;
+		} else if (children != 0) {
+			return name + " takes no steps";
+		} else if (count != VARIABLE_ARGUMENTS && step.getArgCount() != count) {
+			return name + " takes " + count + " arguments";
+		}
+		ArgumentValidator validator = validators.get(name);
+		return validator == null ? null : validator.validate(step);
+	}
+
+	private char peek() {
+		return position < source.length() ? source.charAt(position) : '\0';
+	}
+
+	private boolean accept(char c) {
+		if (peek() != c) {
+			return false;
+		}
+		position++;
+		skipWhitespace();
+		return true;
+	}
+
+	private void expect(char c) {
+		if (!accept(c)) {
+			throw error("Expected '" + c + "'");
+		}
+	}
+
+	private void skipWhitespace() {
+		while (position < source.length()) {
+			char c = source.charAt(position);
+			if (c == '#') {
+				while (position < source.length() && source.charAt(position) != '\n') {
+					position++;
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (c == '\n') {
+					line++;
+				}
+				position++;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("Line " + line + ": " + message);
+	}
+}
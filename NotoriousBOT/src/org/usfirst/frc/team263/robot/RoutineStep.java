@@ -0,0 +1,104 @@
+package org.usfirst.frc.team263.robot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed description of one step of an autonomous routine.
+ *
+ * <p>
+ * A step is either a group (<code>seq</code>, <code>par</code> or
+ * <code>timeout</code>) whose children are steps, or a leaf action with only
+ * numeric arguments. Steps are plain data so that routines can be validated,
+ * simulated and bound to robot hardware separately.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class RoutineStep {
+	private final String name;
+	private final double[] args;
+	private final List<RoutineStep> children;
+	private final int line;
+
+	/**
+	 * Instantiates a step.
+	 *
+	 * @param name
+	 *            Name of action or group
+	 * @param args
+	 *            Numeric arguments
+	 * @param children
+	 *            Child steps, empty for leaf actions
+	 * @param line
+	 *            Line of routine source the step starts on, for error messages
+	 */
+	public RoutineStep(String name, double[] args, List<RoutineStep> children, int line) {
+		this.name = name;
+		this.args = args;
+		this.children = Collections.unmodifiableList(new ArrayList<RoutineStep>(children));
+		this.line = line;
+	}
+
+	/**
+	 * @return Name of action or group
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param index
+	 *            Index of argument
+	 * @return Numeric argument at index
+	 */
+	public double getArg(int index) {
+		return args[index];
+	}
+
+	/**
+	 * @return Number of numeric arguments
+	 */
+	public int getArgCount() {
+		return args.length;
+	}
+
+	/**
+	 * @return Child steps, empty for leaf actions
+	 */
+	public List<RoutineStep> getChildren() {
+		return children;
+	}
+
+	/**
+	 * @return Line of routine source the step starts on
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Creates a copy of this step with different arguments.
+	 *
+	 * @param newArgs
+	 *            Numeric arguments for the copy
+	 * @return Copy of step with newArgs
+	 */
+	public RoutineStep withArgs(double[] newArgs) {
+		return new RoutineStep(name, newArgs, children, line);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name).append('(');
+		for (int i = 0; i < args.length; i++) {
+			sb.append(i == 0 ? "" : ", ").append(args[i]);
+		}
+		for (int i = 0; i < children.size(); i++) {
+			sb.append(i == 0 && args.length == 0 ? "" : ", ").append(children.get(i));
+		}
+		return sb.append(')').toString();
+	}
+}
@@ -0,0 +1,116 @@
+package org.usfirst.frc.team263.robot;
+
+import edu.wpi.first.wpilibj.PIDSource;
+import edu.wpi.first.wpilibj.PIDSourceType;
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Flywheel velocity loop closed on the roboRIO, at the rate of the shooter's
+ * control thread.
+ *
+ * <p>
+ * Output is the feedforward for the set point plus proportional and integral
+ * terms on the measured rate, which is read once per cycle. The integral is
+ * clamped so it can't wind up while the flywheel spins up. Works with any
+ * motor controller and any rate source, such as an encoder on the roboRIO.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class SoftwareFlywheel implements FlywheelBackend {
+	// Most output the integral term may contribute
+	private final double INTEGRAL_LIMIT = 0.3;
+
+	private final SpeedController motor;
+	private final PIDSource rateSource;
+	private double kP, kI, setpoint, integral, output;
+	private Feedforward feedforward = new Feedforward(0, 0, 0);
+
+	/**
+	 * Instantiates software flywheel loop.
+	 *
+	 * @param motor
+	 *            SpeedController for flywheel
+	 * @param rateSource
+	 *            Source of flywheel rate, such as an encoder, which is switched
+	 *            to measure rate (in encoder counts per second)
+	 */
+	public SoftwareFlywheel(SpeedController motor, PIDSource rateSource) {
+		this.motor = motor;
+		this.rateSource = rateSource;
+		rateSource.setPIDSourceType(PIDSourceType.kRate);
+	}
+
+	@Override
+	public void setSetpoint(double rate) {
+		if (rate == 0) {
+			setPower(0);
+			return;
+		}
+		if (setpoint == 0) {
+			integral = 0;
+		}
+		setpoint = rate;
+	}
+
+	@Override
+	public double getSetpoint() {
+		return setpoint;
+	}
+
+	@Override
+	public void setPower(double power) {
+		setpoint = 0;
+		output = power;
+		motor.set(power);
+	}
+
+	@Override
+	public void setGains(double kP, double kI, Feedforward feedforward) {
+		this.kP = kP;
+		this.kI = kI;
+		this.feedforward = feedforward;
+	}
+
+	@Override
+	public double getKP() {
+		return kP;
+	}
+
+	@Override
+	public double getKI() {
+		return kI;
+	}
+
+	@Override
+	public Feedforward getFeedforward() {
+		return feedforward;
+	}
+
+	@Override
+	public double getRate() {
+		return Math.abs(rateSource.pidGet());
+	}
+
+	@Override
+	public double getOutput() {
+		return output;
+	}
+
+	@Override
+	public void update(double dt) {
+		if (setpoint == 0) {
+			return;
+		}
+		double error = setpoint - getRate();
+		if (kI != 0) {
+			double limit = INTEGRAL_LIMIT / Math.abs(kI);
+			integral = Math.max(-limit, Math.min(limit, integral + error * dt));
+		}
+		double u = feedforward.getOutput(setpoint, 0) + kP * error + kI * integral;
+		// The flywheel coasts down rather than being driven backwards
+		output = Math.max(0, Math.min(1, u));
+		motor.set(output);
+	}
+}
@@ -0,0 +1,196 @@
+package org.usfirst.frc.team263.robot;
+
+import com.ctre.CANTalon;
+import com.ctre.CANTalon.FeedbackDevice;
+import com.ctre.CANTalon.StatusFrameRate;
+import com.ctre.CANTalon.TalonControlMode;
+
+/**
+ * Flywheel velocity loop closed on a CANTalon, in its speed mode at 1 kHz.
+ *
+ * <p>
+ * The shooter encoder must be wired to the Talon's data port, which counts
+ * quadrature edges at 4x, twice the resolution of the roboRIO encoder at 2x.
+ * Rates and gains are converted to the Talon's units of edges per 100 ms and
+ * 1023 for full output, so they match the software loop. The Talon's speed mode
+ * feedforward is a single gain, so kS is folded into it at each set point,
+ * which is exact at the set point. The integral only accumulates within
+ * {@link #INTEGRAL_ZONE} of the set point, the Talon's form of anti-windup.
+ * </p>
+ * <p>
+ * Closed loop and open loop output are both compensated to
+ * {@link BatteryMonitor#NOMINAL_VOLTAGE} by the Talon, so the motor should not
+ * be wrapped by the battery monitor.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class TalonFlywheel implements FlywheelBackend {
+	/**
+	 * Talon edges per roboRIO encoder count
+	 */
+	public static final double NATIVE_PER_COUNT = 2;
+	/**
+	 * Talon closed loop output at full output
+	 */
+	public static final double FULL_OUTPUT = 1023;
+	/**
+	 * Period of the Talon's closed loop (in seconds)
+	 */
+	public static final double LOOP_PERIOD = 0.001;
+	/**
+	 * Error beyond which the integral is cleared (in encoder counts per second)
+	 */
+	public static final double INTEGRAL_ZONE = 300;
+	// Period of feedback frames (in milliseconds), for up to speed checks
+	private final int FEEDBACK_PERIOD = 5;
+
+	private final CANTalon talon;
+	private double kP, kI, setpoint, power;
+	private Feedforward feedforward = new Feedforward(0, 0, 0);
+
+	/**
+	 * Instantiates Talon flywheel loop and configures the Talon.
+	 *
+	 * @param talon
+	 *            CANTalon driving the flywheel, with the shooter encoder on its
+	 *            data port
+	 * @param reverseSensor
+	 *            true if the encoder counts backwards when the flywheel shoots
+	 */
+	public TalonFlywheel(CANTalon talon, boolean reverseSensor) {
+		this.talon = talon;
+		talon.setFeedbackDevice(FeedbackDevice.QuadEncoder);
+		talon.reverseSensor(reverseSensor);
+		// setInverted only applies to open loop modes
+		talon.reverseOutput(talon.getInverted());
+		talon.setStatusFrameRateMs(StatusFrameRate.Feedback, FEEDBACK_PERIOD);
+		talon.setProfile(0);
+		talon.setIZone((int) Math.round(toNative(INTEGRAL_ZONE)));
+		talon.setNominalClosedLoopVoltage(BatteryMonitor.NOMINAL_VOLTAGE);
+		talon.configNominalOutputVoltage(0, 0);
+		// The flywheel coasts down rather than being driven backwards
+		talon.configPeakOutputVoltage(BatteryMonitor.NOMINAL_VOLTAGE, 0);
+		talon.enableBrakeMode(false);
+		setPower(0);
+	}
+
+	/**
+	 * @param rate
+	 *            Rate (in encoder counts per second)
+	 * @return Rate in Talon units (in edges per 100 ms)
+	 */
+	public static double toNative(double rate) {
+		return rate * NATIVE_PER_COUNT / 10;
+	}
+
+	/**
+	 * @param rate
+	 *            Rate in Talon units (in edges per 100 ms)
+	 * @return Rate (in encoder counts per second)
+	 */
+	public static double fromNative(double rate) {
+		return rate * 10 / NATIVE_PER_COUNT;
+	}
+
+	/**
+	 * Converts gains to the Talon's units.
+	 *
+	 * @param kP
+	 *            Output per count per second of error
+	 * @param kI
+	 *            Output per count of integrated error
+	 * @param feedforward
+	 *            Flywheel feedforward, in volts per count per second
+	 * @param setpoint
+	 *            Rate kS is folded into the feedforward gain at (in encoder
+	 *            counts per second)
+	 * @return Talon gains as {P, I, F}
+	 */
+	public static double[] toNativeGains(double kP, double kI, Feedforward feedforward, double setpoint) {
+		double perNative = FULL_OUTPUT / toNative(1);
+		// The Talon sums error in edges per 100 ms every loop
+		double i = kI * LOOP_PERIOD * perNative;
+		double f = setpoint == 0 ? 0 : feedforward.getOutput(setpoint, 0) / setpoint * perNative;
+		return new double[] { kP * perNative, i, f };
+	}
+
+	@Override
+	public void setSetpoint(double rate) {
+		if (rate == 0) {
+			setPower(0);
+			return;
+		}
+		if (talon.getControlMode() != TalonControlMode.Speed) {
+			talon.clearIAccum();
+			talon.changeControlMode(TalonControlMode.Speed);
+		}
+		if (rate != setpoint) {
+			setpoint = rate;
+			writeGains();
+		}
+		talon.set(toNative(rate));
+	}
+
+	@Override
+	public double getSetpoint() {
+		return setpoint;
+	}
+
+	@Override
+	public void setPower(double power) {
+		setpoint = 0;
+		this.power = power;
+		if (talon.getControlMode() != TalonControlMode.Voltage) {
+			talon.changeControlMode(TalonControlMode.Voltage);
+		}
+		talon.set(power * BatteryMonitor.NOMINAL_VOLTAGE);
+	}
+
+	@Override
+	public void setGains(double kP, double kI, Feedforward feedforward) {
+		this.kP = kP;
+		this.kI = kI;
+		this.feedforward = feedforward;
+		writeGains();
+	}
+
+	@Override
+	public double getKP() {
+		return kP;
+	}
+
+	@Override
+	public double getKI() {
+		return kI;
+	}
+
+	@Override
+	public Feedforward getFeedforward() {
+		return feedforward;
+	}
+
+	@Override
+	public double getRate() {
+		return Math.abs(fromNative(talon.getEncVelocity()));
+	}
+
+	@Override
+	public double getOutput() {
+		return setpoint == 0 ? power : Math.abs(talon.getOutputVoltage()) / BatteryMonitor.NOMINAL_VOLTAGE;
+	}
+
+	@Override
+	public void update(double dt) {
+		// The Talon runs the loop
+	}
+
+	private void writeGains() {
+		double[] gains = toNativeGains(kP, kI, feedforward, setpoint);
+		talon.setP(gains[0]);
+		talon.setI(gains[1]);
+		talon.setD(0);
+		talon.setF(gains[2]);
+	}
+}
@@ -0,0 +1,163 @@
+package org.usfirst.frc.team263.robot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Time parameterized holonomic trajectory, as a table of field frame states.
+ *
+ * <p>
+ * Each sample holds time, position, heading and field frame velocities as
+ * consecutive floats of {@link #RECORD_BYTES} bytes, the same layout
+ * {@link TrajectoryFile} stores, so a trajectory can be read straight from a
+ * memory mapped file. States between samples are linearly interpolated.
+ * Trajectories are immutable and are only read with absolute gets, so
+ * sampling does not allocate and one can be shared between threads and
+ * followed from a control loop.
+ * </p>
+ *
+ * @version 1.1
+ * @since 10-18-26
+ */
+public class Trajectory {
+	/**
+	 * Indices of state values filled in by {@link #sample(double, double[])}
+	 */
+	public static final int X = 0, Y = 1, HEADING = 2, VELOCITY_X = 3, VELOCITY_Y = 4, ANGULAR_VELOCITY = 5,
+			STATE_SIZE = 6;
+	/**
+	 * Size of one sample of time and state
+	 */
+	public static final int RECORD_BYTES = 4 * (1 + STATE_SIZE);
+
+	private final ByteBuffer records;
+	private final int size;
+
+	/**
+	 * Instantiates a trajectory from samples.
+	 *
+	 * @param times
+	 *            Time of each sample, strictly increasing from 0 (in seconds)
+	 * @param states
+	 *            State of each sample as {x, y, heading, velocity x, velocity
+	 *            y, angular velocity}, in inches, degrees and seconds
+	 */
+	public Trajectory(double[] times, double[][] states) {
+		if (times.length == 0 || times.length != states.length) {
+			throw new IllegalArgumentException("Trajectory needs one state per sample");
+		}
+		size = times.length;
+		records = ByteBuffer.allocate(size * RECORD_BYTES);
+		for (int i = 0; i < size; i++) {
+			records.putFloat((float) times[i]);
+			for (int j = 0; j < STATE_SIZE; j++) {
+				records.putFloat((float) states[i][j]);
+			}
+		}
+	}
+
+	/**
+	 * Instantiates a trajectory over stored samples without copying them.
+	 *
+	 * @param records
+	 *            Samples in the layout described above, starting at index 0
+	 * @param size
+	 *            Number of samples
+	 */
+	public Trajectory(ByteBuffer records, int size) {
+		if (size == 0 || records.capacity() < size * RECORD_BYTES) {
+			throw new IllegalArgumentException("Trajectory needs " + size + " samples");
+		}
+		this.records = records;
+		this.size = size;
+	}
+
+	/**
+	 * Interpolates the state at a time, clamped to the ends of the trajectory.
+	 *
+	 * @param t
+	 *            Time since start of trajectory (in seconds)
+	 * @param state
+	 *            Array of at least {@link #STATE_SIZE} to fill
+	 */
+	public void sample(double t, double[] state) {
+		if (t <= getTime(0)) {
+			getState(0, state);
+			return;
+		} else if (t >= getTime(size - 1)) {
+			getState(size - 1, state);
+			return;
+		}
+
+		// Binary search for the last sample at or before t
+		int low = 0, high = size - 1;
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (getTime(middle) <= t) {
+				low = middle;
+			} else {
+				high = middle;
+			}
+		}
+		double lowTime = getTime(low);
+		double fraction = (t - lowTime) / (getTime(high) - lowTime);
+		int a = low * RECORD_BYTES + 4, b = high * RECORD_BYTES + 4;
+		for (int i = 0; i < STATE_SIZE; i++) {
+			double from = records.getFloat(a + 4 * i);
+			state[i] = from + (records.getFloat(b + 4 * i) - from) * fraction;
+		}
+		double fromHeading = records.getFloat(a + 4 * HEADING);
+		double headingChange = records.getFloat(b + 4 * HEADING) - fromHeading;
+		if (headingChange > 180) {
+			headingChange -= 360;
+		} else if (headingChange < -180) {
+			headingChange += 360;
+		}
+		state[HEADING] = fromHeading + headingChange * fraction;
+	}
+
+	/**
+	 * @return Duration of trajectory (in seconds)
+	 */
+	public double getTotalTime() {
+		return getTime(size - 1);
+	}
+
+	/**
+	 * @return Number of samples
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            Index of sample
+	 * @return Time of sample (in seconds)
+	 */
+	public double getTime(int index) {
+		return records.getFloat(index * RECORD_BYTES);
+	}
+
+	/**
+	 * @param index
+	 *            Index of sample
+	 * @param state
+	 *            Array of at least {@link #STATE_SIZE} to copy state of sample
+	 *            into
+	 */
+	public void getState(int index, double[] state) {
+		int offset = index * RECORD_BYTES + 4;
+		for (int i = 0; i < STATE_SIZE; i++) {
+			state[i] = records.getFloat(offset + 4 * i);
+		}
+	}
+
+	/**
+	 * @return Read only view of samples, for storing
+	 */
+	public ByteBuffer getRecords() {
+		ByteBuffer view = records.asReadOnlyBuffer();
+		view.position(0).limit(size * RECORD_BYTES);
+		return view;
+	}
+}
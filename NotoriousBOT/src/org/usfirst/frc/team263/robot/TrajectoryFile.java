@@ -0,0 +1,234 @@
+package org.usfirst.frc.team263.robot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Binary storage of planned trajectories, so paths are planned ahead of time
+ * rather than on the robot.
+ *
+ * <p>
+ * A file starts with a header of {@link #MAGIC} (int), {@link #VERSION}
+ * (short), {@link Trajectory#STATE_SIZE} (short), number of samples (int),
+ * number of planner constants (int), number of path arguments (int), the
+ * {@link PathPlanner#getConstants() planner constants} (doubles) and the path
+ * arguments (doubles) the trajectory was planned from. The samples follow in
+ * the layout of {@link Trajectory}, 28 bytes each. Files are named after a
+ * hash of the planner constants and path arguments, and a file is only used
+ * if both match, so retuning the planner replans every path.
+ * </p>
+ * <p>
+ * Files are memory mapped and the trajectory reads its samples straight from
+ * the mapping, so loading neither parses nor copies the samples.
+ * </p>
+ * <p>
+ * Run {@link #main(String[])} on a desktop to plan every path in the routines
+ * into a directory, then copy it to {@link #DIRECTORY} on the robot.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class TrajectoryFile {
+	public static final int MAGIC = 0x5452414A;
+	public static final short VERSION = 2;
+	/**
+	 * Directory trajectories are loaded from on the robot
+	 */
+	public static final String DIRECTORY = "/home/lvuser/trajectories/";
+
+	private static final int FIXED_HEADER_BYTES = 20;
+	// Keeps timed sampling from being optimized away
+	private static volatile double sink;
+
+	private TrajectoryFile() {
+	}
+
+	/**
+	 * @param arguments
+	 *            Arguments of a path step
+	 * @return Name of file a trajectory planned from the arguments by the
+	 *         current planner is stored in
+	 */
+	public static String getFileName(double[] arguments) {
+		// 64 bit FNV-1a over the argument bits, as mirrored paths often
+		// collide in 32 bits
+		long hash = hash(0xcbf29ce484222325L, PathPlanner.getConstants());
+		return String.format("path-%016x.traj", hash(hash, arguments));
+	}
+
+	private static long hash(long hash, double[] values) {
+		for (double value : values) {
+			long bits = Double.doubleToLongBits(value);
+			for (int i = 0; i < 8; i++) {
+				hash = (hash ^ ((bits >>> (8 * i)) & 0xff)) * 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Writes a trajectory.
+	 *
+	 * @param file
+	 *            File to write
+	 * @param arguments
+	 *            Arguments the trajectory was planned from
+	 * @param trajectory
+	 *            Trajectory to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void write(Path file, double[] arguments, Trajectory trajectory) throws IOException {
+		double[] constants = PathPlanner.getConstants();
+		ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + 8 * (constants.length + arguments.length));
+		header.putInt(MAGIC).putShort(VERSION).putShort((short) Trajectory.STATE_SIZE).putInt(trajectory.size())
+				.putInt(constants.length).putInt(arguments.length);
+		for (double constant : constants) {
+			header.putDouble(constant);
+		}
+		for (double argument : arguments) {
+			header.putDouble(argument);
+		}
+		header.flip();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer records = trajectory.getRecords();
+			while (header.hasRemaining() || records.hasRemaining()) {
+				channel.write(new ByteBuffer[] { header, records });
+			}
+		}
+	}
+
+	/**
+	 * Maps a trajectory file.
+	 *
+	 * @param file
+	 *            File to read
+	 * @param arguments
+	 *            Arguments the trajectory must have been planned from
+	 * @return Trajectory reading from the mapped file
+	 * @throws IOException
+	 *             if the file can't be read, isn't a trajectory of this version,
+	 *             was planned with different planner constants or was planned
+	 *             from different arguments
+	 */
+	public static Trajectory map(Path file, double[] arguments) throws IOException {
+		MappedByteBuffer data;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			// The mapping stays valid once the channel is closed
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (data.remaining() < FIXED_HEADER_BYTES || data.getInt() != MAGIC) {
+			throw new IOException(file + " is not a trajectory");
+		} else if (data.getShort() != VERSION || data.getShort() != Trajectory.STATE_SIZE) {
+			throw new IOException(file + " was written by an incompatible version");
+		}
+		int size = data.getInt(), constantCount = data.getInt(), argumentCount = data.getInt();
+		double[] constants = PathPlanner.getConstants();
+		if (constantCount != constants.length || data.remaining() < 8 * constantCount) {
+			throw new IOException(file + " was planned with different planner constants");
+		}
+		for (double constant : constants) {
+			if (data.getDouble() != constant) {
+				throw new IOException(file + " was planned with different planner constants");
+			}
+		}
+		if (argumentCount != arguments.length || data.remaining() < 8 * argumentCount) {
+			throw new IOException(file + " was planned from a different path");
+		}
+		for (double argument : arguments) {
+			if (data.getDouble() != argument) {
+				throw new IOException(file + " was planned from a different path");
+			}
+		}
+		if (size <= 0 || data.remaining() < (long) size * Trajectory.RECORD_BYTES) {
+			throw new IOException(file + " is truncated");
+		}
+		return new Trajectory(data.slice(), size);
+	}
+
+	/**
+	 * Plans every path in a routine description and writes them, then reports
+	 * load time and per sample cost of the written files.
+	 *
+	 * <pre>
+	 * TrajectoryFile outputDirectory [routines.txt]
+	 * </pre>
+	 *
+	 * @param args
+	 *            Output directory, and optionally a routine description to
+	 *            use instead of the built in one
+	 * @throws IOException
+	 *             if a file can't be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: TrajectoryFile outputDirectory [routines.txt]");
+			return;
+		}
+		String description = args.length > 1
+				? new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8) : RoutineLibrary.ROUTINES;
+		Path directory = Paths.get(args[0]);
+		Files.createDirectories(directory);
+
+		Map<String, RoutineStep> routines = RoutineLibrary.createParser().parse(description);
+		for (Map.Entry<String, RoutineStep> entry : routines.entrySet()) {
+			writePaths(entry.getKey(), entry.getValue(), directory);
+		}
+	}
+
+	private static void writePaths(String routine, RoutineStep step, Path directory) throws IOException {
+		for (RoutineStep child : step.getChildren()) {
+			writePaths(routine, child, directory);
+		}
+		if (!step.getName().equals("path")) {
+			return;
+		}
+		double[] arguments = getArguments(step);
+		Trajectory planned = RoutineLibrary.planPath(step);
+		Path file = directory.resolve(getFileName(arguments));
+		write(file, arguments, planned);
+
+		long start = System.nanoTime();
+		Trajectory mapped = map(file, arguments);
+		double loadMillis = (System.nanoTime() - start) / 1e6;
+
+		// Sample at times spread over the trajectory, as a follower would
+		int samples = 1000000;
+		double[] state = new double[Trajectory.STATE_SIZE];
+		double interval = mapped.getTotalTime() / samples, checksum = 0;
+		// The first pass warms up the compiler, the second is timed
+		for (int pass = 0; pass < 2; pass++) {
+			start = System.nanoTime();
+			for (int i = 0; i < samples; i++) {
+				mapped.sample(i * interval, state);
+				checksum += state[Trajectory.X];
+			}
+		}
+		double sampleNanos = (double) (System.nanoTime() - start) / samples;
+		sink = checksum;
+		System.out.println(String.format("%s: %s, %d samples, %d bytes, %.2fs, mapped in %.3f ms, %.0f ns per sample",
+				routine, file.getFileName(), mapped.size(), Files.size(file), mapped.getTotalTime(), loadMillis,
+				sampleNanos));
+	}
+
+	/**
+	 * @return Arguments of a step
+	 */
+	public static double[] getArguments(RoutineStep step) {
+		double[] arguments = new double[step.getArgCount()];
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = step.getArg(i);
+		}
+		return arguments;
+	}
+}
@@ -0,0 +1,120 @@
+package org.usfirst.frc.team263.robot;
+
+/**
+ * Trapezoidal motion profile for a move of fixed distance.
+ *
+ * <p>
+ * Accelerates at constant acceleration up to a maximum velocity, cruises, and
+ * decelerates to rest at the target. Moves too short to reach maximum velocity
+ * use a triangular profile instead. Profiles are computed once on construction
+ * and may be sampled at any time without allocation.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class TrapezoidProfile {
+	private final double distance, direction, maxVelocity, acceleration, accelerationTime, cruiseTime,
+			totalTime, accelerationDistance;
+
+	/**
+	 * Generates a profile starting and ending at rest.
+	 *
+	 * @param distance
+	 *            Signed distance to move
+	 * @param maxVelocity
+	 *            Maximum velocity magnitude, in distance units per second
+	 * @param maxAcceleration
+	 *            Maximum acceleration magnitude, in distance units per second
+	 *            squared
+	 */
+	public TrapezoidProfile(double distance, double maxVelocity, double maxAcceleration) {
+		if (maxVelocity <= 0 || maxAcceleration <= 0) {
+			throw new IllegalArgumentException("Profile limits must be positive");
+		}
+		this.distance = Math.abs(distance);
+		this.direction = Math.signum(distance);
+		this.acceleration = maxAcceleration;
+
+		// Triangular profile if max velocity can't be reached by the midpoint
+		double peakVelocity = Math.min(maxVelocity, Math.sqrt(this.distance * maxAcceleration));
+		this.maxVelocity = peakVelocity;
+		accelerationTime = peakVelocity / maxAcceleration;
+		accelerationDistance = 0.5 * maxAcceleration * accelerationTime * accelerationTime;
+		cruiseTime = peakVelocity == 0 ? 0 : (this.distance - 2 * accelerationDistance) / peakVelocity;
+		totalTime = 2 * accelerationTime + cruiseTime;
+	}
+
+	/**
+	 * @param t
+	 *            Time since start of profile (in seconds)
+	 * @return Signed position along profile at time t
+	 */
+	public double getPosition(double t) {
+		double p;
+		if (t <= 0) {
+			p = 0;
+		} else if (t < accelerationTime) {
+			p = 0.5 * acceleration * t * t;
+		} else if (t < accelerationTime + cruiseTime) {
+			p = accelerationDistance + maxVelocity * (t - accelerationTime);
+		} else if (t < totalTime) {
+			double remaining = totalTime - t;
+			p = distance - 0.5 * acceleration * remaining * remaining;
+		} else {
+			p = distance;
+		}
+		return direction * p;
+	}
+
+	/**
+	 * @param t
+	 *            Time since start of profile (in seconds)
+	 * @return Signed velocity along profile at time t
+	 */
+	public double getVelocity(double t) {
+		double v;
+		if (t <= 0 || t >= totalTime) {
+			v = 0;
+		} else if (t < accelerationTime) {
+			v = acceleration * t;
+		} else if (t < accelerationTime + cruiseTime) {
+			v = maxVelocity;
+		} else {
+			v = acceleration * (totalTime - t);
+		}
+		return direction * v;
+	}
+
+	/**
+	 * @param t
+	 *            Time since start of profile (in seconds)
+	 * @return Signed acceleration along profile at time t
+	 */
+	public double getAcceleration(double t) {
+		if (t <= 0 || t >= totalTime) {
+			return 0;
+		} else if (t < accelerationTime) {
+			return direction * acceleration;
+		} else if (t < accelerationTime + cruiseTime) {
+			return 0;
+		}
+		return -direction * acceleration;
+	}
+
+	/**
+	 * @return Duration of profile (in seconds)
+	 */
+	public double getTotalTime() {
+		return totalTime;
+	}
+
+	/**
+	 * @param t
+	 *            Time since start of profile (in seconds)
+	 * @return true if profile has reached its target by time t
+	 */
+	public boolean isFinished(double t) {
+		return t >= totalTime;
+	}
+}
@@ -0,0 +1,116 @@
+package org.usfirst.frc.team263.robot;
+
+import edu.wpi.first.wpilibj.SpeedController;
+
+/**
+ * Motor controller wrapper which scales outputs by the battery monitor's
+ * compensation, so a given output produces the same voltage across the motor
+ * as the battery sags.
+ *
+ * <p>
+ * {@link #get()} returns the uncompensated output last set, so code which
+ * models the motor from its output sees the output it asked for. Outputs that
+ * can't be fully compensated are clamped to [-1, 1] and counted as saturated.
+ * </p>
+ *
+ * @version 1.0
+ * @since 10-18-26
+ */
+public class VoltageCompensatedController implements SpeedController {
+	private final SpeedController controller;
+	private final BatteryMonitor monitor;
+	private final String name;
+	private volatile double output, correction;
+	private volatile boolean saturated;
+
+	/**
+	 * Instantiates compensated controller. Use
+	 * {@link BatteryMonitor#compensate(SpeedController, String)} so that
+	 * corrections are logged.
+	 *
+	 * @param controller
+	 *            SpeedController to wrap
+	 * @param monitor
+	 *            BatteryMonitor to read compensation from
+	 * @param name
+	 *            Name to log corrections under
+	 */
+	VoltageCompensatedController(SpeedController controller, BatteryMonitor monitor, String name) {
+		this.controller = controller;
+		this.monitor = monitor;
+		this.name = name;
+	}
+
+	@Override
+	public void set(double speed) {
+		output = speed;
+		double compensated = speed * monitor.getCompensation();
+		saturated = Math.abs(compensated) > 1;
+		compensated = Math.max(-1, Math.min(1, compensated));
+		double change = compensated - speed;
+		// Keep the largest correction until the monitor collects it
+		if (Math.abs(change) > Math.abs(correction)) {
+			correction = change;
+		}
+		controller.set(compensated);
+	}
+
+	@Override
+	public void pidWrite(double output) {
+		set(output);
+	}
+
+	@Override
+	public double get() {
+		return output;
+	}
+
+	@Override
+	public void setInverted(boolean isInverted) {
+		controller.setInverted(isInverted);
+	}
+
+	@Override
+	public boolean getInverted() {
+		return controller.getInverted();
+	}
+
+	@Override
+	public void disable() {
+		output = 0;
+		controller.disable();
+	}
+
+	@Override
+	public void stopMotor() {
+		output = 0;
+		controller.stopMotor();
+	}
+
+	/**
+	 * @return Name corrections are logged under
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true if the last output needed more than full output to
+	 *         compensate
+	 */
+	public boolean isSaturated() {
+		return saturated;
+	}
+
+	/**
+	 * Returns the largest correction since the last call and clears it.
+	 * Called only by the battery monitor.
+	 *
+	 * @return Compensated output minus requested output
+	 */
+	double takeCorrection() {
+		double taken = correction;
+		correction = 0;
+		return taken;
+	}
+}